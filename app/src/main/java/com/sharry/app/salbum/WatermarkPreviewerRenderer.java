@@ -150,6 +150,18 @@ public class WatermarkPreviewerRenderer extends PreviewerRendererWrapper {
         return mTextureId;
     }
 
+    @Override
+    public void onRendererReleased() {
+        int[] textureIds = {mTextureId, mWaterTextureId};
+        GLES20.glDeleteTextures(textureIds.length, textureIds, 0);
+        if (mVboId != 0) {
+            GLES20.glDeleteBuffers(1, new int[]{mVboId}, 0);
+        }
+        mWaterTextureId = 0;
+        reset();
+        super.onRendererReleased();
+    }
+
     private void reset() {
         this.mProgramId = 0;
         this.mVboId = 0;
@@ -198,7 +210,7 @@ public class WatermarkPreviewerRenderer extends PreviewerRendererWrapper {
         if (mProgramId != 0) {
             return;
         }
-        mProgramId = GlUtil.createProgram(VERTEX_SHADER_STR, FRAGMENT_SHADER_STR);
+        mProgramId = GlUtil.obtainProgram(VERTEX_SHADER_STR, FRAGMENT_SHADER_STR);
         aVertexPosition = GLES20.glGetAttribLocation(mProgramId, "aVertexPosition");
         aTexturePosition = GLES20.glGetAttribLocation(mProgramId, "aTexturePosition");
         uTexture = GLES20.glGetUniformLocation(mProgramId, "uTexture");
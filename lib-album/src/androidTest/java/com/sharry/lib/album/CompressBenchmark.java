@@ -0,0 +1,164 @@
+package com.sharry.lib.album;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 各输出格式的压缩耗时与体积
+ * <p>
+ * 图片集由固定的随机种子生成, 不同设备和版本之间的结果可以直接对比,
+ * 结果输出到 logcat 和 instrumentation 的状态中:
+ * <pre>
+ * ./gradlew :lib-album:connectedAndroidTest
+ * </pre>
+ *
+ * @author Sharry <a href="SharryChooCHN@Gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+@RunWith(AndroidJUnit4.class)
+public class CompressBenchmark {
+
+    private static final String TAG = CompressBenchmark.class.getSimpleName();
+
+    private static final int QUALITY = 80;
+    private static final int WARMUP_COUNT = 2;
+    private static final int MEASURE_COUNT = 5;
+    private static final long CORPUS_SEED = 20191019L;
+
+    private final Bitmap[] mCorpus = new Bitmap[3];
+    private final String[] mCorpusNames = {"gradient", "shapes", "noise"};
+    private File mOutputFile;
+
+    @Before
+    public void setUp() {
+        mCorpus[0] = createGradient(1920, 1080);
+        mCorpus[1] = createShapes(1920, 1080);
+        mCorpus[2] = createNoise(1280, 720);
+        mOutputFile = new File(InstrumentationRegistry.getInstrumentation().getTargetContext().getCacheDir(),
+                "compress_benchmark");
+    }
+
+    @After
+    public void tearDown() {
+        for (Bitmap bitmap : mCorpus) {
+            bitmap.recycle();
+        }
+        mOutputFile.delete();
+    }
+
+    @Test
+    public void benchmarkFormats() throws IOException {
+        StringBuilder report = new StringBuilder();
+        for (PictureFormat format : PictureFormat.values()) {
+            PictureFormat resolved = CompressUtil.resolveFormat(format);
+            for (int i = 0; i < mCorpus.length; i++) {
+                long[] costs = new long[MEASURE_COUNT];
+                for (int j = 0; j < WARMUP_COUNT; j++) {
+                    compress(mCorpus[i], format);
+                }
+                for (int j = 0; j < MEASURE_COUNT; j++) {
+                    long start = SystemClock.elapsedRealtimeNanos();
+                    compress(mCorpus[i], format);
+                    costs[j] = SystemClock.elapsedRealtimeNanos() - start;
+                }
+                long size = mOutputFile.length();
+                assertTrue(format + " produced an empty file.", size > 0);
+                Arrays.sort(costs);
+                String line = String.format(Locale.US, "%-13s(%-13s) %-8s %dx%d median %6.1f ms, %8d bytes",
+                        format, resolved, mCorpusNames[i], mCorpus[i].getWidth(), mCorpus[i].getHeight(),
+                        costs[MEASURE_COUNT / 2] / 1e6, size);
+                Log.i(TAG, line);
+                report.append(line).append('\n');
+            }
+        }
+        Bundle results = new Bundle();
+        results.putString(TAG, report.toString());
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private void compress(Bitmap bitmap, PictureFormat format) throws IOException {
+        FileOutputStream out = new FileOutputStream(mOutputFile);
+        try {
+            CompressUtil.qualityCompress(bitmap, QUALITY, format, out.getFD());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 平滑的渐变, 接近天空等大面积的色块
+     */
+    private static Bitmap createGradient(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, height,
+                new int[]{Color.rgb(20, 60, 140), Color.rgb(240, 180, 90), Color.rgb(30, 120, 60)},
+                null, Shader.TileMode.CLAMP));
+        new Canvas(bitmap).drawRect(0, 0, width, height, paint);
+        return bitmap;
+    }
+
+    /**
+     * 大量边缘清晰的图形, 接近文字和截图
+     */
+    private static Bitmap createShapes(int width, int height) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        Random random = new Random(CORPUS_SEED);
+        for (int i = 0; i < 400; i++) {
+            paint.setColor(Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            float x = random.nextInt(width);
+            float y = random.nextInt(height);
+            float radius = 10 + random.nextInt(120);
+            if (i % 2 == 0) {
+                canvas.drawCircle(x, y, radius, paint);
+            } else {
+                canvas.drawRect(x, y, x + radius * 2, y + radius, paint);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * 高频噪点, 接近暗光下的照片
+     */
+    private static Bitmap createNoise(int width, int height) {
+        Random random = new Random(CORPUS_SEED);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int base = 128 + (i % width) * 64 / width;
+            int noise = random.nextInt(64) - 32;
+            int value = Math.max(0, Math.min(255, base + noise));
+            pixels[i] = Color.rgb(value, value, Math.max(0, value - 20));
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+}
@@ -0,0 +1,328 @@
+package com.sharry.lib.album;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SdkSuppress;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.sharry.lib.camera.AspectRatio;
+import com.sharry.lib.camera.FakeCameraDevice;
+import com.sharry.lib.camera.PictureCallback;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 拍照到保存的完整流程
+ * <p>
+ * 使用 {@link FakeCameraDevice} 输出预置的 JPEG 数据, 校验写入 MediaStore 的文件与相机输出一致
+ * <p>
+ * 待发布的 MediaStore 条目需要 Android 10 以上
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = 29)
+public class TakerPresenterTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private Context mContext;
+    private FakeView mView;
+    private TakerPresenter mPresenter;
+    private MediaMeta mSavedPicture;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mView = new FakeView();
+        final TakerConfig config = TakerConfig.Builder()
+                .setAuthority(mContext.getPackageName() + ".FileProvider")
+                .setRelativePath("SAlbumTest")
+                .setPictureFormat(PictureFormat.JPEG)
+                .build();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPresenter = new TakerPresenter(mContext, mView, config);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPresenter.handleViewDestroy();
+            }
+        });
+        if (mSavedPicture != null) {
+            FileUtil.delete(mContext, mSavedPicture.contentUri);
+        }
+    }
+
+    @Test
+    public void captureThenEnsureWritesCameraJpeg() throws Exception {
+        byte[] jpeg = createJpeg();
+        takePicture(new FakeCameraDevice(jpeg));
+        assertTrue(mView.awaitStatus(ITakerContract.IView.STATUS_PICTURE_PREVIEW));
+
+        final int[] statusAfterEnsure = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPresenter.handleGranted();
+                statusAfterEnsure[0] = mView.getStatus();
+            }
+        });
+        // 确认后立即回到预览, 不等待保存完成
+        assertEquals(ITakerContract.IView.STATUS_CAMERA_PREVIEW, statusAfterEnsure[0]);
+
+        assertTrue(mView.mResultLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        mSavedPicture = mView.mResult;
+        assertNotNull(mSavedPicture);
+        assertEquals(100, mView.mLastProgress);
+        // JPEG 格式直接写入相机的输出, 不经过解码与重新编码
+        assertArrayEquals(jpeg, readAll(mSavedPicture.contentUri));
+    }
+
+    @Test
+    public void ensureTwiceReportsLatestPictureAndCompletesProgressOnce() throws Exception {
+        final byte[] first = createJpeg(Color.RED);
+        final byte[] second = createJpeg(Color.GREEN);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // 第二张拍摄完成前第一张已确认, 两张都进入保存队列
+                mPresenter.handleTakePicture(first);
+                mPresenter.handleGranted();
+                mPresenter.handleTakePicture(second);
+                mPresenter.handleGranted();
+            }
+        });
+
+        assertTrue(mView.mResultLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        mSavedPicture = mView.mResult;
+        assertNotNull(mSavedPicture);
+        assertArrayEquals(second, readAll(mSavedPicture.contentUri));
+        // 进度单调递增, 两张都保存完毕后才到达 100
+        List<Integer> progresses = mView.getProgresses();
+        for (int i = 1; i < progresses.size(); i++) {
+            assertTrue(progresses.get(i) >= progresses.get(i - 1));
+        }
+        assertEquals(progresses.size() - 1, progresses.indexOf(100));
+    }
+
+    @Test
+    public void captureFailedReturnsToPreview() throws Exception {
+        FakeCameraDevice device = takePicture(new FakeCameraDevice(null));
+        assertTrue(mView.awaitStatus(ITakerContract.IView.STATUS_CAMERA_PREVIEW));
+        assertEquals(1, device.getPictureCount());
+        assertEquals(R.string.lib_album_taker_take_picture_failed, mView.mLastToast);
+        assertEquals(1, mView.mResultLatch.getCount());
+    }
+
+    /**
+     * 与 TakerActivity 一致, 相机的回调直接交给 Presenter
+     */
+    private FakeCameraDevice takePicture(final FakeCameraDevice device) {
+        mView.resetStatus();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                device.open();
+                device.takePicture(new PictureCallback() {
+                    @Override
+                    public void onPictureTaken(@NonNull byte[] jpeg) {
+                        mPresenter.handleTakePicture(jpeg);
+                    }
+
+                    @Override
+                    public void onPictureFailed(@NonNull Throwable e) {
+                        mPresenter.handleTakePicture(null);
+                    }
+                });
+            }
+        });
+        return device;
+    }
+
+    private static byte[] createJpeg() {
+        return createJpeg(Color.rgb(30, 144, 255));
+    }
+
+    private static byte[] createJpeg(int color) {
+        Bitmap bitmap = Bitmap.createBitmap(64, 48, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, output);
+        bitmap.recycle();
+        return output.toByteArray();
+    }
+
+    private byte[] readAll(Uri uri) throws IOException {
+        InputStream input = mContext.getContentResolver().openInputStream(uri);
+        assertNotNull(input);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 记录 Presenter 对视图的调用, 所有方法都在 UI 线程中调用
+     */
+    private static final class FakeView implements ITakerContract.IView {
+
+        final CountDownLatch mResultLatch = new CountDownLatch(1);
+        volatile MediaMeta mResult;
+        volatile int mLastProgress = -1;
+        volatile int mLastToast;
+        private final List<Integer> mProgresses = new ArrayList<>();
+        private final Object mStatusLock = new Object();
+        private int mStatus;
+        private boolean mIsStatusChanged;
+
+        boolean awaitStatus(int status) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+            synchronized (mStatusLock) {
+                while (!mIsStatusChanged || mStatus != status) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    mStatusLock.wait(remaining);
+                }
+                return true;
+            }
+        }
+
+        List<Integer> getProgresses() {
+            synchronized (mProgresses) {
+                return new ArrayList<>(mProgresses);
+            }
+        }
+
+        void resetStatus() {
+            synchronized (mStatusLock) {
+                mIsStatusChanged = false;
+            }
+        }
+
+        @Override
+        public void setStatus(int status) {
+            synchronized (mStatusLock) {
+                mStatus = status;
+                mIsStatusChanged = true;
+                mStatusLock.notifyAll();
+            }
+        }
+
+        @Override
+        public int getStatus() {
+            synchronized (mStatusLock) {
+                return mStatus;
+            }
+        }
+
+        @Override
+        public void setPictureSaveProgress(int progress) {
+            mLastProgress = progress;
+            synchronized (mProgresses) {
+                mProgresses.add(progress);
+            }
+        }
+
+        @Override
+        public void toast(int resId) {
+            mLastToast = resId;
+        }
+
+        @Override
+        public void setResult(@NonNull MediaMeta mediaMeta) {
+            mResult = mediaMeta;
+            setStatus(STATUS_PICKED);
+            mResultLatch.countDown();
+        }
+
+        @Override
+        public void setPreviewAspect(@NonNull AspectRatio aspect) {
+        }
+
+        @Override
+        public void setPreviewFullScreen(boolean fullScreen) {
+        }
+
+        @Override
+        public void setPictureQuality(int quality) {
+        }
+
+        @Override
+        public void setPreviewRenderer(@NonNull String rendererClassName) {
+        }
+
+        @Override
+        public void setRecordButtonVisible(boolean visible) {
+        }
+
+        @Override
+        public void setSupportVideoRecord(boolean isVideoRecord) {
+        }
+
+        @Override
+        public void setMaxRecordDuration(long maxDuration) {
+        }
+
+        @Override
+        public void setRecordButtonProgress(long currentDuration) {
+        }
+
+        @Override
+        public void setProgressColor(int recordProgressColor) {
+        }
+
+        @Override
+        public void setPreviewSource(@NonNull Bitmap bitmap) {
+        }
+
+        @Override
+        public void startVideoPlayer(@NonNull Uri uri) {
+        }
+
+        @Override
+        public void stopVideoPlayer() {
+        }
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.sharry.lib.camera;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 不依赖硬件的相机, 拍照时返回预置的 JPEG 数据
+ * <p>
+ * 与 {@link Camera1Device} 一致, 结果异步回调在 UI 线程, 并且不支持并发拍照
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+public final class FakeCameraDevice implements ICameraDevice {
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final byte[] mJpeg;
+    private boolean mIsOpened;
+    private boolean mIsTakingPicture;
+    private int mPictureCount;
+
+    /**
+     * @param jpeg 拍照时输出的数据, null 表示拍照失败
+     */
+    public FakeCameraDevice(byte[] jpeg) {
+        mJpeg = jpeg;
+    }
+
+    @Override
+    public void open() {
+        mIsOpened = true;
+    }
+
+    @Override
+    public void close() {
+        mIsOpened = false;
+        mIsTakingPicture = false;
+    }
+
+    @Override
+    public void takePicture(@NonNull final PictureCallback callback) {
+        if (!mIsOpened) {
+            callback.onPictureFailed(new IllegalStateException("Camera is not opened."));
+            return;
+        }
+        if (mIsTakingPicture) {
+            callback.onPictureFailed(new IllegalStateException("Camera is taking picture."));
+            return;
+        }
+        mIsTakingPicture = true;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mIsTakingPicture = false;
+                mPictureCount++;
+                if (mJpeg == null) {
+                    callback.onPictureFailed(new IllegalStateException("Camera output empty jpeg data."));
+                } else {
+                    callback.onPictureTaken(mJpeg);
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean isCameraOpened() {
+        return mIsOpened;
+    }
+
+    @Override
+    public void notifyContextChanged() {
+        // nothing.
+    }
+
+    public int getPictureCount() {
+        return mPictureCount;
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.sharry.lib.album;
+
+/**
+ * 图片压缩输出的编码格式
+ * <p>
+ * 设备不支持的格式会在压缩时回退为 {@link #JPEG}
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-12 10:21
+ */
+public enum PictureFormat {
+
+    /**
+     * 有损的 JPEG, 兼容性最好
+     */
+    JPEG("image/jpeg", ".jpg"),
+
+    /**
+     * 有损的 WebP, 同等质量下体积通常比 JPEG 小 25% ~ 35%
+     */
+    WEBP_LOSSY("image/webp", ".webp"),
+
+    /**
+     * 无损的 WebP, 忽略压缩质量参数
+     */
+    WEBP_LOSSLESS("image/webp", ".webp"),
+
+    /**
+     * HEIF, 需要 Android 9.0 以上并且设备具备 HEVC 编码器
+     */
+    HEIF("image/heif", ".heic");
+
+    private String mime;
+    private String suffix;
+
+    /**
+     * 定义图片输出格式
+     *
+     * @param mime   图片的 MIME 类型
+     * @param suffix 图片文件扩展名
+     */
+    PictureFormat(String mime, String suffix) {
+        this.mime = mime;
+        this.suffix = suffix;
+    }
+
+    public String getMIME() {
+        return mime;
+    }
+
+    public String getFileSuffix() {
+        return suffix;
+    }
+
+}
@@ -27,6 +27,7 @@ public class CropperConfig implements Parcelable {
         outputX = in.readInt();
         outputY = in.readInt();
         destQuality = in.readInt();
+        destFormat = PictureFormat.values()[in.readInt()];
     }
 
     @Override
@@ -40,6 +41,7 @@ public class CropperConfig implements Parcelable {
         dest.writeInt(outputX);
         dest.writeInt(outputY);
         dest.writeInt(destQuality);
+        dest.writeInt(destFormat.ordinal());
     }
 
     @Override
@@ -72,6 +74,7 @@ public class CropperConfig implements Parcelable {
     private int outputX = 500;          // 图像输出时的宽
     private int outputY = 500;          // 图像输出的高
     private int destQuality = 80;       // 裁剪后图片输出的质量
+    private PictureFormat destFormat = PictureFormat.JPEG;  // 裁剪后图片输出的格式
 
     private CropperConfig() {
     }
@@ -112,6 +115,10 @@ public class CropperConfig implements Parcelable {
         return destQuality;
     }
 
+    public PictureFormat getDestFormat() {
+        return destFormat;
+    }
+
     public Builder rebuild() {
         return new Builder(this);
     }
@@ -200,6 +207,17 @@ public class CropperConfig implements Parcelable {
             return this;
         }
 
+        /**
+         * 设置裁剪后输出的格式
+         * <p>
+         * 设备不支持的格式会回退为 {@link PictureFormat#JPEG}
+         */
+        public Builder setCropFormat(@NonNull PictureFormat format) {
+            Preconditions.checkNotNull(format, "Please ensure crop format not null!");
+            mConfig.destFormat = format;
+            return this;
+        }
+
         @NonNull
         public CropperConfig build() {
             if (TextUtils.isEmpty(mConfig.authority)) {
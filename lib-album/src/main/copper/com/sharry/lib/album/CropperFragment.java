@@ -114,21 +114,26 @@ public class CropperFragment extends Fragment {
         switch (requestCode) {
             case REQUEST_CODE_CROP:
                 try {
+                    PictureFormat format = CompressUtil.resolveFormat(mConfig.getDestFormat());
                     // 创建最终的目标文件, 将图片从临时文件压缩到指定的目录
                     if (VersionUtil.isQ()) {
-                        Uri uri = FileUtil.createJpegPendingItem(mContext, mConfig.getRelativePath());
+                        Uri uri = FileUtil.createPicturePendingItem(mContext, mConfig.getRelativePath(), format);
                         ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(uri, "w");
-                        CompressUtil.doCompress(mTempFile.getAbsolutePath(), pfd.getFileDescriptor(), mConfig.getDestQuality());
+                        CompressUtil.doCompress(mTempFile.getAbsolutePath(), pfd.getFileDescriptor(),
+                                mConfig.getDestQuality(), format);
                         FileUtil.publishPendingItem(mContext, uri);
                         MediaMeta mediaMeta = MediaMeta.create(uri, FileUtil.getImagePath(mContext, uri), true);
+                        mediaMeta.mimeType = format.getMIME();
                         mCropperCallback.onCropComplete(mediaMeta);
                     } else {
-                        File file = FileUtil.createJpegFile(mContext, mConfig.getRelativePath());
+                        File file = FileUtil.createPictureFile(mContext, mConfig.getRelativePath(), format);
                         Uri uri = FileUtil.getUriFromFile(mContext, mConfig.getAuthority(), file);
                         ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(uri, "w");
-                        CompressUtil.doCompress(mTempFile.getAbsolutePath(), pfd.getFileDescriptor(), mConfig.getDestQuality());
+                        CompressUtil.doCompress(mTempFile.getAbsolutePath(), pfd.getFileDescriptor(),
+                                mConfig.getDestQuality(), format);
                         FileUtil.notifyMediaStore(mContext, file.getAbsolutePath());
                         MediaMeta mediaMeta = MediaMeta.create(uri, file.getAbsolutePath(), true);
+                        mediaMeta.mimeType = format.getMIME();
                         mCropperCallback.onCropComplete(mediaMeta);
                     }
                 } catch (Exception e) {
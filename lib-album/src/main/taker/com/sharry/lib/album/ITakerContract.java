@@ -5,6 +5,7 @@ import android.net.Uri;
 
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 
 import com.sharry.lib.camera.AspectRatio;
@@ -23,6 +24,8 @@ public interface ITakerContract {
 
         void setPreviewFullScreen(boolean fullScreen);
 
+        void setPictureQuality(int quality);
+
         void setPreviewRenderer(@NonNull String rendererClassName);
 
         void setRecordButtonVisible(boolean visible);
@@ -37,6 +40,13 @@ public interface ITakerContract {
 
         void setPreviewSource(@NonNull Bitmap bitmap);
 
+        /**
+         * 图片异步保存的进度, 保存期间可以继续拍摄
+         *
+         * @param progress range in [0, 100]
+         */
+        void setPictureSaveProgress(int progress);
+
         void startVideoPlayer(@NonNull Uri uri);
 
         void stopVideoPlayer();
@@ -72,7 +82,10 @@ public interface ITakerContract {
 
         void handleDenied();
 
-        void handleTakePicture(Bitmap bitmap);
+        /**
+         * @param jpeg 相机输出的 JPEG 数据, null 表示拍照失败
+         */
+        void handleTakePicture(@Nullable byte[] jpeg);
 
         void handleRecordStart(SCameraView cameraView);
 
@@ -8,6 +8,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.ImageView;
+import android.widget.ProgressBar;
 import android.widget.Toast;
 import android.widget.VideoView;
 
@@ -22,6 +23,7 @@ import com.sharry.lib.album.toolbar.ImageViewOptions;
 import com.sharry.lib.album.toolbar.SToolbar;
 import com.sharry.lib.camera.AspectRatio;
 import com.sharry.lib.camera.IPreviewer;
+import com.sharry.lib.camera.PictureCallback;
 import com.sharry.lib.camera.SCameraView;
 
 import java.lang.reflect.Constructor;
@@ -71,6 +73,7 @@ public class TakerActivity extends AppCompatActivity implements
     private ImageView mIvPicturePreview;
     private VideoView mVideoPlayer;
     private ConstraintLayout mClEnsurePanel;
+    private ProgressBar mPbSaveProgress;
     private ImageView mIvDenied;
     private ImageView mIvGranted;
     private int mStatus;
@@ -129,6 +132,11 @@ public class TakerActivity extends AppCompatActivity implements
         mCameraView.setLayoutParams(params);
     }
 
+    @Override
+    public void setPictureQuality(int quality) {
+        mCameraView.setPictureQuality(quality);
+    }
+
     @Override
     public void setPreviewRenderer(@NonNull String rendererClassName) {
         try {
@@ -173,6 +181,13 @@ public class TakerActivity extends AppCompatActivity implements
         mIvPicturePreview.setImageBitmap(bitmap);
     }
 
+    @Override
+    public void setPictureSaveProgress(int progress) {
+        // 保存在后台进行, 不影响继续拍摄
+        mPbSaveProgress.setVisibility(progress < 100 ? View.VISIBLE : View.GONE);
+        mPbSaveProgress.setProgress(progress);
+    }
+
     @Override
     public void startVideoPlayer(@NonNull Uri uri) {
         mVideoPlayer.setVideoURI(uri);
@@ -222,6 +237,7 @@ public class TakerActivity extends AppCompatActivity implements
                 mBtnRecord.setVisibility(View.VISIBLE);
                 mVideoPlayer.setVisibility(View.INVISIBLE);
                 mIvPicturePreview.setVisibility(View.INVISIBLE);
+                mIvPicturePreview.setImageBitmap(null);
                 mClEnsurePanel.setVisibility(View.INVISIBLE);
                 // 开始预览
                 mCameraView.startPreview();
@@ -259,7 +275,17 @@ public class TakerActivity extends AppCompatActivity implements
 
     @Override
     public void onTakePicture() {
-        mPresenter.handleTakePicture(mCameraView.takePicture());
+        mCameraView.takePicture(new PictureCallback() {
+            @Override
+            public void onPictureTaken(@NonNull byte[] jpeg) {
+                mPresenter.handleTakePicture(jpeg);
+            }
+
+            @Override
+            public void onPictureFailed(@NonNull Throwable e) {
+                mPresenter.handleTakePicture(null);
+            }
+        });
     }
 
     @Override
@@ -358,6 +384,7 @@ public class TakerActivity extends AppCompatActivity implements
 
         // Selector Panel
         mClEnsurePanel = findViewById(R.id.cl_ensure_panel);
+        mPbSaveProgress = findViewById(R.id.pb_save_progress);
 
         // Denied
         mIvDenied = findViewById(R.id.iv_denied);
@@ -380,6 +407,7 @@ public class TakerActivity extends AppCompatActivity implements
 
     private void initPresenter() {
         mPresenter = new TakerPresenter(
+                this,
                 this,
                 (TakerConfig) getIntent().getParcelableExtra(EXTRA_TAKER_CONFIG)
         );
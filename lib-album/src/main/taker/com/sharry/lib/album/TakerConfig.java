@@ -26,6 +26,7 @@ public class TakerConfig implements Parcelable {
     protected TakerConfig(Parcel in) {
         authority = in.readString();
         quality = in.readInt();
+        pictureFormat = PictureFormat.values()[in.readInt()];
         relativePath = in.readString();
         previewAspect = in.readInt();
         isFullScreen = in.readByte() != 0;
@@ -41,6 +42,7 @@ public class TakerConfig implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeString(authority);
         dest.writeInt(quality);
+        dest.writeInt(pictureFormat.ordinal());
         dest.writeString(relativePath);
         dest.writeInt(previewAspect);
         dest.writeByte((byte) (isFullScreen ? 1 : 0));
@@ -87,6 +89,11 @@ public class TakerConfig implements Parcelable {
      */
     private int quality = 80;
 
+    /**
+     * 拍照后压缩的输出格式
+     */
+    private PictureFormat pictureFormat = PictureFormat.JPEG;
+
     /**
      * 文件输出路径
      */
@@ -171,6 +178,10 @@ public class TakerConfig implements Parcelable {
         return quality;
     }
 
+    public PictureFormat getPictureFormat() {
+        return pictureFormat;
+    }
+
     public String getRelativePath() {
         return relativePath;
     }
@@ -266,6 +277,17 @@ public class TakerConfig implements Parcelable {
             return this;
         }
 
+        /**
+         * 设置拍照后的输出格式
+         * <p>
+         * 设备不支持的格式会回退为 {@link PictureFormat#JPEG}
+         */
+        public Builder setPictureFormat(@NonNull PictureFormat format) {
+            Preconditions.checkNotNull(format, "Please ensure picture format not null!");
+            mConfig.pictureFormat = format;
+            return this;
+        }
+
         /**
          * 设置裁剪的配置
          */
@@ -4,8 +4,11 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelFileDescriptor;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -19,6 +22,11 @@ import com.sharry.lib.media.recorder.Options;
 import com.sharry.lib.media.recorder.SMediaRecorder;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static com.sharry.lib.album.TakerConfig.ASPECT_16_9;
 import static com.sharry.lib.album.TakerConfig.ASPECT_1_1;
@@ -33,23 +41,72 @@ class TakerPresenter implements ITakerContract.IPresenter {
 
     private static final String TAG = TakerPresenter.class.getSimpleName();
     private static final int MAXIMUM_TRY_AGAIN_THRESHOLD = 3;
+    private static final ThreadPoolExecutor SAVE_EXECUTOR;
+    private static final ThreadPoolExecutor DECODE_EXECUTOR;
 
+    static {
+        SAVE_EXECUTOR = new ThreadPoolExecutor(
+                // 单线程串行写入, 保证多次拍摄的图片按顺序落盘
+                1, 1,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, TakerPresenter.class.getSimpleName() + "-Save");
+                        thread.setDaemon(false);
+                        return thread;
+                    }
+                }
+        );
+        // 允许核心线程销毁, 拍照为低频操作, 无需常驻线程
+        SAVE_EXECUTOR.allowCoreThreadTimeOut(true);
+        DECODE_EXECUTOR = new ThreadPoolExecutor(
+                // 预览图解码独立于保存, 不需要排在全尺寸的保存任务之后
+                1, 1,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, TakerPresenter.class.getSimpleName() + "-Decode");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }
+        );
+        DECODE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
     private final Context mContext;
     private final ITakerContract.IView mView;
     private final TakerConfig mConfig;
     private final SMediaRecorder mRecorder;
     private final Options.Video mRecordOptions;
-    private Bitmap mFetchedBitmap;
+    private byte[] mFetchedJpeg;
     private long mRecordDuration;
     private int mCountTryAgain = 0;
     private Uri mVideoUri;
     private File mVideoFile;
+    private boolean mIsRecording;
+    private boolean mIsViewDestroyed;
+    /**
+     * 正在后台保存的图片数量, 以及最近一次保存成功的图片
+     */
+    private int mPendingSaveCount;
+    private MediaMeta mSavedPicture;
+    /**
+     * 进度条从 0 到 100 期间确认的图片数量, 以及当前正在保存的图片的进度
+     */
+    private int mSaveBatchSize;
+    private int mCurrentSaveProgress;
 
-    TakerPresenter(TakerActivity view, TakerConfig config) {
-        this.mContext = view;
+    TakerPresenter(Context context, ITakerContract.IView view, TakerConfig config) {
+        this.mContext = context;
         this.mView = view;
         this.mConfig = config;
-        this.mRecorder = SMediaRecorder.with(view);
+        this.mRecorder = SMediaRecorder.with(context);
         this.mRecorder.addRecordCallback(new IRecorderCallback.Adapter() {
 
             @Override
@@ -92,28 +149,33 @@ class TakerPresenter implements ITakerContract.IPresenter {
     }
 
     @Override
-    public void handleTakePicture(Bitmap bitmap) {
-        if (bitmap == null) {
+    public void handleTakePicture(byte[] jpeg) {
+        if (jpeg == null) {
             mView.toast(R.string.lib_album_taker_take_picture_failed);
+            mView.setStatus(ITakerContract.IView.STATUS_CAMERA_PREVIEW);
             return;
         }
-        // 保存 bitmap
-        mFetchedBitmap = bitmap;
+        // 保存 JPEG 数据, 确认后直接写入文件
+        mFetchedJpeg = jpeg;
         mView.setStatus(ITakerContract.IView.STATUS_PICTURE_PREVIEW);
-        mView.setPreviewSource(mFetchedBitmap);
+        // 仅解码一张降采样的 Bitmap 用于展示
+        DECODE_EXECUTOR.execute(new PreviewDecodeTask(jpeg));
     }
 
     @Override
     @SuppressLint("MissingPermission")
     public void handleRecordStart(SCameraView cameraView) {
+        mIsRecording = true;
         mRecorder.start(cameraView, mRecordOptions);
     }
 
     @Override
     public void handleRecordFinish(long duration) {
         if (duration < mConfig.getMinimumDuration()) {
+            mIsRecording = false;
             mRecorder.cancel();
             mView.toast(R.string.lib_album_taker_record_time_too_short);
+            performPictureResult();
         } else {
             // Recorder 的 Complete 是异步操作, 这里先将录制按钮异常, 防止用户误触
             mView.setRecordButtonVisible(false);
@@ -135,15 +197,23 @@ class TakerPresenter implements ITakerContract.IPresenter {
         // 重置为预览状态
         mView.setStatus(ITakerContract.IView.STATUS_CAMERA_PREVIEW);
         recycle();
+        // 放弃了这一张, 之前确认的图片若已保存则可以回传
+        performPictureResult();
     }
 
     @Override
     public void handleViewDestroy() {
+        mIsViewDestroyed = true;
         mRecorder.cancel();
         // 若非选中状态, 则重置数据
         if (mView.getStatus() != ITakerContract.IView.STATUS_PICKED) {
             recycle();
         }
+        // 已保存但尚未回传的图片无法再回传, 删除
+        if (mSavedPicture != null) {
+            deletePicture(mSavedPicture);
+            mSavedPicture = null;
+        }
     }
 
     private void setupViews() {
@@ -161,6 +231,7 @@ class TakerPresenter implements ITakerContract.IPresenter {
                 break;
         }
         mView.setPreviewFullScreen(mConfig.isFullScreen());
+        mView.setPictureQuality(mConfig.getQuality());
         if (!TextUtils.isEmpty(mConfig.getRendererClassName())) {
             mView.setPreviewRenderer(mConfig.getRendererClassName());
         }
@@ -184,15 +255,18 @@ class TakerPresenter implements ITakerContract.IPresenter {
      * 处理录制失败
      */
     private void performRecordFiled() {
+        mIsRecording = false;
         recycle();
         mView.toast(R.string.lib_album_taker_record_failed);
         mView.setStatus(ITakerContract.IView.STATUS_CAMERA_PREVIEW);
+        performPictureResult();
     }
 
     /**
      * 处理录制成功
      */
     private void performRecordComplete(Uri uri, File file) {
+        mIsRecording = false;
         mVideoUri = uri;
         mVideoFile = file;
         mView.setStatus(ITakerContract.IView.STATUS_VIDEO_PLAY);
@@ -201,34 +275,107 @@ class TakerPresenter implements ITakerContract.IPresenter {
 
     /**
      * 处理图像确认
+     * <p>
+     * 压缩与写入在 {@link #SAVE_EXECUTOR} 中执行, 避免阻塞 UI 线程, 确认后立即回到预览状态, 保存期间可以继续拍摄
      */
     private void performPictureEnsure() {
-        try {
-            if (VersionUtil.isQ()) {
-                Uri uri = FileUtil.createJpegPendingItem(mContext, mConfig.getRelativePath());
-                ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(uri, "w");
-                CompressUtil.doCompress(mFetchedBitmap, pfd.getFileDescriptor(), mConfig.getQuality(),
-                        mFetchedBitmap.getWidth(), mFetchedBitmap.getHeight());
-                FileUtil.publishPendingItem(mContext, uri);
-                String path = FileUtil.getImagePath(mContext, uri);
-                MediaMeta mediaMeta = MediaMeta.create(uri, path, true);
-                mediaMeta.date = System.currentTimeMillis();
-                mView.setResult(mediaMeta);
-            } else {
-                File file = FileUtil.createJpegFile(mContext, mConfig.getRelativePath());
-                Uri uri = FileUtil.getUriFromFile(mContext, mConfig.getAuthority(), file);
-                ParcelFileDescriptor pfd = mContext.getContentResolver().openFileDescriptor(uri, "w");
-                CompressUtil.doCompress(mFetchedBitmap, pfd.getFileDescriptor(), mConfig.getQuality(),
-                        mFetchedBitmap.getWidth(), mFetchedBitmap.getHeight());
-                FileUtil.notifyMediaStore(mContext, file.getAbsolutePath());
-                MediaMeta mediaMeta = MediaMeta.create(uri, file.getAbsolutePath(), true);
-                mediaMeta.date = System.currentTimeMillis();
-                mView.setResult(mediaMeta);
-            }
-        } catch (Throwable e) {
-            mView.toast(R.string.lib_album_taker_picture_saved_failed);
-            mView.setStatus(ITakerContract.IView.STATUS_CAMERA_PREVIEW);
+        if (mFetchedJpeg == null) {
+            return;
+        }
+        // 将 JPEG 数据移交给保存任务, Presenter 不再持有, 可以立即开始下一次拍摄
+        byte[] jpeg = mFetchedJpeg;
+        mFetchedJpeg = null;
+        if (mPendingSaveCount == 0) {
+            mSaveBatchSize = 0;
+            mCurrentSaveProgress = 0;
         }
+        mPendingSaveCount++;
+        mSaveBatchSize++;
+        mView.setStatus(ITakerContract.IView.STATUS_CAMERA_PREVIEW);
+        updatePictureSaveProgress();
+        SAVE_EXECUTOR.execute(new PictureSaveTask(jpeg, CompressUtil.resolveFormat(mConfig.getPictureFormat())));
+    }
+
+    /**
+     * 所有确认的图片都保存完毕, 且用户没有正在进行的拍摄时, 回传最近保存的图片
+     */
+    private void performPictureResult() {
+        if (mIsViewDestroyed || mSavedPicture == null || mPendingSaveCount > 0 || mFetchedJpeg != null
+                || mIsRecording || mVideoUri != null || mVideoFile != null) {
+            return;
+        }
+        MediaMeta mediaMeta = mSavedPicture;
+        mSavedPicture = null;
+        mView.setResult(mediaMeta);
+    }
+
+    /**
+     * 处理预览图解码完成
+     */
+    private void performPreviewDecoded(byte[] jpeg, Bitmap preview) {
+        // 已确认/取消, 或者已经重新拍摄
+        if (mIsViewDestroyed || mFetchedJpeg != jpeg) {
+            return;
+        }
+        mView.setPreviewSource(preview);
+    }
+
+    /**
+     * 处理预览图解码失败
+     */
+    private void performPreviewDecodeFailed(byte[] jpeg) {
+        if (mIsViewDestroyed || mFetchedJpeg != jpeg) {
+            return;
+        }
+        mFetchedJpeg = null;
+        mView.toast(R.string.lib_album_taker_take_picture_failed);
+        mView.setStatus(ITakerContract.IView.STATUS_CAMERA_PREVIEW);
+        performPictureResult();
+    }
+
+    /**
+     * 处理保存进度变更
+     */
+    private void performPictureSaveProgress(int progress) {
+        if (mIsViewDestroyed) {
+            return;
+        }
+        mCurrentSaveProgress = progress;
+        updatePictureSaveProgress();
+    }
+
+    /**
+     * 处理图像保存成功
+     */
+    private void performPictureSaved(MediaMeta mediaMeta) {
+        mPendingSaveCount--;
+        mCurrentSaveProgress = 0;
+        if (mIsViewDestroyed) {
+            // 页面已销毁, 结果无法回传, 删除已写入的文件
+            deletePicture(mediaMeta);
+            return;
+        }
+        // 只回传最近保存的一张, 被替代的图片不会再回传, 删除
+        if (mSavedPicture != null) {
+            deletePicture(mSavedPicture);
+        }
+        mSavedPicture = mediaMeta;
+        updatePictureSaveProgress();
+        performPictureResult();
+    }
+
+    /**
+     * 处理图像保存失败
+     */
+    private void performPictureSaveFailed() {
+        mPendingSaveCount--;
+        mCurrentSaveProgress = 0;
+        if (mIsViewDestroyed) {
+            return;
+        }
+        mView.toast(R.string.lib_album_taker_picture_saved_failed);
+        updatePictureSaveProgress();
+        performPictureResult();
     }
 
     /**
@@ -242,11 +389,37 @@ class TakerPresenter implements ITakerContract.IPresenter {
         mView.setResult(mediaMeta);
     }
 
+    /**
+     * 更新保存进度
+     * <p>
+     * 保存任务串行执行, 进度按本轮确认的图片数量合并计算, 所有图片都保存完毕后才到达 100
+     */
+    private void updatePictureSaveProgress() {
+        if (mPendingSaveCount == 0) {
+            mView.setPictureSaveProgress(100);
+            return;
+        }
+        int finishedCount = mSaveBatchSize - mPendingSaveCount;
+        int progress = (finishedCount * 100 + mCurrentSaveProgress) / mSaveBatchSize;
+        mView.setPictureSaveProgress(Math.min(progress, 99));
+    }
+
+    /**
+     * 删除已保存的图片
+     */
+    private void deletePicture(MediaMeta mediaMeta) {
+        if (VersionUtil.isQ()) {
+            FileUtil.delete(mContext, mediaMeta.contentUri);
+        } else {
+            FileUtil.delete(mContext, new File(mediaMeta.path));
+        }
+    }
+
     /**
      * 重置资源
      */
     private void recycle() {
-        mFetchedBitmap = null;
+        mFetchedJpeg = null;
         mCountTryAgain = 0;
         if (VersionUtil.isQ()) {
             FileUtil.delete(mContext, mVideoUri);
@@ -258,4 +431,146 @@ class TakerPresenter implements ITakerContract.IPresenter {
         mView.stopVideoPlayer();
     }
 
+    /**
+     * 图片保存任务
+     * <p>
+     * 在工作线程中压缩并写入 MediaStore, 进度与结果回调到主线程
+     */
+    private class PictureSaveTask implements Runnable {
+
+        private static final int PROGRESS_ITEM_CREATED = 10;
+        private static final int PROGRESS_COMPRESSED = 90;
+
+        private final byte[] mJpeg;
+        private final PictureFormat mFormat;
+
+        PictureSaveTask(byte[] jpeg, PictureFormat format) {
+            this.mJpeg = jpeg;
+            this.mFormat = format;
+        }
+
+        @Override
+        public void run() {
+            ParcelFileDescriptor pfd = null;
+            Uri uri = null;
+            File file = null;
+            try {
+                final MediaMeta mediaMeta;
+                if (VersionUtil.isQ()) {
+                    uri = FileUtil.createPicturePendingItem(mContext, mConfig.getRelativePath(), mFormat);
+                    pfd = mContext.getContentResolver().openFileDescriptor(uri, "w");
+                    postProgress(PROGRESS_ITEM_CREATED);
+                    writePicture(pfd);
+                    postProgress(PROGRESS_COMPRESSED);
+                    FileUtil.publishPendingItem(mContext, uri);
+                    String path = FileUtil.getImagePath(mContext, uri);
+                    mediaMeta = MediaMeta.create(uri, path, true);
+                } else {
+                    file = FileUtil.createPictureFile(mContext, mConfig.getRelativePath(), mFormat);
+                    uri = FileUtil.getUriFromFile(mContext, mConfig.getAuthority(), file);
+                    pfd = mContext.getContentResolver().openFileDescriptor(uri, "w");
+                    postProgress(PROGRESS_ITEM_CREATED);
+                    writePicture(pfd);
+                    postProgress(PROGRESS_COMPRESSED);
+                    FileUtil.notifyMediaStore(mContext, file.getAbsolutePath());
+                    mediaMeta = MediaMeta.create(uri, file.getAbsolutePath(), true);
+                }
+                mediaMeta.date = System.currentTimeMillis();
+                mediaMeta.mimeType = mFormat.getMIME();
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        performPictureSaved(mediaMeta);
+                    }
+                });
+            } catch (Throwable e) {
+                Log.e(TAG, "Save picture failed.", e);
+                // 删除写入了一半的 pending item 或文件
+                closeQuietly(pfd);
+                pfd = null;
+                if (VersionUtil.isQ()) {
+                    FileUtil.delete(mContext, uri);
+                } else {
+                    FileUtil.delete(mContext, file);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        performPictureSaveFailed();
+                    }
+                });
+            } finally {
+                closeQuietly(pfd);
+            }
+        }
+
+        /**
+         * 输出格式为 JPEG 时直接写入相机输出的数据, 否则解码后重新编码
+         */
+        private void writePicture(ParcelFileDescriptor pfd) throws IOException {
+            if (mFormat == PictureFormat.JPEG) {
+                FileUtil.write(pfd.getFileDescriptor(), mJpeg);
+            } else {
+                CompressUtil.doCompress(mJpeg, pfd.getFileDescriptor(), mConfig.getQuality(), mFormat);
+            }
+        }
+
+        private void postProgress(final int progress) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    performPictureSaveProgress(progress);
+                }
+            });
+        }
+
+        private void closeQuietly(ParcelFileDescriptor pfd) {
+            if (pfd != null) {
+                try {
+                    pfd.close();
+                } catch (Throwable e) {
+                    // ignore.
+                }
+            }
+        }
+
+    }
+
+    /**
+     * 预览图解码任务
+     */
+    private class PreviewDecodeTask implements Runnable {
+
+        private final byte[] mJpeg;
+
+        PreviewDecodeTask(byte[] jpeg) {
+            this.mJpeg = jpeg;
+        }
+
+        @Override
+        public void run() {
+            try {
+                DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+                final Bitmap preview = CompressUtil.decodeSampledBitmap(mJpeg,
+                        Math.min(metrics.widthPixels, metrics.heightPixels),
+                        Math.max(metrics.widthPixels, metrics.heightPixels));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        performPreviewDecoded(mJpeg, preview);
+                    }
+                });
+            } catch (Throwable e) {
+                Log.e(TAG, "Decode preview picture failed.", e);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        performPreviewDecodeFailed(mJpeg);
+                    }
+                });
+            }
+        }
+
+    }
+
 }
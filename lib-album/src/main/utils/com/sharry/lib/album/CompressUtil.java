@@ -3,9 +3,18 @@ package com.sharry.lib.album;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
-import android.media.ExifInterface;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
 import android.text.TextUtils;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import androidx.exifinterface.media.ExifInterface;
+import androidx.heifwriter.HeifWriter;
+
+import java.io.ByteArrayInputStream;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -19,10 +28,35 @@ import java.io.IOException;
  */
 class CompressUtil {
 
+    private static final String TAG = CompressUtil.class.getSimpleName();
+    private static final long HEIF_ENCODE_TIMEOUT_MS = 5000;
+
+    /**
+     * 设备是否支持 HEIF 编码, 首次使用时检测
+     */
+    private static Boolean sIsHeifSupported;
+
+    /**
+     * 获取当前设备上实际可用的输出格式
+     * <p>
+     * 不支持的格式回退为 {@link PictureFormat#JPEG}, 创建输出文件前需先调用此方法确定扩展名
+     */
+    @NonNull
+    static PictureFormat resolveFormat(PictureFormat format) {
+        if (format == null) {
+            return PictureFormat.JPEG;
+        }
+        if (format == PictureFormat.HEIF && !isHeifSupported()) {
+            Log.w(TAG, "HEIF encoder is unavailable on this device, fallback to JPEG.");
+            return PictureFormat.JPEG;
+        }
+        return format;
+    }
+
     /**
      * 图片压缩
      */
-    static void doCompress(String originPath, FileDescriptor fd, int quality) throws IOException {
+    static void doCompress(String originPath, FileDescriptor fd, int quality, PictureFormat format) throws IOException {
         if (TextUtils.isEmpty(originPath)) {
             throw new IllegalArgumentException("CompressUtil.doCompress -> parameter originFilePath must not be null!");
         }
@@ -35,20 +69,72 @@ class CompressUtil {
         // 2. 旋转一下 Bitmap
         bitmap = rotateBitmap(bitmap, readPictureAngle(originPath));
         // 3. 质量压缩(Quality Compress)
-        qualityCompress(bitmap, quality, fd);
+        qualityCompress(bitmap, quality, format, fd);
     }
 
     /**
      * 图片压缩
      */
-    static void doCompress(Bitmap originBitmap, FileDescriptor fd, int quality, int desireWidth, int desireHeight) throws IOException {
+    static void doCompress(Bitmap originBitmap, FileDescriptor fd, int quality, PictureFormat format,
+                           int desireWidth, int desireHeight) throws IOException {
         int width = originBitmap.getWidth();
         int height = originBitmap.getHeight();
         float scale = Math.max(desireWidth, desireHeight) / (float) Math.max(width, height);
         int w = Math.round(scale * width);
         int h = Math.round(scale * height);
         Bitmap bitmap = Bitmap.createScaledBitmap(originBitmap, w, h, true);
-        qualityCompress(bitmap, quality, fd);
+        qualityCompress(bitmap, quality, format, fd);
+    }
+
+    /**
+     * 图片压缩
+     *
+     * @param jpeg 相机输出的 JPEG 数据
+     */
+    static void doCompress(byte[] jpeg, FileDescriptor fd, int quality, PictureFormat format) throws IOException {
+        // 1. 邻近采样压缩尺寸(Nearest Neighbour Resampling Compress)
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight);
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (bitmap == null) {
+            throw new IOException("CompressUtil.doCompress -> decode jpeg failed!");
+        }
+        // 2. 旋转一下 Bitmap
+        bitmap = rotateBitmap(bitmap, readPictureAngle(jpeg));
+        // 3. 质量压缩(Quality Compress)
+        qualityCompress(bitmap, quality, format, fd);
+    }
+
+    /**
+     * 解码用于展示的缩略图
+     *
+     * @param jpeg      相机输出的 JPEG 数据
+     * @param reqWidth  期望的宽
+     * @param reqHeight 期望的高
+     * @return 按 EXIF 方向旋转后的 Bitmap, 尺寸不小于期望尺寸的一半
+     */
+    static Bitmap decodeSampledBitmap(byte[] jpeg, int reqWidth, int reqHeight) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        int angle = readPictureAngle(jpeg);
+        // 需要旋转 90 度时, 解码前的宽高与展示时相反
+        int srcWidth = angle % 180 == 0 ? options.outWidth : options.outHeight;
+        int srcHeight = angle % 180 == 0 ? options.outHeight : options.outWidth;
+        int sampleSize = 1;
+        while (srcWidth / (sampleSize * 2) >= reqWidth && srcHeight / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        options.inSampleSize = sampleSize;
+        options.inJustDecodeBounds = false;
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        if (bitmap == null) {
+            throw new IOException("CompressUtil.decodeSampledBitmap -> decode jpeg failed!");
+        }
+        return rotateBitmap(bitmap, angle);
     }
 
     /**
@@ -104,17 +190,82 @@ class CompressUtil {
      *
      * @param srcBitmap 原始 Bitmap
      * @param quality   压缩质量
+     * @param format    输出格式, 不支持时回退为 JPEG
      * @param fd        压缩目标的文件描述符
      */
-    static void qualityCompress(Bitmap srcBitmap, int quality, FileDescriptor fd) throws IOException {
+    static void qualityCompress(Bitmap srcBitmap, int quality, PictureFormat format, FileDescriptor fd) throws IOException {
+        format = resolveFormat(format);
+        if (format == PictureFormat.HEIF) {
+            HeifCompressor.compress(srcBitmap, quality, fd);
+            return;
+        }
         // 进行质量压缩
         FileOutputStream out = new FileOutputStream(fd);
-        // 采用有损的 jpeg 图片压缩
-        srcBitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+        switch (format) {
+            case WEBP_LOSSY:
+                if (VersionUtil.isR()) {
+                    srcBitmap.compress(Bitmap.CompressFormat.WEBP_LOSSY, quality, out);
+                } else {
+                    // Android 11 以下 quality 为 100 时为无损压缩
+                    srcBitmap.compress(compatWebpFormat(), Math.min(quality, 99), out);
+                }
+                break;
+            case WEBP_LOSSLESS:
+                if (VersionUtil.isR()) {
+                    srcBitmap.compress(Bitmap.CompressFormat.WEBP_LOSSLESS, 100, out);
+                } else {
+                    srcBitmap.compress(compatWebpFormat(), 100, out);
+                }
+                break;
+            case JPEG:
+            default:
+                // 采用有损的 jpeg 图片压缩
+                srcBitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+                break;
+        }
         out.flush();
         out.close();
     }
 
+    /**
+     * Android 11 以下的 WebP 格式, 由 quality 决定是否无损
+     */
+    @SuppressWarnings("deprecation")
+    private static Bitmap.CompressFormat compatWebpFormat() {
+        return Bitmap.CompressFormat.WEBP;
+    }
+
+    /**
+     * 判断设备是否具备 HEIF 编码能力
+     */
+    private static synchronized boolean isHeifSupported() {
+        if (sIsHeifSupported == null) {
+            sIsHeifSupported = VersionUtil.isPie() && hasHevcEncoder();
+        }
+        return sIsHeifSupported;
+    }
+
+    @RequiresApi(28)
+    private static boolean hasHevcEncoder() {
+        try {
+            MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+            for (MediaCodecInfo info : codecList.getCodecInfos()) {
+                if (!info.isEncoder()) {
+                    continue;
+                }
+                for (String type : info.getSupportedTypes()) {
+                    if (MediaFormat.MIMETYPE_VIDEO_HEVC.equalsIgnoreCase(type)
+                            || MediaFormat.MIMETYPE_IMAGE_ANDROID_HEIC.equalsIgnoreCase(type)) {
+                        return true;
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            Log.w(TAG, "Query HEVC encoder failed.", e);
+        }
+        return false;
+    }
+
     /**
      * 旋转 Bitmap
      *
@@ -139,8 +290,20 @@ class CompressUtil {
      * @param path 文件路径
      */
     private static int readPictureAngle(String path) throws IOException {
+        return parsePictureAngle(new ExifInterface(path));
+    }
+
+    /**
+     * 读取 JPEG 数据旋转的角度
+     *
+     * @param jpeg JPEG 数据
+     */
+    private static int readPictureAngle(byte[] jpeg) throws IOException {
+        return parsePictureAngle(new ExifInterface(new ByteArrayInputStream(jpeg)));
+    }
+
+    private static int parsePictureAngle(ExifInterface exifInterface) {
         int degree = 0;
-        ExifInterface exifInterface = new ExifInterface(path);
         int orientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
         switch (orientation) {
             case ExifInterface.ORIENTATION_ROTATE_90:
@@ -158,4 +321,33 @@ class CompressUtil {
         return degree;
     }
 
+    /**
+     * 使用硬件 HEVC 编码器输出 HEIF 图片
+     * <p>
+     * heifwriter 要求 API 28, 单独放在内部类中, 保证低版本上不会加载到 HeifWriter
+     */
+    @RequiresApi(28)
+    private static final class HeifCompressor {
+
+        static void compress(Bitmap srcBitmap, int quality, FileDescriptor fd) throws IOException {
+            HeifWriter writer = new HeifWriter.Builder(fd, srcBitmap.getWidth(), srcBitmap.getHeight(),
+                    HeifWriter.INPUT_MODE_BITMAP)
+                    .setQuality(quality)
+                    .setMaxImages(1)
+                    .build();
+            try {
+                writer.start();
+                writer.addBitmap(srcBitmap);
+                writer.stop(HEIF_ENCODE_TIMEOUT_MS);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Encode HEIF failed.", e);
+            } finally {
+                writer.close();
+            }
+        }
+
+    }
+
 }
@@ -18,6 +18,8 @@ import android.util.Log;
 import androidx.core.content.FileProvider;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.Locale;
@@ -90,12 +92,13 @@ class FileUtil {
      * 创建图片路径的 URI
      *
      * @param relativePath 文件目录路径
+     * @param format       图片的输出格式
      */
     @TargetApi(29)
-    static Uri createJpegPendingItem(Context context, String relativePath) {
+    static Uri createPicturePendingItem(Context context, String relativePath, PictureFormat format) {
         // 创建拍照目标文件
         String fileName = "camera_" + DateFormat.format("yyyyMMdd_HH_mm_ss",
-                Calendar.getInstance(Locale.CHINA)) + ".jpg";
+                Calendar.getInstance(Locale.CHINA)) + format.getFileSuffix();
         ContentValues values = new ContentValues();
         // 创建相对路径
         if (TextUtils.isEmpty(relativePath)) {
@@ -103,7 +106,7 @@ class FileUtil {
         } else {
             values.put(MediaStore.Images.Media.RELATIVE_PATH, Environment.DIRECTORY_PICTURES + "/" + relativePath);
         }
-        values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpg");
+        values.put(MediaStore.Images.Media.MIME_TYPE, format.getMIME());
         values.put(MediaStore.Images.Media.DISPLAY_NAME, fileName);
         values.put(MediaStore.Images.Media.IS_PENDING, 1);
         ContentResolver resolver = context.getContentResolver();
@@ -138,12 +141,14 @@ class FileUtil {
     }
 
     /**
-     * 创建 JPEG 图片文件
+     * 创建图片文件
+     *
+     * @param format 图片的输出格式
      */
-    static File createJpegFile(Context context, String relativePath) {
+    static File createPictureFile(Context context, String relativePath, PictureFormat format) {
         // 创建拍照目标文件
         String fileName = "camera_" + DateFormat.format("yyyyMMdd_HH_mm_ss",
-                Calendar.getInstance(Locale.CHINA)) + ".jpg";
+                Calendar.getInstance(Locale.CHINA)) + format.getFileSuffix();
         File dir = TextUtils.isEmpty(relativePath) ? Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES)
                 : new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), relativePath);
         try {
@@ -156,13 +161,26 @@ class FileUtil {
                 file.delete();
             }
             file.createNewFile();
-            Log.i(TAG, "create jpeg file success -> " + file.getAbsolutePath());
+            Log.i(TAG, "create picture file success -> " + file.getAbsolutePath());
             return file;
         } catch (Throwable e) {
             throw new UnsupportedOperationException("Cannot create file at:  " + dir);
         }
     }
 
+    /**
+     * 将数据直接写入文件描述符
+     */
+    static void write(FileDescriptor fd, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(fd);
+        try {
+            out.write(data);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
     /**
      * 通知 MediaStore 文件更替
      */
@@ -19,8 +19,16 @@ class VersionUtil {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
     }
 
+    static boolean isPie() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+    }
+
     static boolean isQ() {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
     }
 
+    static boolean isR() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+    }
+
 }
@@ -46,6 +46,11 @@ public interface IRecorderCallback {
 
         }
 
+        @Override
+        public void onSegmentComplete(@NonNull Uri uri, File file, int segmentIndex) {
+
+        }
+
         @Override
         public void onComplete(@NonNull Uri uri, File file) {
 
@@ -105,6 +110,14 @@ public interface IRecorderCallback {
     @MainThread
     void onResume();
 
+    /**
+     * 分段录制时, 每个分段文件关闭并发布后回调, 最后一个分段在 {@link #onComplete} 之前回调
+     *
+     * @param segmentIndex 分段的序号, 从 0 开始
+     */
+    @MainThread
+    void onSegmentComplete(@NonNull Uri uri, File file, int segmentIndex);
+
     @MainThread
     void onComplete(@NonNull Uri uri, File file);
 
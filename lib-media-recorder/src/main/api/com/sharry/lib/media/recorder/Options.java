@@ -29,6 +29,8 @@ public final class Options {
         }
 
         private static final int DEFAULT_FRAME_RATE = 24;
+        private static final long DEFAULT_PRE_ROLL_DURATION = 3000;
+        private static final int DEFAULT_PRE_ROLL_MEMORY_BUDGET = 8 * 1024 * 1024;
 
         /**
          * 视频的 编码类型
@@ -62,6 +64,26 @@ public final class Options {
          */
         private int resolution = RESOLUTION_720P;
 
+        /**
+         * 分段录制时每个文件的时长, 0 表示不按时长分段
+         */
+        private long segmentDuration = 0;
+
+        /**
+         * 分段录制时每个文件的大小上限, 0 表示不按大小分段
+         */
+        private long segmentMaxSize = 0;
+
+        /**
+         * 预录制时保留的时长
+         */
+        private long preRollDuration = DEFAULT_PRE_ROLL_DURATION;
+
+        /**
+         * 预录制时缓冲的字节数上限
+         */
+        private int preRollMemoryBudget = DEFAULT_PRE_ROLL_MEMORY_BUDGET;
+
         private Video() {
         }
 
@@ -100,6 +122,29 @@ public final class Options {
             return authority;
         }
 
+        public long getSegmentDuration() {
+            return segmentDuration;
+        }
+
+        public long getSegmentMaxSize() {
+            return segmentMaxSize;
+        }
+
+        public long getPreRollDuration() {
+            return preRollDuration;
+        }
+
+        public int getPreRollMemoryBudget() {
+            return preRollMemoryBudget;
+        }
+
+        /**
+         * 是否开启了分段录制
+         */
+        public boolean isSegmented() {
+            return segmentDuration > 0 || segmentMaxSize > 0;
+        }
+
         /**
          * Build options instance easier.
          */
@@ -178,6 +223,48 @@ public final class Options {
                 return this;
             }
 
+            /**
+             * 开启分段录制, 录制时长达到后在下一个关键帧处切换到新的文件, 编码器不会重启
+             * <p>
+             * 每个分段关闭后立即发布, 并回调 {@link IRecorderCallback#onSegmentComplete}
+             *
+             * @param segmentDuration Unit millisecond, 0 表示不按时长分段
+             */
+            public Builder setSegmentDuration(long segmentDuration) {
+                mOps.segmentDuration = segmentDuration;
+                return this;
+            }
+
+            /**
+             * 开启分段录制, 文件大小达到后在下一个关键帧处切换到新的文件
+             *
+             * @param segmentMaxSize Unit byte, 0 表示不按大小分段
+             */
+            public Builder setSegmentMaxSize(long segmentMaxSize) {
+                mOps.segmentMaxSize = segmentMaxSize;
+                return this;
+            }
+
+            /**
+             * 预录制时保留的时长, 实际保留的数据从窗口内最早的关键帧开始
+             *
+             * @param preRollDuration Unit millisecond
+             */
+            public Builder setPreRollDuration(long preRollDuration) {
+                mOps.preRollDuration = preRollDuration;
+                return this;
+            }
+
+            /**
+             * 预录制时缓冲的字节数上限, 超出后从最早的 GOP 开始淘汰
+             *
+             * @param preRollMemoryBudget Unit byte
+             */
+            public Builder setPreRollMemoryBudget(int preRollMemoryBudget) {
+                mOps.preRollMemoryBudget = preRollMemoryBudget;
+                return this;
+            }
+
             public Video build() {
                 return mOps;
             }
@@ -190,6 +277,19 @@ public final class Options {
         public static final int CHANNEL_LAYOUT_CENTER = 2;
         public static final int PER_SAMPLE_SIZE = 2;
 
+        /**
+         * 不主动同步, 由系统决定何时落盘
+         */
+        public static final int FILE_SYNC_NONE = 0;
+        /**
+         * 录制结束时同步一次
+         */
+        public static final int FILE_SYNC_ON_CLOSE = 1;
+        /**
+         * 每次将写入缓冲刷入文件时同步, 异常退出时丢失的数据最少
+         */
+        public static final int FILE_SYNC_ON_FLUSH = 2;
+
         @IntDef(flag = true, value = {
                 SAMPLE_RATE_44100,
         })
@@ -211,6 +311,15 @@ public final class Options {
         @interface PerSampleSize {
         }
 
+        @IntDef(value = {
+                FILE_SYNC_NONE,
+                FILE_SYNC_ON_CLOSE,
+                FILE_SYNC_ON_FLUSH
+        })
+        @Retention(RetentionPolicy.SOURCE)
+        @interface FileSyncPolicy {
+        }
+
         private static final int DEFAULT_MAX_DURATION = Integer.MAX_VALUE;
         private static final EncodeType.Audio DEFAULT_RECORD_TYPE = EncodeType.Audio.AAC;
 
@@ -235,6 +344,11 @@ public final class Options {
          */
         private int perSampleSize = PER_SAMPLE_SIZE;
 
+        /**
+         * 写入文件时的同步策略
+         */
+        private int fileSyncPolicy = FILE_SYNC_ON_CLOSE;
+
         /**
          * 录制时长
          */
@@ -300,6 +414,10 @@ public final class Options {
             return perSampleSize;
         }
 
+        int getFileSyncPolicy() {
+            return fileSyncPolicy;
+        }
+
         public String getAuthority() {
             return authority;
         }
@@ -385,6 +503,14 @@ public final class Options {
                 return this;
             }
 
+            /**
+             * 设置写入文件时的同步策略, 默认为 {@link #FILE_SYNC_ON_CLOSE}
+             */
+            public Builder setFileSyncPolicy(@FileSyncPolicy int fileSyncPolicy) {
+                mOps.fileSyncPolicy = fileSyncPolicy;
+                return this;
+            }
+
             public Builder setChannelLayout(@ChannelLayout int channelLayout) {
                 mOps.channelLayout = channelLayout;
                 return this;
@@ -88,6 +88,13 @@ public final class SMediaRecorder implements IRecorderCallback {
         }
     }
 
+    @Override
+    public void onSegmentComplete(@NonNull Uri uri, File file, int segmentIndex) {
+        for (IRecorderCallback callback : mCallbacks) {
+            callback.onSegmentComplete(uri, file, segmentIndex);
+        }
+    }
+
     @Override
     public void onComplete(@NonNull final Uri uri, File file) {
         // 释放焦点
@@ -109,8 +116,34 @@ public final class SMediaRecorder implements IRecorderCallback {
 
     private IMediaRecorder mImpl;
 
+    /**
+     * 开始预录制视频, 编码后的数据只在内存中保留最近的一段, 不写入文件
+     * <p>
+     * 之后调用 {@link #start(SCameraView, Options.Video)} 时, 输出的文件从这段数据开始,
+     * 调用 {@link #cancel()} 结束预录制
+     */
+    @RequiresPermission(anyOf = {
+            Manifest.permission.CAMERA,
+            Manifest.permission.RECORD_AUDIO,
+            Manifest.permission.READ_EXTERNAL_STORAGE,
+            Manifest.permission.WRITE_EXTERNAL_STORAGE
+    })
+    public void startPreRoll(SCameraView cameraView, @NonNull Options.Video options) {
+        // 完善 Config
+        completionOptions(options);
+        // 取消之前的录制动作
+        cancel();
+        // 创建录制者
+        VideoRecorder recorder = new VideoRecorder(mContext, options, cameraView, this);
+        mImpl = recorder;
+        // 启动预录制
+        recorder.startPreRoll();
+    }
+
     /**
      * 开始录制视频
+     * <p>
+     * 正在预录制时直接从预录制的数据开始, 沿用 {@link #startPreRoll} 时的配置
      */
     @RequiresPermission(anyOf = {
             Manifest.permission.CAMERA,
@@ -119,6 +152,10 @@ public final class SMediaRecorder implements IRecorderCallback {
             Manifest.permission.WRITE_EXTERNAL_STORAGE
     })
     public void start(SCameraView cameraView, @NonNull Options.Video options) {
+        if (mImpl instanceof VideoRecorder && ((VideoRecorder) mImpl).isPreRolling()) {
+            mImpl.start();
+            return;
+        }
         // 完善 Config
         completionOptions(options);
         // 取消之前的录制动作
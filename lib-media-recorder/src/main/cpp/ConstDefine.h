@@ -20,6 +20,9 @@
  */
 #define OPENSLES_PCM_PROVIDER_CLASS_NAME "com/sharry/lib/media/recorder/OpenSLESPCMProvider"
 
-#define RECORD_BUFFER_SIZE 4096
+/**
+ * 同时交给 OpenSL ES 写入的 slot 数量
+ */
+#define RECORD_QUEUE_SIZE 2
 
 #endif //SMEDIA_RECORDER_CONSTDEFINE_H
@@ -2,9 +2,27 @@
 // Created by Sharry Choo on 2019-06-22.
 //
 
+#include <pthread.h>
 #include "JNICall.h"
 #include "ConstDefine.h"
 
+/**
+ * 记录 native 线程是否由我们 attach, 线程退出时自动 detach
+ */
+static pthread_key_t gAttachedKey;
+static pthread_once_t gAttachedKeyOnce = PTHREAD_ONCE_INIT;
+static JavaVM *gAttachedJavaVM = NULL;
+
+static void detachOnThreadExit(void *) {
+    if (gAttachedJavaVM != NULL) {
+        gAttachedJavaVM->DetachCurrentThread();
+    }
+}
+
+static void createAttachedKey() {
+    pthread_key_create(&gAttachedKey, detachOnThreadExit);
+}
+
 JNICall::JNICall(JavaVM *java_vm, jobject jopensles_pcm_provider) {
     this->java_vm = java_vm;
     this->jopensles_pcm_provider = jopensles_pcm_provider;
@@ -12,23 +30,15 @@ JNICall::JNICall(JavaVM *java_vm, jobject jopensles_pcm_provider) {
     if (jniEnv != NULL) {
         this->jopensles_pcm_provider = jniEnv->NewGlobalRef(jopensles_pcm_provider);
         jclass jPlayClass = jniEnv->GetObjectClass(jopensles_pcm_provider);
-        // 状态变更回调
-        jmid_on_pcm_changed = jniEnv->GetMethodID(jPlayClass, "OnPCMChanged", "([B)V");
+        // PCM 数据可读的回调
+        jmid_on_pcm_available = jniEnv->GetMethodID(jPlayClass, "onPCMAvailable", "(II)V");
     }
 }
 
 JNICall::~JNICall() {
-    JNIEnv *jniEnv = getCurrentEnv();
+    JNIEnv *jniEnv = attachCurrentThread();
     if (jniEnv != NULL) {
         jniEnv->DeleteGlobalRef(jopensles_pcm_provider);
-    } else {
-        // 走到这里说明为 native 线程, 为其创建 JNIEnv
-        if (java_vm->AttachCurrentThread(&jniEnv, 0) != JNI_OK) {
-            return;
-        }
-        jniEnv->DeleteGlobalRef(jopensles_pcm_provider);
-        // 解除 native 线程与 java_vm 的关联
-        java_vm->DetachCurrentThread();
     }
 }
 
@@ -42,33 +52,31 @@ JNIEnv *JNICall::getCurrentEnv() {
     return env;
 }
 
-void callOnPCMChangedInternal(JNIEnv *jniEnv, jobject obj, jmethodID method, uint8_t *pcm_data,
-                              int length) {
-    // 创建并填充 java 层的 y 数组
-    jbyteArray jpcm_bytes = jniEnv->NewByteArray(length);
-    jniEnv->SetByteArrayRegion(jpcm_bytes, 0, length, reinterpret_cast<const jbyte *>(pcm_data));
-
-    // 回调 Java 方法
-    jniEnv->CallVoidMethod(obj, method, jpcm_bytes, length);
-
-    // 释放 native 层引用
-    jniEnv->DeleteLocalRef(jpcm_bytes);
-}
-
-void JNICall::callOnPCMChanged(uint8_t *pcm_data, int length) {
+JNIEnv *JNICall::attachCurrentThread() {
     JNIEnv *jniEnv = getCurrentEnv();
     if (jniEnv != NULL) {
-        callOnPCMChangedInternal(jniEnv, jopensles_pcm_provider, jmid_on_pcm_changed, pcm_data,
-                                 length);
-    } else {
-        // 走到这里说明为 native 线程
-        if (java_vm->AttachCurrentThread(&jniEnv, 0) != JNI_OK) {
-            return;
-        }
-        callOnPCMChangedInternal(jniEnv, jopensles_pcm_provider, jmid_on_pcm_changed, pcm_data,
-                                 length);
-        java_vm->DetachCurrentThread();
+        return jniEnv;
+    }
+    // 走到这里说明为 native 线程, attach 后一直保持, 避免每个 buffer 都 attach/detach 一次
+    pthread_once(&gAttachedKeyOnce, createAttachedKey);
+    gAttachedJavaVM = java_vm;
+    if (java_vm->AttachCurrentThread(&jniEnv, 0) != JNI_OK) {
+        LOGE("Attach native thread to java vm failed.");
+        return NULL;
     }
+    pthread_setspecific(gAttachedKey, jniEnv);
+    return jniEnv;
 }
 
-
+void JNICall::callOnPCMAvailable(int offset, int length) {
+    JNIEnv *jniEnv = attachCurrentThread();
+    if (jniEnv == NULL) {
+        return;
+    }
+    jniEnv->CallVoidMethod(jopensles_pcm_provider, jmid_on_pcm_available, offset, length);
+    if (jniEnv->ExceptionCheck()) {
+        // Java 层的异常不能传递到 OpenSL ES 的回调线程中
+        jniEnv->ExceptionDescribe();
+        jniEnv->ExceptionClear();
+    }
+}
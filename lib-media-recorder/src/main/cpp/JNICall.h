@@ -12,7 +12,7 @@ class JNICall {
 public:
     JavaVM *java_vm;
     jobject jopensles_pcm_provider;
-    jmethodID jmid_on_pcm_changed;
+    jmethodID jmid_on_pcm_available;
 
     JNICall(JavaVM *java_vm, jobject jopensles_pcm_provider);
 
@@ -26,9 +26,14 @@ public:
     JNIEnv *getCurrentEnv();
 
     /**
-     * 回调异步准备完毕
+     * 获取当前线程的 JNIEnv, native 线程只在第一次调用时 attach, 线程退出时自动 detach
      */
-    void callOnPCMChanged(uint8_t *pcm_data, int length);
+    JNIEnv *attachCurrentThread();
+
+    /**
+     * 通知 Java 层环形缓冲中 [offset, offset + length) 的 PCM 数据可读
+     */
+    void callOnPCMAvailable(int offset, int length);
 
 };
 
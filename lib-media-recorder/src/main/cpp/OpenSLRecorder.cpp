@@ -3,23 +3,37 @@
 //
 
 #include <cassert>
+#include <errno.h>
 #include <pthread.h>
+#include <stdint.h>
+#include <time.h>
 #include "OpenSLRecorder.h"
 #include "ConstDefine.h"
 
-OpenSLRecorder::OpenSLRecorder(JNICall *jni_call) {
+/**
+ * 采样率 44.1kHz, 双声道, 16 位
+ */
+#define PCM_BYTES_PER_SECOND (44100 * 2 * 2)
+
+OpenSLRecorder::OpenSLRecorder(JNICall *jni_call, uint8_t *ring_memory, int slot_size,
+                               int slot_count) : is_consuming(false), is_paused(false) {
     this->jni_call = jni_call;
-    this->buffer = new RecordBuffer(RECORD_BUFFER_SIZE);
+    this->buffer = new RingBuffer(ring_memory, slot_size, slot_count);
+    this->scratch_buffer = new uint8_t[slot_size];
     pthread_mutex_init(&mutex_cond_request_stop, NULL);
     pthread_cond_init(&cond_request_stop, NULL);
+    sem_init(&sem_available, 0, 0);
 }
 
 OpenSLRecorder::~OpenSLRecorder() {
     if (buffer != NULL) {
         delete buffer;
         buffer = NULL;
+        delete[] scratch_buffer;
+        scratch_buffer = NULL;
         pthread_mutex_destroy(&mutex_cond_request_stop);
         pthread_cond_destroy(&cond_request_stop);
+        sem_destroy(&sem_available);
     }
     if (sl_obj_recorder != NULL) {
         (*sl_obj_recorder)->Destroy(sl_obj_recorder);
@@ -45,12 +59,69 @@ void recordCallback(SLAndroidSimpleBufferQueueItf caller, void *context) {
         // 唤醒正在请求停止的线程
         pthread_cond_signal(&impl->cond_request_stop);
     } else {
-        // 通过 JNI 将数据回调到 Java 层
-        impl->jni_call->callOnPCMChanged(reinterpret_cast<uint8_t *>(impl->buffer->getNowBuffer()),
-                                         RECORD_BUFFER_SIZE);
+        // 发布写满的 slot, 由读取线程回调到 Java 层, 回调线程不会被 Java 层阻塞
+        impl->onBufferFilled();
         // 将下一个 buffer 入队列
-        (*caller)->Enqueue(caller, impl->buffer->getRecordBuffer(), RECORD_BUFFER_SIZE);
+        impl->enqueueBuffer(caller);
+    }
+}
+
+void OpenSLRecorder::enqueueBuffer(SLAndroidSimpleBufferQueueItf queue) {
+    uint8_t *slot = buffer->reserve();
+    bool is_scratch = slot == NULL;
+    if (is_scratch) {
+        // 环形缓冲已满, 这段数据会被丢弃, 不能覆盖读取线程尚未读取的 slot
+        slot = scratch_buffer;
+    }
+    in_flight_scratch[in_flight_tail] = is_scratch;
+    in_flight_tail = (in_flight_tail + 1) % RECORD_QUEUE_SIZE;
+    (*queue)->Enqueue(queue, slot, buffer->slot_size);
+}
+
+void OpenSLRecorder::onBufferFilled() {
+    bool is_scratch = in_flight_scratch[in_flight_head];
+    in_flight_head = (in_flight_head + 1) % RECORD_QUEUE_SIZE;
+    if (is_scratch) {
+        buffer->notifyOverrun();
+        return;
     }
+    buffer->publish();
+    sem_post(&sem_available);
+}
+
+void OpenSLRecorder::consume() {
+    // 读取线程 attach 一次后保持, 线程退出时自动 detach
+    jni_call->attachCurrentThread();
+    // 超过两个周期没有数据视为 underrun
+    // armeabi-v7a 上 long 只有 32 位, 纳秒需要用 64 位计算
+    int64_t timeout_ns = 2LL * buffer->slot_size * 1000000000LL / PCM_BYTES_PER_SECOND;
+    while (true) {
+        int offset = buffer->peek();
+        if (offset >= 0) {
+            jni_call->callOnPCMAvailable(offset, buffer->slot_size);
+            buffer->release();
+            continue;
+        }
+        // 请求停止后读完剩余的数据再退出
+        if (!is_consuming) {
+            break;
+        }
+        struct timespec deadline;
+        clock_gettime(CLOCK_REALTIME, &deadline);
+        int64_t deadline_ns = static_cast<int64_t>(deadline.tv_nsec) + timeout_ns;
+        deadline.tv_sec += static_cast<time_t>(deadline_ns / 1000000000LL);
+        deadline.tv_nsec = static_cast<long>(deadline_ns % 1000000000LL);
+        if (sem_timedwait(&sem_available, &deadline) != 0 && errno == ETIMEDOUT
+            && is_consuming && !is_paused) {
+            buffer->notifyUnderrun();
+        }
+    }
+}
+
+void *openSLESConsume(void *context) {
+    OpenSLRecorder *impl = static_cast<OpenSLRecorder *>(context);
+    impl->consume();
+    return 0;
 }
 
 void *openSLESRecord(void *context) {
@@ -63,16 +134,20 @@ void *openSLESRecord(void *context) {
 }
 
 void OpenSLRecorder::start() {
+    is_consuming = true;
+    pthread_create(&thread_consume, NULL, openSLESConsume, this);
     pthread_create(&thread_opensl_es_recode, NULL, openSLESRecord, this);
 }
 
 void OpenSLRecorder::pause() {
+    is_paused = true;
     if (sl_itf_recorder != NULL) {
         (*sl_itf_recorder)->SetRecordState(sl_itf_recorder, SL_RECORDSTATE_PAUSED);
     }
 }
 
 void OpenSLRecorder::resume() {
+    is_paused = false;
     if (sl_itf_recorder != NULL) {
         (*sl_itf_recorder)->SetRecordState(sl_itf_recorder, SL_RECORDSTATE_RECORDING);
     }
@@ -91,6 +166,10 @@ void OpenSLRecorder::stop() {
         pthread_cond_wait(&cond_request_stop, &mutex_cond_request_stop);
     }
     pthread_mutex_unlock(&mutex_cond_request_stop);
+    // 停止读取线程, 等待剩余的数据回调完毕
+    is_consuming = false;
+    sem_post(&sem_available);
+    pthread_join(thread_consume, NULL);
 }
 
 void OpenSLRecorder::initOpenSLES() {
@@ -107,7 +186,8 @@ void OpenSLRecorder::initOpenSLES() {
                                       SL_DEFAULTDEVICEID_AUDIOINPUT, NULL};
     SLDataSource audio_src = {&loc_dev, NULL};
     // 创建 pAudioSnk
-    SLDataLocator_AndroidSimpleBufferQueue loc_bq = {SL_DATALOCATOR_ANDROIDSIMPLEBUFFERQUEUE, 2};
+    SLDataLocator_AndroidSimpleBufferQueue loc_bq = {SL_DATALOCATOR_ANDROIDSIMPLEBUFFERQUEUE,
+                                                      RECORD_QUEUE_SIZE};
     SLDataFormat_PCM format_pcm = {
             SL_DATAFORMAT_PCM,
             2,                                                          // 通道数
@@ -135,7 +215,8 @@ void OpenSLRecorder::initOpenSLES() {
     /// 设置队列与回调
     (*sl_itf_record_buffer_queue)->RegisterCallback(sl_itf_record_buffer_queue, recordCallback,
                                                     this);
-    // 主动回调一次, 后面会自动开启录制
-    (*sl_itf_record_buffer_queue)->Enqueue(sl_itf_record_buffer_queue, buffer->getRecordBuffer(),
-                                           RECORD_BUFFER_SIZE);
+    // 预先入队, 后面会自动开启录制
+    for (int i = 0; i < RECORD_QUEUE_SIZE; ++i) {
+        enqueueBuffer(sl_itf_record_buffer_queue);
+    }
 }
\ No newline at end of file
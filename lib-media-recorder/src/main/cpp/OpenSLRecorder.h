@@ -8,15 +8,18 @@
 #include <SLES/OpenSLES.h>
 #include <SLES/OpenSLES_Android.h>
 #include <sys/types.h>
-#include "RecordBuffer.h"
+#include <semaphore.h>
+#include "RingBuffer.h"
 #include "JNICall.h"
+#include "ConstDefine.h"
 #include <pthread.h>
+#include <atomic>
 
 class OpenSLRecorder {
 
 public:
     JNICall *jni_call;
-    RecordBuffer *buffer;
+    RingBuffer *buffer;
     pthread_t thread_opensl_es_recode;
 
     /**
@@ -26,6 +29,22 @@ public:
     pthread_mutex_t mutex_cond_request_stop;
     pthread_cond_t cond_request_stop;
 
+    /**
+     * 读取线程相关, 将环形缓冲中的数据回调到 Java 层
+     */
+    pthread_t thread_consume;
+    sem_t sem_available;
+    std::atomic<bool> is_consuming;
+    std::atomic<bool> is_paused;
+
+    /**
+     * 交给 OpenSL ES 写入的 buffer, 按入队顺序记录, 环形缓冲已满时写入 scratch_buffer
+     */
+    uint8_t *scratch_buffer;
+    bool in_flight_scratch[RECORD_QUEUE_SIZE];
+    int in_flight_head = 0;
+    int in_flight_tail = 0;
+
     /**
      * OpenSL ES 相关变量
      */
@@ -36,7 +55,7 @@ public:
     SLRecordItf sl_itf_recorder = NULL;
     SLAndroidSimpleBufferQueueItf sl_itf_record_buffer_queue = NULL;
 
-    OpenSLRecorder(JNICall *jni_call);
+    OpenSLRecorder(JNICall *jni_call, uint8_t *ring_memory, int slot_size, int slot_count);
 
     ~OpenSLRecorder();
 
@@ -49,6 +68,21 @@ public:
     void stop();
 
     void initOpenSLES();
+
+    /**
+     * 将下一个 buffer 交给 OpenSL ES
+     */
+    void enqueueBuffer(SLAndroidSimpleBufferQueueItf queue);
+
+    /**
+     * OpenSL ES 写满最早入队的 buffer 后调用
+     */
+    void onBufferFilled();
+
+    /**
+     * 在读取线程中循环读取环形缓冲
+     */
+    void consume();
 };
 
 
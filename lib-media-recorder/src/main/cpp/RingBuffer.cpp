@@ -0,0 +1,68 @@
+//
+// Created by Sharry Choo on 2019-10-19.
+//
+
+#include "RingBuffer.h"
+
+RingBuffer::RingBuffer(uint8_t *memory, int slot_size, int slot_count)
+        : reserve_count(0), write_count(0), read_count(0), overrun_count(0), underrun_count(0) {
+    this->memory = memory;
+    this->slot_size = slot_size;
+    this->slot_count = slot_count;
+}
+
+RingBuffer::~RingBuffer() {
+    // memory 由 Java 层持有, 这里不需要释放
+    memory = NULL;
+}
+
+uint8_t *RingBuffer::reserve() {
+    uint32_t read = read_count.load(std::memory_order_acquire);
+    if (reserve_count - read >= (uint32_t) slot_count) {
+        // 消费者来不及读取, 不能覆盖尚未读取的 slot
+        return NULL;
+    }
+    uint8_t *slot = memory + (reserve_count % slot_count) * slot_size;
+    reserve_count++;
+    return slot;
+}
+
+void RingBuffer::publish() {
+    uint32_t write = write_count.load(std::memory_order_relaxed);
+    // 数据写入完成后再发布, 消费者读取到的一定是完整的 slot
+    write_count.store(write + 1, std::memory_order_release);
+}
+
+int RingBuffer::peek() {
+    uint32_t read = read_count.load(std::memory_order_relaxed);
+    uint32_t write = write_count.load(std::memory_order_acquire);
+    if (read == write) {
+        return -1;
+    }
+    return (read % slot_count) * slot_size;
+}
+
+void RingBuffer::release() {
+    uint32_t read = read_count.load(std::memory_order_relaxed);
+    read_count.store(read + 1, std::memory_order_release);
+}
+
+int RingBuffer::available() {
+    return write_count.load(std::memory_order_acquire) - read_count.load(std::memory_order_acquire);
+}
+
+void RingBuffer::notifyOverrun() {
+    overrun_count.fetch_add(1, std::memory_order_relaxed);
+}
+
+void RingBuffer::notifyUnderrun() {
+    underrun_count.fetch_add(1, std::memory_order_relaxed);
+}
+
+int64_t RingBuffer::getOverrunCount() {
+    return overrun_count.load(std::memory_order_relaxed);
+}
+
+int64_t RingBuffer::getUnderrunCount() {
+    return underrun_count.load(std::memory_order_relaxed);
+}
@@ -0,0 +1,82 @@
+//
+// Created by Sharry Choo on 2019-10-19.
+//
+
+#ifndef SMEDIA_RINGBUFFER_H
+#define SMEDIA_RINGBUFFER_H
+
+#include <stddef.h>
+#include <stdint.h>
+#include <atomic>
+
+/**
+ * 单生产者单消费者的无锁环形缓冲
+ *
+ * 内存由 Java 层的 direct ByteBuffer 提供, 按 slot 划分, 消费者通过偏移量直接读取
+ *
+ * 1. 生产者为 OpenSL ES 的回调线程, 先预留 slot 交给 OpenSL ES 直接写入, 写满后再发布, 全程不会阻塞
+ * 2. 没有空闲 slot 时预留失败, 不会覆盖消费者尚未读取的数据, 由生产者计入 overrun
+ * 3. 消费者为独立的读取线程, 等待数据超时计入 underrun
+ */
+class RingBuffer {
+
+public:
+    uint8_t *memory;
+    int slot_size;
+    int slot_count;
+
+    RingBuffer(uint8_t *memory, int slot_size, int slot_count);
+
+    ~RingBuffer();
+
+    /**
+     * 生产者调用, 预留下一个空闲 slot
+     *
+     * @return slot 的地址, 没有空闲 slot 时返回 NULL
+     */
+    uint8_t *reserve();
+
+    /**
+     * 生产者调用, 按预留的顺序发布最早预留的 slot
+     */
+    void publish();
+
+    /**
+     * 消费者调用, 获取最早写入的 slot
+     *
+     * @return slot 在 memory 中的偏移量, 没有可读数据时返回 -1
+     */
+    int peek();
+
+    /**
+     * 消费者调用, 读取完成后归还 peek 到的 slot
+     */
+    void release();
+
+    /**
+     * 可读的 slot 数量
+     */
+    int available();
+
+    void notifyOverrun();
+
+    void notifyUnderrun();
+
+    int64_t getOverrunCount();
+
+    int64_t getUnderrunCount();
+
+private:
+    /**
+     * 单调递增的计数, reserve_count 和 write_count 只由生产者修改, read_count 只由消费者修改
+     */
+    uint32_t reserve_count;
+    std::atomic<uint32_t> write_count;
+    std::atomic<uint32_t> read_count;
+    std::atomic<int64_t> overrun_count;
+    std::atomic<int64_t> underrun_count;
+
+};
+
+
+#endif //SMEDIA_RINGBUFFER_H
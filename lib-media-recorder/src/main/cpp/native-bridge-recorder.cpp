@@ -39,11 +39,24 @@ namespace openslesprovider {
 
     OpenSLRecorder *pRecorder = NULL;
     JNICall *pJniCall = NULL;
+    /**
+     * 最近一次录制停止时的统计, 停止后仍可查询
+     */
+    jlong lastOverrunCount = 0;
+    jlong lastUnderrunCount = 0;
 
-    void nativeStart(JNIEnv *, jobject jobj) {
+    void nativeStart(JNIEnv *env, jobject jobj, jobject jring, jint slot_size, jint slot_count) {
         if (pRecorder == NULL) {
+            uint8_t *ring_memory = static_cast<uint8_t *>(env->GetDirectBufferAddress(jring));
+            if (ring_memory == NULL || slot_count <= RECORD_QUEUE_SIZE) {
+                LOGE("Ring buffer must be a direct ByteBuffer with more than %d slots.",
+                     RECORD_QUEUE_SIZE);
+                return;
+            }
+            lastOverrunCount = 0;
+            lastUnderrunCount = 0;
             pJniCall = new JNICall(gJavaVM, jobj);
-            pRecorder = new OpenSLRecorder(pJniCall);
+            pRecorder = new OpenSLRecorder(pJniCall, ring_memory, slot_size, slot_count);
             pRecorder->start();
         } else {
             LOGI("Please stop first");
@@ -71,19 +84,32 @@ namespace openslesprovider {
             pJniCall = NULL;
         }
         if (pRecorder != NULL) {
+            lastOverrunCount = pRecorder->buffer->getOverrunCount();
+            lastUnderrunCount = pRecorder->buffer->getUnderrunCount();
             delete pRecorder;
             pRecorder = NULL;
         }
-        LOGI("OpenSL ES recorder stopped.");
+        LOGI("OpenSL ES recorder stopped, overrun = %lld, underrun = %lld.",
+             (long long) lastOverrunCount, (long long) lastUnderrunCount);
+    }
+
+    jlong nativeGetOverrunCount(JNIEnv *, jobject) {
+        return pRecorder != NULL ? pRecorder->buffer->getOverrunCount() : lastOverrunCount;
+    }
+
+    jlong nativeGetUnderrunCount(JNIEnv *, jobject) {
+        return pRecorder != NULL ? pRecorder->buffer->getUnderrunCount() : lastUnderrunCount;
     }
 
 }
 
 JNINativeMethod gBridgeMethods[] = {
-        {"nativeStart",  "()V", (void *) openslesprovider::nativeStart},
+        {"nativeStart",  "(Ljava/nio/ByteBuffer;II)V", (void *) openslesprovider::nativeStart},
         {"nativePause",  "()V", (void *) openslesprovider::nativePause},
         {"nativeResume", "()V", (void *) openslesprovider::nativeResume},
-        {"nativeStop",   "()V", (void *) openslesprovider::nativeStop}
+        {"nativeStop",   "()V", (void *) openslesprovider::nativeStop},
+        {"nativeGetOverrunCount",  "()J", (void *) openslesprovider::nativeGetOverrunCount},
+        {"nativeGetUnderrunCount", "()J", (void *) openslesprovider::nativeGetUnderrunCount}
 };
 
 int registerNativeMethods(JNIEnv *env, jclass cls) {
@@ -6,14 +6,21 @@ import android.media.MediaFormat;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ACC 音频的编码器
+ * <p>
+ * 1. {@link #encode} 只将 PCM 拷贝到有界的暂存队列, 不会因为编码器没有空闲的输入缓冲而丢弃数据
+ * 2. 由独立的编码线程阻塞等待输入缓冲并及时取出输出, 停止时写入 EOS 并取完剩余的输出
+ * 3. 时间戳由累计的采样数计算, 与系统时钟和回调的抖动无关, 音视频不会因为 CPU 繁忙而漂移
+ * 4. 暂存队列写满时才会丢弃, 丢弃的采样仍计入时间戳, 通过 {@link #getDroppedSampleCount()} 统计
  *
  * @author Sharry <a href="SharryChooCHN@Gmail.com">Contact me.</a>
  * @version 1.0
@@ -23,25 +30,49 @@ public class ACCEncoder implements IAudioEncoder {
 
     private static final String TAG = ACCEncoder.class.getSimpleName();
     /**
-     * 音频常用的采样数组
+     * 暂存队列的容量, 以 4096 字节的 PCM 计算约 370ms
      */
-    private static int[] SAMPLE_RATES = new int[]{
-            96000, 88200, 64000, 48000, 44100, 32000,
-            24000, 22050, 16000, 12000, 11025, 8000, 7350
-    };
+    private static final int STAGING_CAPACITY = 16;
 
-    private static final int ACC_HEADER_ADTS_LENGTH = 7;
+    /**
+     * 暂存队列已满时, 等待编码线程腾出空间的最长时间
+     */
+    private static final long STAGING_OFFER_TIMEOUT_MS = 20;
+
+    /**
+     * 编码线程等待输入输出缓冲的超时时间
+     */
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    /**
+     * 停止时等待 EOS 输出的最长时间
+     */
+    private static final long DRAIN_EOS_TIMEOUT_MS = 500;
 
     private static final String MIME_TYPE = MediaFormat.MIMETYPE_AUDIO_AAC;  // 当前编码器要编码的类型描述
     private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
-    private FileOutputStream mFileOutputSteam;
+    private final BlockingQueue<PcmChunk> mFreeChunks = new ArrayBlockingQueue<>(STAGING_CAPACITY);
+    private final BlockingQueue<PcmChunk> mPendingChunks = new ArrayBlockingQueue<>(STAGING_CAPACITY);
+    private AdtsFileSink mFileSink;
     private Context mContext;
     private MediaCodec mImpl;
-    private long mPts = 0;
+    private EncodeThread mEncodeThread;
+    private int mBytesPerFrame;
+
+    /**
+     * 累计送入的采样数, 包括被丢弃的采样, 仅在 encode 的调用线程中修改
+     */
+    private long mSubmittedFrames;
+
+    private volatile boolean mIsEncoding;
+    private volatile Throwable mEncodeError;
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mStallCount = new AtomicLong();
 
     @Override
     public void prepare(@NonNull Context context) throws IOException {
         mContext = context;
+        mBytesPerFrame = context.channelCount * context.perSampleSize;
         // 执行编码前的准备
         MediaFormat audioFormat = MediaFormat.createAudioFormat(MIME_TYPE, mContext.sampleRate, mContext.channelCount);
         int bitRate = mContext.sampleRate * mContext.channelCount * context.perSampleSize;
@@ -52,79 +83,73 @@ public class ACCEncoder implements IAudioEncoder {
         audioFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, bitRate);
         // 根据参数判断是否需要写入到文件
         if (!mContext.isJustEncode) {
-            mFileOutputSteam = new FileOutputStream(context.outputFd);
+            mFileSink = new AdtsFileSink(context.outputFd, context.sampleRate,
+                    context.channelCount, context.fileSyncPolicy);
         }
         // 初始化编码器
         mImpl = MediaCodec.createEncoderByType(MIME_TYPE);
         mImpl.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
         mImpl.start();
+        // 初始化暂存队列
+        mFreeChunks.clear();
+        mPendingChunks.clear();
+        for (int i = 0; i < STAGING_CAPACITY; i++) {
+            mFreeChunks.offer(new PcmChunk());
+        }
+        mSubmittedFrames = 0;
+        mDroppedFrames.set(0);
+        mStallCount.set(0);
+        mEncodeError = null;
+        // 启动编码线程
+        mIsEncoding = true;
+        mEncodeThread = new EncodeThread();
+        mEncodeThread.start();
     }
 
     @Override
-    public void encode(@Nullable byte[] pcmBytes) {
-        if (pcmBytes == null) {
+    public void encode(@NonNull ByteBuffer pcm, int offset, int length) throws Throwable {
+        if (mEncodeError != null) {
+            throw mEncodeError;
+        }
+        if (length <= 0 || !mIsEncoding) {
             return;
         }
-        // 1. 将输入流传递给编码器的 inputBuffer 队列中
-        final int indexOfInputBuffer = mImpl.dequeueInputBuffer(0);
-        if (indexOfInputBuffer >= 0) {
-            final ByteBuffer inputBuffer;
-            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-                inputBuffer = mImpl.getInputBuffer(indexOfInputBuffer);
-            } else {
-                inputBuffer = mImpl.getInputBuffers()[indexOfInputBuffer];
-            }
-            if (null == inputBuffer) {
-                return;
-            }
-            inputBuffer.clear();
-            inputBuffer.put(pcmBytes);
-            // 计算录制时间戳
-            calcPresentationTimeUs(pcmBytes.length, mContext.sampleRate, mContext.channelCount,
-                    mContext.perSampleSize);
-            mImpl.queueInputBuffer(indexOfInputBuffer, 0, pcmBytes.length, mPts, 0);
-        } else {
-            // ignore.
+        // 根据累计的采样数计算这段数据首个采样的时间戳
+        long ptsUs = mSubmittedFrames * 1000000L / mContext.sampleRate;
+        int frames = length / mBytesPerFrame;
+        if (frames == 0) {
             return;
         }
-        // 从 MediaCodec 中获取编码后的输出流
-        int indexOfOutputBuffer = mImpl.dequeueOutputBuffer(mBufferInfo, 0);
-        // 处理输出缓冲索引小于 0 的情况
-        if (indexOfOutputBuffer == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-            mContext.callback.onAudioFormatChanged(mImpl.getOutputFormat());
-        } else {
-            while (indexOfOutputBuffer >= 0) {
-                // 获取数据
-                final ByteBuffer outBuffer;
-                if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-                    outBuffer = mImpl.getOutputBuffer(indexOfOutputBuffer);
-                } else {
-                    outBuffer = mImpl.getOutputBuffers()[indexOfOutputBuffer];
-                }
-                if (null == outBuffer) {
-                    continue;
-                }
-                outBuffer.position(mBufferInfo.offset);
-                outBuffer.limit(mBufferInfo.offset + mBufferInfo.size);
-                // 回调音频编码数据
-                mContext.callback.onAudioEncoded(outBuffer, mBufferInfo);
-                // 写到文件
-                writeToFile(outBuffer, mBufferInfo);
-                // 释放 encoderStatus 索引处的输出缓冲流
-                mImpl.releaseOutputBuffer(indexOfOutputBuffer, false);
-                indexOfOutputBuffer = mImpl.dequeueOutputBuffer(mBufferInfo, 0);
-            }
+        mSubmittedFrames += frames;
+        // 获取空闲的暂存块, 编码线程来不及处理时短暂等待
+        PcmChunk chunk = mFreeChunks.poll();
+        if (chunk == null) {
+            mStallCount.incrementAndGet();
+            chunk = mFreeChunks.poll(STAGING_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        if (chunk == null) {
+            // 暂存队列已满, 丢弃这段数据, 时间戳仍然前进以保持音视频同步
+            mDroppedFrames.addAndGet(frames);
+            return;
         }
+        // 拷贝到暂存块, 调用返回后 pcm 中的数据不再有效, 末尾不足一帧的数据丢弃
+        chunk.fill(pcm, offset, frames * mBytesPerFrame, ptsUs);
+        mPendingChunks.offer(chunk);
     }
 
     @Override
     public void stop() {
-        if (mImpl != null) {
+        mIsEncoding = false;
+        if (mEncodeThread != null) {
             try {
-                mImpl.flush();
+                mEncodeThread.join();
             } catch (Throwable e) {
                 Log.w(TAG, e.getMessage(), e);
+            } finally {
+                mEncodeThread = null;
             }
+        }
+        if (mImpl != null) {
             try {
                 mImpl.stop();
             } catch (Throwable e) {
@@ -137,93 +162,187 @@ public class ACCEncoder implements IAudioEncoder {
             }
             mImpl = null;
         }
+        if (mFileSink != null) {
+            try {
+                mFileSink.close();
+            } catch (Throwable e) {
+                Log.w(TAG, e.getMessage(), e);
+            }
+            mFileSink = null;
+        }
+        if (mDroppedFrames.get() > 0 || mStallCount.get() > 0) {
+            Log.w(TAG, "Audio encode stalled " + mStallCount.get() + " times, dropped "
+                    + mDroppedFrames.get() + " samples.");
+        }
     }
 
     /**
-     * 计算录制时间戳
-     *
-     * @param size          采样数据的大小
-     * @param sampleRate    采样率
-     * @param channel       通道数
-     * @param preSampleSize 采样点大小
+     * 暂存队列已满而丢弃的采样数, 按声道合并计算
      */
-    private void calcPresentationTimeUs(int size, int sampleRate, int channel, int preSampleSize) {
-        mPts += (long) (1.0 * size / (sampleRate * channel * preSampleSize) * 1000000.0);
+    public long getDroppedSampleCount() {
+        return mDroppedFrames.get();
     }
 
     /**
-     * 将编码后的 ACC 添加头部并且写入文件
+     * 暂存队列没有空闲块, 需要等待编码线程的次数
      */
-    private void writeToFile(ByteBuffer outBuffer, MediaCodec.BufferInfo bufferInfo) {
-        if (mFileOutputSteam == null) {
-            return;
-        }
-        // 多开辟 7 个 byte 给流数据添加 ADTS 头部字段
-        int len = bufferInfo.size + ACC_HEADER_ADTS_LENGTH;
-        byte[] accBytes = new byte[len];
-        // 为数组填充 ADTS 头部信息
-        addADTStoPacket(accBytes, len, mContext.sampleRate, mContext.channelCount);
-        // 将 ACC 数据写入到头部信息之后
-        outBuffer.get(accBytes, ACC_HEADER_ADTS_LENGTH, bufferInfo.size);
-        // 写入文件
-        try {
-            mFileOutputSteam.write(accBytes);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public long getStallCount() {
+        return mStallCount.get();
     }
 
     /**
-     * 给 ACC 码流添加 ADTS 头字段
-     *
-     * @param packet    空出 7 个字节, 填充 ADTS 字段
-     * @param packetLen 真实数据的长度
+     * 暂存的 PCM 数据块, 在暂存队列与编码线程之间循环复用
      */
-    private void addADTStoPacket(byte[] packet, int packetLen, int sampleRate, int channelCount) {
-        int profile = 2; // AAC LC
-        int freqIdx = sampleRateMapperFrequency(sampleRate);
-        // fill in ADTS data
-        packet[0] = (byte) 0xFF;
-        packet[1] = (byte) 0xF9;
-        packet[2] = (byte) (((profile - 1) << 6) + (freqIdx << 2) + (channelCount >> 2));
-        packet[3] = (byte) (((channelCount & 3) << 6) + (packetLen >> 11));
-        packet[4] = (byte) ((packetLen & 0x7FF) >> 3);
-        packet[5] = (byte) (((packetLen & 7) << 5) + 0x1F);
-        packet[6] = (byte) 0xFC;
+    private static final class PcmChunk {
+
+        private ByteBuffer data = ByteBuffer.allocateDirect(4096);
+        private long ptsUs;
+
+        void fill(ByteBuffer pcm, int offset, int length, long ptsUs) {
+            if (data.capacity() < length) {
+                data = ByteBuffer.allocateDirect(length);
+            }
+            data.clear();
+            pcm.limit(offset + length).position(offset);
+            data.put(pcm);
+            data.flip();
+            this.ptsUs = ptsUs;
+        }
+
     }
 
     /**
-     * 获取采样率对应的频率 ID.
+     * 音频编码的线程
      * <p>
-     * 0: 96000 Hz
-     * 1: 88200 Hz
-     * 2: 64000 Hz
-     * 3: 48000 Hz
-     * 4: 44100 Hz
-     * 5: 32000 Hz
-     * 6: 24000 Hz
-     * 7: 22050 Hz
-     * 8: 16000 Hz
-     * 9: 12000 Hz
-     * 10: 11025 Hz
-     * 11: 8000 Hz
-     * 12: 7350 Hz
-     * 13: Reserved
-     * 14: Reserved
-     * 15: frequency is written explictly
-     * </p>
-     *
-     * @return the sample rate mapped special frequency id.
+     * 阻塞等待编码器的输入缓冲, 每次送入数据后取出所有可用的输出
      */
-    private int sampleRateMapperFrequency(int sampleRate) {
-        int frequencyId = -1;
-        for (int index = 0; index < SAMPLE_RATES.length; index++) {
-            if (sampleRate == SAMPLE_RATES[index]) {
-                frequencyId = index;
-                break;
+    private final class EncodeThread extends Thread {
+
+        EncodeThread() {
+            super("ACCEncoder");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (mIsEncoding || !mPendingChunks.isEmpty()) {
+                    PcmChunk chunk = mPendingChunks.poll(DEQUEUE_TIMEOUT_US, TimeUnit.MICROSECONDS);
+                    if (chunk != null) {
+                        queueChunk(chunk);
+                        mFreeChunks.offer(chunk);
+                    }
+                    drainOutput(false);
+                }
+                signalEndOfStream();
+                drainOutput(true);
+            } catch (Throwable e) {
+                mEncodeError = e;
+                Log.e(TAG, "Audio encode failed.", e);
+            }
+        }
+
+        /**
+         * 将暂存块送入编码器, 超出单个输入缓冲容量时拆分, 拆分后的时间戳按采样数推算
+         */
+        private void queueChunk(PcmChunk chunk) throws IOException {
+            ByteBuffer data = chunk.data;
+            long ptsUs = chunk.ptsUs;
+            // 暂存块中只有完整的帧, 按帧判断剩余数据, 避免送入长度为 0 的输入缓冲
+            while (data.remaining() >= mBytesPerFrame) {
+                int index = mImpl.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                if (index < 0) {
+                    // 编码器繁忙, 先取出输出腾出空间再重试
+                    mStallCount.incrementAndGet();
+                    drainOutput(false);
+                    continue;
+                }
+                ByteBuffer inputBuffer = getInputBuffer(index);
+                inputBuffer.clear();
+                int size = Math.min(data.remaining(), inputBuffer.remaining());
+                size -= size % mBytesPerFrame;
+                int limit = data.limit();
+                data.limit(data.position() + size);
+                inputBuffer.put(data);
+                data.limit(limit);
+                mImpl.queueInputBuffer(index, 0, size, ptsUs, 0);
+                ptsUs += (long) (size / mBytesPerFrame) * 1000000L / mContext.sampleRate;
             }
         }
-        return frequencyId;
+
+        private void signalEndOfStream() throws IOException {
+            int index;
+            do {
+                index = mImpl.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+                if (index < 0) {
+                    drainOutput(false);
+                }
+            } while (index < 0);
+            long ptsUs = mSubmittedFrames * 1000000L / mContext.sampleRate;
+            mImpl.queueInputBuffer(index, 0, 0, ptsUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        }
+
+        /**
+         * 取出编码器中的输出
+         *
+         * @param untilEndOfStream 是否一直等待到 EOS
+         */
+        private void drainOutput(boolean untilEndOfStream) throws IOException {
+            long deadline = System.currentTimeMillis() + DRAIN_EOS_TIMEOUT_MS;
+            while (true) {
+                int index = mImpl.dequeueOutputBuffer(mBufferInfo,
+                        untilEndOfStream ? DEQUEUE_TIMEOUT_US : 0);
+                if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    mContext.callback.onAudioFormatChanged(mImpl.getOutputFormat());
+                    continue;
+                }
+                if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                    continue;
+                }
+                if (index < 0) {
+                    if (!untilEndOfStream || System.currentTimeMillis() > deadline) {
+                        return;
+                    }
+                    continue;
+                }
+                ByteBuffer outBuffer = getOutputBuffer(index);
+                boolean isEndOfStream = (mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                // 编码器配置信息已经通过输出格式回调, 不作为数据帧输出
+                boolean isCodecConfig = (mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+                if (outBuffer != null && mBufferInfo.size > 0 && !isCodecConfig) {
+                    outBuffer.position(mBufferInfo.offset);
+                    outBuffer.limit(mBufferInfo.offset + mBufferInfo.size);
+                    // 回调音频编码数据
+                    mContext.callback.onAudioEncoded(outBuffer, mBufferInfo);
+                    // 写到文件
+                    if (mFileSink != null) {
+                        outBuffer.position(mBufferInfo.offset);
+                        mFileSink.write(outBuffer);
+                    }
+                }
+                // 释放 encoderStatus 索引处的输出缓冲流
+                mImpl.releaseOutputBuffer(index, false);
+                if (isEndOfStream) {
+                    return;
+                }
+            }
+        }
+
+        private ByteBuffer getInputBuffer(int index) {
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
+                return mImpl.getInputBuffer(index);
+            } else {
+                return mImpl.getInputBuffers()[index];
+            }
+        }
+
+        private ByteBuffer getOutputBuffer(int index) {
+            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
+                return mImpl.getOutputBuffer(index);
+            } else {
+                return mImpl.getOutputBuffers()[index];
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,148 @@
+package com.sharry.lib.media.recorder;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 将 AAC 帧封装为 ADTS 写入文件
+ * <p>
+ * 1. ADTS 头部由采样率和通道数预先生成模板, 每帧只更新与帧长相关的 3 个字节
+ * 2. 帧数据拷贝到一块较大的 direct buffer 中, 写满后通过 {@link FileChannel} 一次写入, 不会为每帧分配数组
+ * 3. 根据 {@link Options.Audio.FileSyncPolicy} 决定何时将数据同步到存储设备
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+final class AdtsFileSink {
+
+    /**
+     * 音频常用的采样数组, 下标即 ADTS 中的频率 ID
+     */
+    private static final int[] SAMPLE_RATES = new int[]{
+            96000, 88200, 64000, 48000, 44100, 32000,
+            24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+
+    private static final int ADTS_HEADER_LENGTH = 7;
+
+    /**
+     * ADTS 帧长字段为 13 位
+     */
+    private static final int MAX_FRAME_LENGTH = 0x1FFF;
+
+    /**
+     * 写入缓冲的容量, 以 128kbps 计算约 4 秒的数据
+     */
+    private static final int BUFFER_CAPACITY = 64 * 1024;
+
+    private final FileOutputStream mOutputStream;
+    private final FileChannel mChannel;
+    private final int mSyncPolicy;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_CAPACITY);
+    private final byte[] mHeader = new byte[ADTS_HEADER_LENGTH];
+
+    AdtsFileSink(FileDescriptor fd, int sampleRate, int channelCount, int syncPolicy) {
+        int freqIdx = sampleRateMapperFrequency(sampleRate);
+        if (freqIdx < 0) {
+            throw new IllegalArgumentException("Unsupported sample rate: " + sampleRate);
+        }
+        int profile = 2; // AAC LC
+        // 与帧长无关的字段只需要计算一次
+        mHeader[0] = (byte) 0xFF;
+        mHeader[1] = (byte) 0xF9;
+        mHeader[2] = (byte) (((profile - 1) << 6) + (freqIdx << 2) + (channelCount >> 2));
+        mHeader[3] = (byte) ((channelCount & 3) << 6);
+        mHeader[6] = (byte) 0xFC;
+        mOutputStream = new FileOutputStream(fd);
+        mChannel = mOutputStream.getChannel();
+        mSyncPolicy = syncPolicy;
+    }
+
+    /**
+     * 写入一帧 AAC 数据
+     *
+     * @param frame 从 position 到 limit 为一帧完整的 AAC 数据, 写入后 position 移动到 limit
+     */
+    void write(ByteBuffer frame) throws IOException {
+        int packetLen = frame.remaining() + ADTS_HEADER_LENGTH;
+        if (packetLen > MAX_FRAME_LENGTH) {
+            throw new IOException("AAC frame too large for ADTS: " + frame.remaining());
+        }
+        if (mBuffer.remaining() < packetLen) {
+            flush();
+        }
+        // 更新与帧长相关的字段
+        mHeader[3] = (byte) ((mHeader[3] & 0xC0) | (packetLen >> 11));
+        mHeader[4] = (byte) ((packetLen & 0x7FF) >> 3);
+        mHeader[5] = (byte) (((packetLen & 7) << 5) + 0x1F);
+        mBuffer.put(mHeader);
+        mBuffer.put(frame);
+    }
+
+    /**
+     * 将缓冲中的数据写入文件
+     */
+    void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+        if (mSyncPolicy == Options.Audio.FILE_SYNC_ON_FLUSH) {
+            mChannel.force(false);
+        }
+    }
+
+    /**
+     * 写入剩余的数据并关闭文件
+     */
+    void close() throws IOException {
+        try {
+            flush();
+            if (mSyncPolicy == Options.Audio.FILE_SYNC_ON_CLOSE) {
+                mChannel.force(false);
+            }
+        } finally {
+            mOutputStream.close();
+        }
+    }
+
+    /**
+     * 获取采样率对应的频率 ID.
+     * <p>
+     * 0: 96000 Hz
+     * 1: 88200 Hz
+     * 2: 64000 Hz
+     * 3: 48000 Hz
+     * 4: 44100 Hz
+     * 5: 32000 Hz
+     * 6: 24000 Hz
+     * 7: 22050 Hz
+     * 8: 16000 Hz
+     * 9: 12000 Hz
+     * 10: 11025 Hz
+     * 11: 8000 Hz
+     * 12: 7350 Hz
+     * 13: Reserved
+     * 14: Reserved
+     * 15: frequency is written explictly
+     * </p>
+     *
+     * @return the sample rate mapped special frequency id.
+     */
+    private static int sampleRateMapperFrequency(int sampleRate) {
+        int frequencyId = -1;
+        for (int index = 0; index < SAMPLE_RATES.length; index++) {
+            if (sampleRate == SAMPLE_RATES[index]) {
+                frequencyId = index;
+                break;
+            }
+        }
+        return frequencyId;
+    }
+
+}
@@ -9,6 +9,8 @@ import android.view.Surface;
 
 import androidx.annotation.NonNull;
 
+import com.sharry.lib.camera.IPreviewer;
+import com.sharry.lib.opengles.EglContextGroup;
 import com.sharry.lib.opengles.EglCore;
 
 import java.io.IOException;
@@ -30,7 +32,16 @@ public class H264Encoder implements IVideoEncoder {
      */
     private static final String MIME_TYPE = "video/avc";
 
-    private final Object mPauseLock = new Object();
+    /**
+     * 编码线程等待输出的超时时间
+     */
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+    /**
+     * 停止时等待 EOS 输出的最长时间
+     */
+    private static final long DRAIN_EOS_TIMEOUT_MS = 500;
+
     private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
 
     /**
@@ -45,6 +56,7 @@ public class H264Encoder implements IVideoEncoder {
 
     private volatile boolean mIsEncoding;
     private volatile boolean mIsPausing;
+    private volatile boolean mIsEndOfInputSignaled;
 
     @Override
     public void prepare(@NonNull Context context) throws IOException {
@@ -67,6 +79,7 @@ public class H264Encoder implements IVideoEncoder {
     @Override
     public void start() {
         mIsEncoding = true;
+        mIsEndOfInputSignaled = false;
         mRenderThread.start();
         mEncodeThread.start();
     }
@@ -74,23 +87,20 @@ public class H264Encoder implements IVideoEncoder {
     @Override
     public void pause() {
         mIsPausing = true;
+        mRenderThread.wakeUp();
     }
 
     @Override
     public void resume() {
         mIsPausing = false;
-        synchronized (mPauseLock) {
-            mPauseLock.notify();
-        }
+        mRenderThread.wakeUp();
     }
 
     @Override
     public void stop() {
         mIsEncoding = false;
         mIsPausing = false;
-        synchronized (mPauseLock) {
-            mPauseLock.notify();
-        }
+        mRenderThread.wakeUp();
         try {
             mRenderThread.join();
         } catch (Throwable e) {
@@ -98,6 +108,14 @@ public class H264Encoder implements IVideoEncoder {
         } finally {
             mRenderThread = null;
         }
+        // 渲染线程退出后不会再有输入, 通知编码器输出剩余的帧
+        try {
+            mImpl.signalEndOfInputStream();
+        } catch (Throwable e) {
+            Log.w(TAG, e.getMessage(), e);
+        } finally {
+            mIsEndOfInputSignaled = true;
+        }
         try {
             mEncodeThread.join();
         } catch (Throwable e) {
@@ -109,109 +127,180 @@ public class H264Encoder implements IVideoEncoder {
 
     /**
      * 录制的渲染线程
+     * <p>
+     * 由预览器的帧绘制事件驱动, 没有新的相机帧时阻塞等待, 并按照 {@link Context#frameRate} 限制输出帧率
      */
-    private final class RendererThread extends Thread {
+    private final class RendererThread extends Thread implements IPreviewer.OnFrameDrawnListener {
+
+        private static final long NO_FRAME = -1;
 
-        private boolean mIsContextCreated = true;
-        private boolean mIsSizeChanged = true;
+        private final Object mFrameLock = new Object();
         private final EglCore mEglCore;
         private final H264Render mRenderer;
+        /**
+         * 允许的最小帧间隔, 留出 1/4 的余量吸收相机帧间隔的抖动
+         */
+        private final long mMinFrameIntervalNanos;
+        private final long mFrameIntervalNanos;
+
+        /**
+         * 由 mFrameLock 保护
+         */
+        private long mPendingTimestamp = NO_FRAME;
+        private int mPendingTextureId;
+
+        /**
+         * 以下变量仅在渲染线程中访问
+         */
+        private boolean mIsPaused;
+        private long mLastTimestamp = NO_FRAME;
+        private long mPausedDurationNanos;
 
         RendererThread() {
-            mEglCore = new EglCore();
+            // 与预览器处于同一个上下文组, 复用已初始化的 display 和 config
+            mEglCore = new EglCore(EglContextGroup.getDefault());
             mRenderer = new H264Render(mContext.textureId);
+            mFrameIntervalNanos = 1000000000L / Math.max(1, mContext.frameRate);
+            mMinFrameIntervalNanos = mFrameIntervalNanos - mFrameIntervalNanos / 4;
+        }
+
+        @Override
+        public void onFrameDrawn(int textureId, long timestampNanos) {
+            synchronized (mFrameLock) {
+                mPendingTimestamp = timestampNanos;
+                mPendingTextureId = textureId;
+                mFrameLock.notify();
+            }
+        }
+
+        /**
+         * 唤醒渲染线程, 响应暂停, 恢复和停止
+         */
+        void wakeUp() {
+            synchronized (mFrameLock) {
+                mFrameLock.notify();
+            }
         }
 
         @Override
         public void run() {
+            // 初始化创建 EGL 环境，然后回调 Renderer
+            mEglCore.initialize(mInputSurface, mContext.eglContext);
+            mRenderer.onEGLContextCreated();
+            mRenderer.onSurfaceChanged(mContext.frameWidth, mContext.frameHeight);
+            mContext.previewer.addOnFrameDrawnListener(this);
             while (mIsEncoding) {
-                if (mIsPausing) {
-                    synchronized (mPauseLock) {
-                        try {
-                            mPauseLock.wait();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
+                long timestamp = awaitFrame();
+                if (timestamp == NO_FRAME) {
                     continue;
                 }
-                if (mIsContextCreated) {
-                    // 初始化创建 EGL 环境，然后回调 Renderer
-                    mEglCore.initialize(mInputSurface, mContext.eglContext);
-                    mRenderer.onEGLContextCreated();
-                    mIsContextCreated = false;
-                }
-                // 说明手机横竖屏切换, 导致尺寸变更了
-                if (mIsSizeChanged) {
-                    mRenderer.onSurfaceChanged(mContext.frameWidth, mContext.frameHeight);
-                    mIsSizeChanged = true;
+                if (mLastTimestamp != NO_FRAME) {
+                    long delta = timestamp - mLastTimestamp;
+                    if (mIsPaused) {
+                        // 扣除暂停的时长, 保证恢复后时间戳连续
+                        mPausedDurationNanos += Math.max(0, delta - mFrameIntervalNanos);
+                        mIsPaused = false;
+                    } else if (delta < mMinFrameIntervalNanos) {
+                        // 超出目标帧率, 丢弃这一帧
+                        continue;
+                    }
                 }
-                // 不停的绘制
+                mLastTimestamp = timestamp;
                 mRenderer.onDrawFrame();
+                // 使用相机帧的时间戳作为编码帧的时间戳
+                mEglCore.setPresentationTime(timestamp - mPausedDurationNanos);
                 // 将绘制的数据交换到 mInputSurface 中
                 mEglCore.swapBuffers();
             }
             onDestroy();
         }
 
+        /**
+         * 等待下一帧相机数据
+         *
+         * @return 相机帧的时间戳, 被唤醒但没有新的帧时返回 {@link #NO_FRAME}
+         */
+        private long awaitFrame() {
+            synchronized (mFrameLock) {
+                while (mIsEncoding && (mIsPausing || mPendingTimestamp == NO_FRAME)) {
+                    if (mIsPausing) {
+                        // 暂停期间的帧全部丢弃
+                        mPendingTimestamp = NO_FRAME;
+                        mIsPaused = true;
+                    }
+                    try {
+                        mFrameLock.wait();
+                    } catch (InterruptedException e) {
+                        return NO_FRAME;
+                    }
+                }
+                long timestamp = mPendingTimestamp;
+                mPendingTimestamp = NO_FRAME;
+                // 预览使用滤镜时, 每一帧输出的纹理可能不同
+                mRenderer.setTextureId(mPendingTextureId);
+                return timestamp;
+            }
+        }
+
         private void onDestroy() {
+            mContext.previewer.removeOnFrameDrawnListener(this);
             mEglCore.release();
         }
     }
 
     /**
      * 录制编码的线程
+     * <p>
+     * 阻塞等待编码器的输出, 没有数据时不占用 CPU, 停止时等待 EOS 后退出
      */
     public final class EncodeThread extends Thread {
 
         @Override
         public void run() {
             mImpl.start();
-            while (mIsEncoding) {
-                if (mIsPausing) {
-                    synchronized (mPauseLock) {
-                        try {
-                            mPauseLock.wait();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
+            long eosDeadline = 0;
+            while (true) {
+                int indexOfOutputBuffer = mImpl.dequeueOutputBuffer(mBufferInfo, DEQUEUE_TIMEOUT_US);
+                if (indexOfOutputBuffer == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    mContext.callback.onVideoFormatChanged(mImpl.getOutputFormat());
+                    continue;
+                }
+                if (indexOfOutputBuffer < 0) {
+                    // 已请求停止, 等待 EOS 超时后直接退出
+                    if (mIsEndOfInputSignaled) {
+                        if (eosDeadline == 0) {
+                            eosDeadline = System.currentTimeMillis() + DRAIN_EOS_TIMEOUT_MS;
+                        } else if (System.currentTimeMillis() > eosDeadline) {
+                            Log.w(TAG, "Wait for end of stream timeout.");
+                            break;
                         }
                     }
                     continue;
                 }
-                int indexOfOutputBuffer = mImpl.dequeueOutputBuffer(mBufferInfo, 0);
-                if (indexOfOutputBuffer == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    mContext.callback.onVideoFormatChanged(mImpl.getOutputFormat());
+                // 处理编码后的输出数据
+                ByteBuffer outputBuffer;
+                if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
+                    outputBuffer = mImpl.getOutputBuffer(indexOfOutputBuffer);
                 } else {
-                    while (indexOfOutputBuffer >= 0) {
-                        // 3.1 处理编码后的输出数据
-                        ByteBuffer outputBuffer = null;
-                        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-                            outputBuffer = mImpl.getOutputBuffer(indexOfOutputBuffer);
-                        } else {
-                            outputBuffer = mImpl.getOutputBuffers()[indexOfOutputBuffer];
-                        }
-                        if (null == outputBuffer) {
-                            continue;
-                        }
-                        outputBuffer.position(mBufferInfo.offset);
-                        outputBuffer.limit(mBufferInfo.offset + mBufferInfo.size);
-                        // 记录时间戳, 用于 Muxer 时和音频同步
-                        if (mVideoPts == 0) {
-                            mVideoPts = mBufferInfo.presentationTimeUs;
-                        }
-                        mBufferInfo.presentationTimeUs -= mVideoPts;
-                        // 回调 onAudioEncoded
-                        mContext.callback.onVideoEncoded(outputBuffer, mBufferInfo);
-                        // 3.2 释放指定位置的输出缓冲流
-                        mImpl.releaseOutputBuffer(indexOfOutputBuffer, false);
-                        indexOfOutputBuffer = mImpl.dequeueOutputBuffer(mBufferInfo, 0);
+                    outputBuffer = mImpl.getOutputBuffers()[indexOfOutputBuffer];
+                }
+                boolean isEndOfStream = (mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                if (outputBuffer != null && mBufferInfo.size > 0) {
+                    outputBuffer.position(mBufferInfo.offset);
+                    outputBuffer.limit(mBufferInfo.offset + mBufferInfo.size);
+                    // 记录时间戳, 用于 Muxer 时和音频同步
+                    if (mVideoPts == 0) {
+                        mVideoPts = mBufferInfo.presentationTimeUs;
                     }
+                    mBufferInfo.presentationTimeUs -= mVideoPts;
+                    // 回调 onVideoEncoded
+                    mContext.callback.onVideoEncoded(outputBuffer, mBufferInfo);
+                }
+                // 释放指定位置的输出缓冲流
+                mImpl.releaseOutputBuffer(indexOfOutputBuffer, false);
+                if (isEndOfStream) {
+                    break;
                 }
-            }
-            try {
-                mImpl.flush();
-            } catch (Exception e) {
-                Log.w(TAG, e.getMessage(), e);
             }
             try {
                 mImpl.stop();
@@ -2,6 +2,7 @@ package com.sharry.lib.media.recorder;
 
 import android.opengl.GLES20;
 
+import com.sharry.lib.opengles.GlUtil;
 import com.sharry.lib.opengles.ITextureRenderer;
 
 import java.nio.ByteBuffer;
@@ -60,9 +61,13 @@ public class H264Render implements ITextureRenderer {
         mFragmentBuffer = createBuffer(mFragmentCoordinate);
     }
 
+    void setTextureId(int textureId) {
+        mTextureId = textureId;
+    }
+
     @Override
     public void onEGLContextCreated() {
-        mProgram = createProgram(vertexSource, fragmentSource);
+        mProgram = GlUtil.obtainProgram(vertexSource, fragmentSource);
         // 获取坐标
         vPosition = GLES20.glGetAttribLocation(mProgram, "v_Position");
         fPosition = GLES20.glGetAttribLocation(mProgram, "f_Position");
@@ -118,53 +123,4 @@ public class H264Render implements ITextureRenderer {
         return buffer;
     }
 
-    private int createProgram(String vertexSource, String fragmentSource) {
-        // 分别加载创建着色器
-        int vertexShaderId = compileShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        int fragmentShaderId = compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        if (vertexShaderId != 0 && fragmentShaderId != 0) {
-            // 创建 OpenGL 程序 ID
-            int programId = GLES20.glCreateProgram();
-            if (programId == 0) {
-                return 0;
-            }
-            // 链接上 顶点着色器
-            GLES20.glAttachShader(programId, vertexShaderId);
-            // 链接上 片段着色器
-            GLES20.glAttachShader(programId, fragmentShaderId);
-            // 链接 OpenGL 程序
-            GLES20.glLinkProgram(programId);
-            // 验证链接结果是否失败
-            int[] status = new int[1];
-            GLES20.glGetProgramiv(programId, GLES20.GL_LINK_STATUS, status, 0);
-            if (status[0] != GLES20.GL_TRUE) {
-                // 失败后删除这个 OpenGL 程序
-                GLES20.glDeleteProgram(programId);
-                return 0;
-            }
-            return programId;
-        }
-        return 0;
-    }
-
-    private int compileShader(int shaderType, String source) {
-        // 创建着色器 ID
-        int shaderId = GLES20.glCreateShader(shaderType);
-        if (shaderId != 0) {
-            // 1. 将着色器 ID 和着色器程序内容关联
-            GLES20.glShaderSource(shaderId, source);
-            // 2. 编译着色器
-            GLES20.glCompileShader(shaderId);
-            // 3. 验证编译结果
-            int[] status = new int[1];
-            GLES20.glGetShaderiv(shaderId, GLES20.GL_COMPILE_STATUS, status, 0);
-            if (status[0] != GLES20.GL_TRUE) {
-                // 编译失败删除这个着色器 id
-                GLES20.glDeleteShader(shaderId);
-                return 0;
-            }
-        }
-        return shaderId;
-    }
-
 }
@@ -4,7 +4,6 @@ import android.media.MediaCodec;
 import android.media.MediaFormat;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 
 import java.io.FileDescriptor;
 import java.nio.ByteBuffer;
@@ -25,8 +24,12 @@ public interface IAudioEncoder {
 
     /**
      * 执行编码
+     *
+     * @param pcm    PCM 数据所在的缓冲, 调用期间有效
+     * @param offset 数据在 pcm 中的起始位置
+     * @param length 数据的字节数
      */
-    void encode(@Nullable byte[] inputBytes) throws Throwable;
+    void encode(@NonNull ByteBuffer pcm, int offset, int length) throws Throwable;
 
     /**
      * 停止编码
@@ -58,15 +61,17 @@ public interface IAudioEncoder {
         final int perSampleSize;                        // 每个采样点的大小
         final boolean isJustEncode;                     // 只进行编码不写入文件
         final FileDescriptor outputFd;                        // 音频输出的文件
+        final int fileSyncPolicy;                       // 写入文件时的同步策略
         final IAudioEncoder.Callback callback;          // 视频录制的回调
 
         public Context(int sampleRate, int channelCount, int perSampleSize, boolean isJustEncode,
-                       FileDescriptor outputFd, Callback callback) {
+                       FileDescriptor outputFd, int fileSyncPolicy, Callback callback) {
             this.sampleRate = sampleRate;
             this.channelCount = channelCount;
             this.perSampleSize = perSampleSize;
             this.isJustEncode = isJustEncode;
             this.outputFd = outputFd;
+            this.fileSyncPolicy = fileSyncPolicy;
             this.callback = callback;
         }
     }
@@ -6,6 +6,8 @@ import android.opengl.EGLContext;
 
 import androidx.annotation.NonNull;
 
+import com.sharry.lib.camera.IPreviewer;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -53,15 +55,17 @@ public interface IVideoEncoder {
         final int frameRate;                            // 录制的帧率
         final int textureId;                            // Camera 的纹理 ID
         final EGLContext eglContext;                    // Camera 的 GL 上下文
+        final IPreviewer previewer;                     // Camera 的预览器, 用于驱动帧的编码
         final IVideoEncoder.Callback callback;          // 视频录制的回调
 
         public Context(int frameWidth, int frameHeight, int frameRate, int textureId,
-                       EGLContext eglContext, Callback callback) {
+                       EGLContext eglContext, IPreviewer previewer, Callback callback) {
             this.frameWidth = frameWidth;
             this.frameHeight = frameHeight;
             this.frameRate = frameRate;
             this.textureId = textureId;
             this.eglContext = eglContext;
+            this.previewer = previewer;
             this.callback = callback;
         }
     }
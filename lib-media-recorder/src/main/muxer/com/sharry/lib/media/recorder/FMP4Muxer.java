@@ -0,0 +1,183 @@
+package com.sharry.lib.media.recorder;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 分段 MP4 音视频封装器
+ * <p>
+ * 与 {@link MPEG4Muxer} 不同, 不依赖 MediaMuxer 在结束时写入 moov, 录制中途崩溃或被杀时已写入的分段仍可播放
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+class FMP4Muxer implements IMuxer {
+
+    private static final String TAG = FMP4Muxer.class.getSimpleName();
+
+    private static final int NO_INDEX = -1;
+
+    /**
+     * 每个分段的时长
+     */
+    private static final long FRAGMENT_DURATION_US = 2 * 1000 * 1000;
+
+    /**
+     * Android Q 上持有 pfd, 避免其被回收时关闭仍在写入的文件描述符
+     */
+    private ParcelFileDescriptor mFileDescriptor;
+    private FileOutputStream mOutputStream;
+    private FragmentedMp4Writer mWriter;
+    private int mVideoTrackIndex = NO_INDEX;
+    private int mAudioTrackIndex = NO_INDEX;
+    private boolean isMixerStart;
+
+    @Override
+    @TargetApi(29)
+    public void prepare(Context context, Uri uri) throws Throwable {
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "w");
+        if (pfd == null) {
+            throw new IOException("Open file descriptor failed: " + uri);
+        }
+        mFileDescriptor = pfd;
+        prepare(new FileOutputStream(pfd.getFileDescriptor()));
+    }
+
+    @Override
+    public void prepare(Context context, File file) throws Throwable {
+        prepare(new FileOutputStream(file));
+    }
+
+    private void prepare(FileOutputStream outputStream) {
+        mOutputStream = outputStream;
+        mWriter = new FragmentedMp4Writer(outputStream.getChannel(), FRAGMENT_DURATION_US);
+    }
+
+    @Override
+    public void addVideoTrack(@NonNull MediaFormat videoFormat) {
+        if (isMixerStart || mVideoTrackIndex != NO_INDEX) {
+            Log.i(TAG, "Video track already added.");
+            return;
+        }
+        mVideoTrackIndex = mWriter.addVideoTrack(
+                videoFormat.getInteger(MediaFormat.KEY_WIDTH),
+                videoFormat.getInteger(MediaFormat.KEY_HEIGHT),
+                stripStartCode(videoFormat.getByteBuffer("csd-0")),
+                stripStartCode(videoFormat.getByteBuffer("csd-1"))
+        );
+        tryToLaunchMuxer();
+    }
+
+    @Override
+    public void addAudioTrack(@NonNull MediaFormat audioFormat) {
+        if (isMixerStart || mAudioTrackIndex != NO_INDEX) {
+            Log.i(TAG, "Audio track already added.");
+            return;
+        }
+        mAudioTrackIndex = mWriter.addAudioTrack(
+                audioFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                audioFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                toArray(audioFormat.getByteBuffer("csd-0"))
+        );
+        tryToLaunchMuxer();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void execute(@NonNull Parcel data) throws Throwable {
+        if (!isMixerStart) {
+            throw new IllegalStateException("Mixer not launched.");
+        }
+        int trackIndex = data.trackType == Parcel.TRACK_VIDEO ? mVideoTrackIndex : mAudioTrackIndex;
+        boolean isKeyFrame = (data.bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+        mWriter.writeSample(trackIndex, data.byteBuff, data.bufferInfo.presentationTimeUs, isKeyFrame);
+    }
+
+    @Override
+    public void stop() {
+        try {
+            if (mWriter != null) {
+                mWriter.finish();
+            }
+        } catch (Throwable e) {
+            Log.w(TAG, e.getMessage(), e);
+        }
+        try {
+            if (mOutputStream != null) {
+                mOutputStream.close();
+            }
+        } catch (Throwable e) {
+            Log.w(TAG, e.getMessage(), e);
+        }
+        try {
+            if (mFileDescriptor != null) {
+                mFileDescriptor.close();
+            }
+        } catch (Throwable e) {
+            Log.w(TAG, e.getMessage(), e);
+        }
+        mAudioTrackIndex = NO_INDEX;
+        mVideoTrackIndex = NO_INDEX;
+        isMixerStart = false;
+        mWriter = null;
+        mOutputStream = null;
+        mFileDescriptor = null;
+    }
+
+    /**
+     * 两个轨道都添加后写入文件头
+     * <p>
+     * 写入失败时抛出异常, 由 {@link MuxScheduler} 回调封装失败
+     */
+    private void tryToLaunchMuxer() {
+        if (mAudioTrackIndex == NO_INDEX || mVideoTrackIndex == NO_INDEX) {
+            Log.i(TAG, "Mixer waiting all track added.");
+            return;
+        }
+        try {
+            mWriter.start();
+            isMixerStart = true;
+            Log.i(TAG, "Mixer launch successful.");
+        } catch (IOException e) {
+            throw new IllegalStateException("Mixer launch failed.", e);
+        }
+    }
+
+    /**
+     * MediaCodec 输出的 csd-0 与 csd-1 以 Annex-B 起始码开头
+     */
+    private static byte[] stripStartCode(ByteBuffer csd) {
+        byte[] bytes = toArray(csd);
+        int offset = 0;
+        if (bytes.length > 4 && bytes[0] == 0 && bytes[1] == 0 && bytes[2] == 0 && bytes[3] == 1) {
+            offset = 4;
+        } else if (bytes.length > 3 && bytes[0] == 0 && bytes[1] == 0 && bytes[2] == 1) {
+            offset = 3;
+        }
+        byte[] result = new byte[bytes.length - offset];
+        System.arraycopy(bytes, offset, result, 0, result.length);
+        return result;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        ByteBuffer source = buffer.duplicate();
+        source.rewind();
+        byte[] bytes = new byte[source.remaining()];
+        source.get(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,655 @@
+package com.sharry.lib.media.recorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分段 MP4(fMP4) 的写入器
+ * <p>
+ * 1. 添加轨道后先写入 ftyp 和不含样本索引的 moov, 之后每隔一段时间写入一个 moof + mdat 分段
+ * 2. 已写入的分段是完整可播放的, 录制中途进程被杀也只会丢失最后一个未写入的分段
+ * 3. 样本数据在每个轨道的 direct buffer 中累积, 分段时通过 {@link FileChannel} 一次写入, 稳定后不再分配内存
+ * 4. 支持 H.264(Annex-B 格式的输入, 写入时转换为长度前缀格式)与 AAC 轨道
+ * <p>
+ * 不依赖 Android 平台的类, 可以直接在 JVM 上运行
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+final class FragmentedMp4Writer {
+
+    private static final int VIDEO_TIMESCALE = 90000;
+
+    /**
+     * AAC 每帧固定 1024 个采样
+     */
+    private static final int AAC_FRAME_SAMPLES = 1024;
+
+    /**
+     * 关键帧与非关键帧在 trun 中的 sample_flags
+     */
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    /**
+     * tfhd: default-base-is-moof
+     * trun: data-offset, sample-duration, sample-size, sample-flags
+     */
+    private static final int TFHD_FLAGS = 0x020000;
+    private static final int TRUN_FLAGS = 0x000001 | 0x000100 | 0x000200 | 0x000400;
+
+    private static final int[] MATRIX = {0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000};
+
+    private final FileChannel mChannel;
+    private final long mFragmentDurationUs;
+    private final List<Track> mTracks = new ArrayList<>();
+    private ByteBuffer mHeader = ByteBuffer.allocateDirect(4 * 1024);
+    private ByteBuffer[] mGatherBuffers;
+    private int mSequenceNumber;
+    private long mFragmentStartUs = -1;
+    private boolean mIsStarted;
+
+    /**
+     * @param channel            输出的文件, 由调用方关闭
+     * @param fragmentDurationUs 每个分段的时长, 有视频轨道时在之后的第一个关键帧处分段
+     */
+    FragmentedMp4Writer(FileChannel channel, long fragmentDurationUs) {
+        mChannel = channel;
+        mFragmentDurationUs = fragmentDurationUs;
+    }
+
+    /**
+     * 添加 H.264 视频轨道
+     *
+     * @param sps 不含起始码的 SPS
+     * @param pps 不含起始码的 PPS
+     * @return 轨道的索引
+     */
+    int addVideoTrack(int width, int height, byte[] sps, byte[] pps) {
+        checkNotStarted();
+        Track track = new Track(mTracks.size() + 1, true, VIDEO_TIMESCALE);
+        track.width = width;
+        track.height = height;
+        track.sps = sps;
+        track.pps = pps;
+        mTracks.add(track);
+        return mTracks.size() - 1;
+    }
+
+    /**
+     * 添加 AAC 音频轨道
+     *
+     * @param audioSpecificConfig AudioSpecificConfig, 即 MediaFormat 中的 csd-0
+     * @return 轨道的索引
+     */
+    int addAudioTrack(int sampleRate, int channelCount, byte[] audioSpecificConfig) {
+        checkNotStarted();
+        Track track = new Track(mTracks.size() + 1, false, sampleRate);
+        track.channelCount = channelCount;
+        track.audioSpecificConfig = audioSpecificConfig;
+        mTracks.add(track);
+        return mTracks.size() - 1;
+    }
+
+    /**
+     * 写入 ftyp 与 moov, 之后才能写入样本
+     */
+    void start() throws IOException {
+        checkNotStarted();
+        if (mTracks.isEmpty()) {
+            throw new IllegalStateException("Please add track first.");
+        }
+        mGatherBuffers = new ByteBuffer[mTracks.size() + 1];
+        mHeader.clear();
+        writeFtyp();
+        writeMoov();
+        mHeader.flip();
+        writeFully(mHeader);
+        mIsStarted = true;
+    }
+
+    /**
+     * 写入一个样本
+     *
+     * @param data               从 position 到 limit 为样本数据, 调用后 position 移动到 limit
+     * @param presentationTimeUs 样本的时间戳
+     * @param isKeyFrame         是否为关键帧
+     */
+    void writeSample(int trackIndex, ByteBuffer data, long presentationTimeUs, boolean isKeyFrame)
+            throws IOException {
+        if (!mIsStarted) {
+            throw new IllegalStateException("Please invoke start first.");
+        }
+        Track track = mTracks.get(trackIndex);
+        boolean canCut = track.isVideo ? isKeyFrame : !hasVideoTrack();
+        if (canCut && mFragmentStartUs >= 0
+                && presentationTimeUs - mFragmentStartUs >= mFragmentDurationUs) {
+            writeFragment(track, toTimescale(presentationTimeUs, track.timescale));
+        }
+        if (mFragmentStartUs < 0) {
+            mFragmentStartUs = presentationTimeUs;
+        }
+        track.append(data, toTimescale(presentationTimeUs, track.timescale), isKeyFrame);
+    }
+
+    /**
+     * 写入最后一个分段
+     */
+    void finish() throws IOException {
+        if (mIsStarted) {
+            writeFragment(null, 0);
+            mIsStarted = false;
+        }
+    }
+
+    // //////////////////////////////////// 分段 ////////////////////////////////////
+
+    /**
+     * 将已累积的样本写为一个分段
+     *
+     * @param nextTrack 触发分段的轨道, 用它的下一个样本时间戳计算最后一个样本的时长
+     * @param nextTime  下一个样本的时间戳, 以轨道的 timescale 为单位
+     */
+    private void writeFragment(Track nextTrack, long nextTime) throws IOException {
+        boolean isEmpty = true;
+        for (Track track : mTracks) {
+            isEmpty &= track.sampleCount == 0;
+        }
+        if (isEmpty) {
+            return;
+        }
+        mHeader.clear();
+        int moofStart = beginBox("moof");
+        // mfhd
+        int mfhd = beginFullBox("mfhd", 0, 0);
+        mHeader.putInt(++mSequenceNumber);
+        endBox(mfhd);
+        for (Track track : mTracks) {
+            if (track.sampleCount == 0) {
+                continue;
+            }
+            track.computeDurations(track == nextTrack ? nextTime : -1);
+            int traf = beginBox("traf");
+            // tfhd
+            int tfhd = beginFullBox("tfhd", 0, TFHD_FLAGS);
+            mHeader.putInt(track.id);
+            endBox(tfhd);
+            // tfdt, 以首个样本的时间戳为准, 每个分段都会重新对齐
+            int tfdt = beginFullBox("tfdt", 1, 0);
+            mHeader.putLong(Math.max(0, track.times[0]));
+            endBox(tfdt);
+            // trun
+            int trun = beginFullBox("trun", 0, TRUN_FLAGS);
+            mHeader.putInt(track.sampleCount);
+            ensureHeaderCapacity(4 + 12 * track.sampleCount + 1024);
+            track.dataOffsetPosition = mHeader.position();
+            mHeader.putInt(0);
+            for (int i = 0; i < track.sampleCount; i++) {
+                mHeader.putInt(track.durations[i]);
+                mHeader.putInt(track.sizes[i]);
+                mHeader.putInt(track.flags[i]);
+            }
+            endBox(trun);
+            endBox(traf);
+        }
+        endBox(moofStart);
+        int moofSize = mHeader.position() - moofStart;
+        // mdat
+        long mdatSize = 8;
+        int bufferCount = 1;
+        for (Track track : mTracks) {
+            if (track.sampleCount == 0) {
+                continue;
+            }
+            // data_offset 相对于 moof 的起始位置
+            mHeader.putInt(track.dataOffsetPosition, (int) (moofSize + mdatSize));
+            mdatSize += track.payload.position();
+            track.payload.flip();
+            mGatherBuffers[bufferCount++] = track.payload;
+        }
+        mHeader.putInt((int) mdatSize);
+        putAscii("mdat");
+        mHeader.flip();
+        mGatherBuffers[0] = mHeader;
+        writeFully(mGatherBuffers, bufferCount, moofSize + mdatSize);
+        for (Track track : mTracks) {
+            track.reset();
+        }
+        for (int i = 0; i < mGatherBuffers.length; i++) {
+            mGatherBuffers[i] = null;
+        }
+        mFragmentStartUs = -1;
+    }
+
+    // //////////////////////////////////// 初始化段 ////////////////////////////////////
+
+    private void writeFtyp() {
+        int ftyp = beginBox("ftyp");
+        putAscii("isom");
+        mHeader.putInt(0x200);
+        putAscii("isom");
+        putAscii("iso6");
+        putAscii("iso2");
+        putAscii("avc1");
+        putAscii("mp41");
+        endBox(ftyp);
+    }
+
+    private void writeMoov() {
+        int moov = beginBox("moov");
+        // mvhd
+        int mvhd = beginFullBox("mvhd", 0, 0);
+        mHeader.putInt(0);                      // creation_time
+        mHeader.putInt(0);                      // modification_time
+        mHeader.putInt(1000);                   // timescale
+        mHeader.putInt(0);                      // duration
+        mHeader.putInt(0x00010000);             // rate
+        mHeader.putShort((short) 0x0100);       // volume
+        putZeros(2 + 8);                        // reserved
+        putMatrix();
+        putZeros(6 * 4);                        // pre_defined
+        mHeader.putInt(mTracks.size() + 1);     // next_track_ID
+        endBox(mvhd);
+        for (Track track : mTracks) {
+            writeTrak(track);
+        }
+        // mvex
+        int mvex = beginBox("mvex");
+        for (Track track : mTracks) {
+            int trex = beginFullBox("trex", 0, 0);
+            mHeader.putInt(track.id);
+            mHeader.putInt(1);                  // default_sample_description_index
+            mHeader.putInt(0);                  // default_sample_duration
+            mHeader.putInt(0);                  // default_sample_size
+            mHeader.putInt(0);                  // default_sample_flags
+            endBox(trex);
+        }
+        endBox(mvex);
+        endBox(moov);
+    }
+
+    private void writeTrak(Track track) {
+        int trak = beginBox("trak");
+        // tkhd, track_enabled | track_in_movie
+        int tkhd = beginFullBox("tkhd", 0, 0x000003);
+        mHeader.putInt(0);                      // creation_time
+        mHeader.putInt(0);                      // modification_time
+        mHeader.putInt(track.id);
+        mHeader.putInt(0);                      // reserved
+        mHeader.putInt(0);                      // duration
+        putZeros(8);                            // reserved
+        mHeader.putShort((short) 0);            // layer
+        mHeader.putShort((short) 0);            // alternate_group
+        mHeader.putShort((short) (track.isVideo ? 0 : 0x0100));
+        putZeros(2);                            // reserved
+        putMatrix();
+        mHeader.putInt(track.width << 16);
+        mHeader.putInt(track.height << 16);
+        endBox(tkhd);
+        int mdia = beginBox("mdia");
+        // mdhd
+        int mdhd = beginFullBox("mdhd", 0, 0);
+        mHeader.putInt(0);                      // creation_time
+        mHeader.putInt(0);                      // modification_time
+        mHeader.putInt(track.timescale);
+        mHeader.putInt(0);                      // duration
+        mHeader.putShort((short) 0x55C4);       // language: und
+        mHeader.putShort((short) 0);            // pre_defined
+        endBox(mdhd);
+        // hdlr
+        int hdlr = beginFullBox("hdlr", 0, 0);
+        mHeader.putInt(0);                      // pre_defined
+        putAscii(track.isVideo ? "vide" : "soun");
+        putZeros(3 * 4);                        // reserved
+        putAscii(track.isVideo ? "VideoHandler" : "SoundHandler");
+        mHeader.put((byte) 0);
+        endBox(hdlr);
+        int minf = beginBox("minf");
+        if (track.isVideo) {
+            int vmhd = beginFullBox("vmhd", 0, 1);
+            putZeros(2 + 3 * 2);                // graphicsmode, opcolor
+            endBox(vmhd);
+        } else {
+            int smhd = beginFullBox("smhd", 0, 0);
+            putZeros(2 + 2);                    // balance, reserved
+            endBox(smhd);
+        }
+        // dinf, 数据在同一个文件中
+        int dinf = beginBox("dinf");
+        int dref = beginFullBox("dref", 0, 0);
+        mHeader.putInt(1);
+        int url = beginFullBox("url ", 0, 1);
+        endBox(url);
+        endBox(dref);
+        endBox(dinf);
+        // stbl, 样本索引都在分段中, 这里全部为空
+        int stbl = beginBox("stbl");
+        int stsd = beginFullBox("stsd", 0, 0);
+        mHeader.putInt(1);
+        if (track.isVideo) {
+            writeAvc1(track);
+        } else {
+            writeMp4a(track);
+        }
+        endBox(stsd);
+        for (String type : new String[]{"stts", "stsc", "stco"}) {
+            int box = beginFullBox(type, 0, 0);
+            mHeader.putInt(0);
+            endBox(box);
+        }
+        int stsz = beginFullBox("stsz", 0, 0);
+        mHeader.putInt(0);                      // sample_size
+        mHeader.putInt(0);                      // sample_count
+        endBox(stsz);
+        endBox(stbl);
+        endBox(minf);
+        endBox(mdia);
+        endBox(trak);
+    }
+
+    private void writeAvc1(Track track) {
+        int avc1 = beginBox("avc1");
+        putZeros(6);                            // reserved
+        mHeader.putShort((short) 1);            // data_reference_index
+        putZeros(2 + 2 + 3 * 4);                // pre_defined, reserved
+        mHeader.putShort((short) track.width);
+        mHeader.putShort((short) track.height);
+        mHeader.putInt(0x00480000);             // horizresolution
+        mHeader.putInt(0x00480000);             // vertresolution
+        mHeader.putInt(0);                      // reserved
+        mHeader.putShort((short) 1);            // frame_count
+        putZeros(32);                           // compressorname
+        mHeader.putShort((short) 0x0018);       // depth
+        mHeader.putShort((short) -1);           // pre_defined
+        // avcC
+        int avcC = beginBox("avcC");
+        mHeader.put((byte) 1);                  // configurationVersion
+        mHeader.put(track.sps[1]);              // AVCProfileIndication
+        mHeader.put(track.sps[2]);              // profile_compatibility
+        mHeader.put(track.sps[3]);              // AVCLevelIndication
+        mHeader.put((byte) 0xFF);               // lengthSizeMinusOne = 3
+        mHeader.put((byte) 0xE1);               // numOfSequenceParameterSets = 1
+        mHeader.putShort((short) track.sps.length);
+        mHeader.put(track.sps);
+        mHeader.put((byte) 1);                  // numOfPictureParameterSets
+        mHeader.putShort((short) track.pps.length);
+        mHeader.put(track.pps);
+        endBox(avcC);
+        endBox(avc1);
+    }
+
+    private void writeMp4a(Track track) {
+        int mp4a = beginBox("mp4a");
+        putZeros(6);                            // reserved
+        mHeader.putShort((short) 1);            // data_reference_index
+        putZeros(8);                            // reserved
+        mHeader.putShort((short) track.channelCount);
+        mHeader.putShort((short) 16);           // samplesize
+        putZeros(2 + 2);                        // pre_defined, reserved
+        mHeader.putInt(track.timescale << 16);  // samplerate
+        // esds
+        int esds = beginFullBox("esds", 0, 0);
+        byte[] asc = track.audioSpecificConfig;
+        int decoderSpecificInfoSize = 2 + asc.length;
+        int decoderConfigSize = 2 + 13 + decoderSpecificInfoSize;
+        int slConfigSize = 2 + 1;
+        // ES_Descriptor
+        mHeader.put((byte) 0x03);
+        mHeader.put((byte) (3 + decoderConfigSize + slConfigSize));
+        mHeader.putShort((short) 0);            // ES_ID
+        mHeader.put((byte) 0);                  // flags
+        // DecoderConfigDescriptor
+        mHeader.put((byte) 0x04);
+        mHeader.put((byte) (13 + decoderSpecificInfoSize));
+        mHeader.put((byte) 0x40);               // objectTypeIndication: AAC
+        mHeader.put((byte) 0x15);               // streamType: audio
+        putZeros(3);                            // bufferSizeDB
+        mHeader.putInt(0);                      // maxBitrate
+        mHeader.putInt(0);                      // avgBitrate
+        // DecoderSpecificInfo
+        mHeader.put((byte) 0x05);
+        mHeader.put((byte) asc.length);
+        mHeader.put(asc);
+        // SLConfigDescriptor
+        mHeader.put((byte) 0x06);
+        mHeader.put((byte) 1);
+        mHeader.put((byte) 0x02);
+        endBox(esds);
+        endBox(mp4a);
+    }
+
+    // //////////////////////////////////// 工具方法 ////////////////////////////////////
+
+    private int beginBox(String type) {
+        ensureHeaderCapacity(1024);
+        int start = mHeader.position();
+        mHeader.putInt(0);
+        putAscii(type);
+        return start;
+    }
+
+    private int beginFullBox(String type, int version, int flags) {
+        int start = beginBox(type);
+        mHeader.putInt((version << 24) | (flags & 0xFFFFFF));
+        return start;
+    }
+
+    private void endBox(int start) {
+        mHeader.putInt(start, mHeader.position() - start);
+    }
+
+    private void putAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            mHeader.put((byte) text.charAt(i));
+        }
+    }
+
+    private void putZeros(int count) {
+        for (int i = 0; i < count; i++) {
+            mHeader.put((byte) 0);
+        }
+    }
+
+    private void putMatrix() {
+        for (int value : MATRIX) {
+            mHeader.putInt(value);
+        }
+    }
+
+    /**
+     * trun 中每个样本占用 12 字节, 样本较多时需要扩容
+     */
+    private void ensureHeaderCapacity(int required) {
+        if (mHeader.remaining() >= required) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocateDirect(
+                Math.max(mHeader.capacity() * 2, mHeader.position() + required));
+        mHeader.flip();
+        larger.put(mHeader);
+        mHeader = larger;
+    }
+
+    private boolean hasVideoTrack() {
+        for (Track track : mTracks) {
+            if (track.isVideo) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void checkNotStarted() {
+        if (mIsStarted) {
+            throw new IllegalStateException("Writer already started.");
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private void writeFully(ByteBuffer[] buffers, int count, long total) throws IOException {
+        long written = 0;
+        while (written < total) {
+            written += mChannel.write(buffers, 0, count);
+        }
+    }
+
+    private static long toTimescale(long timeUs, int timescale) {
+        return timeUs * timescale / 1000000L;
+    }
+
+
+    /**
+     * 轨道的描述信息, 以及当前分段中累积的样本
+     */
+    private static final class Track {
+
+        final int id;
+        final boolean isVideo;
+        final int timescale;
+        int width;
+        int height;
+        byte[] sps;
+        byte[] pps;
+        int channelCount;
+        byte[] audioSpecificConfig;
+
+        /**
+         * 当前分段的样本, 写入后复用
+         */
+        ByteBuffer payload = ByteBuffer.allocateDirect(256 * 1024);
+        int sampleCount;
+        int[] sizes = new int[64];
+        int[] durations = new int[64];
+        int[] flags = new int[64];
+        long[] times = new long[64];
+        int lastDuration;
+        int dataOffsetPosition;
+
+        Track(int id, boolean isVideo, int timescale) {
+            this.id = id;
+            this.isVideo = isVideo;
+            this.timescale = timescale;
+            this.lastDuration = isVideo ? timescale / 30 : AAC_FRAME_SAMPLES;
+        }
+
+        void append(ByteBuffer data, long time, boolean isKeyFrame) {
+            if (sampleCount == sizes.length) {
+                int length = sizes.length * 2;
+                sizes = copyOf(sizes, length);
+                durations = copyOf(durations, length);
+                flags = copyOf(flags, length);
+                long[] largerTimes = new long[length];
+                System.arraycopy(times, 0, largerTimes, 0, sampleCount);
+                times = largerTimes;
+            }
+            int size = data.remaining();
+            // Annex-B 转为长度前缀时, 每个 3 字节起始码变为 4 字节长度
+            ensurePayloadCapacity(isVideo ? size + size / 2 + 8 : size);
+            int start = payload.position();
+            if (isVideo) {
+                appendAnnexB(data, payload);
+            } else {
+                payload.put(data);
+            }
+            sizes[sampleCount] = payload.position() - start;
+            flags[sampleCount] = isVideo && !isKeyFrame ? SAMPLE_FLAGS_NON_SYNC : SAMPLE_FLAGS_SYNC;
+            times[sampleCount] = time;
+            sampleCount++;
+        }
+
+        /**
+         * 根据相邻样本的时间戳计算时长
+         *
+         * @param nextTime 下一个样本的时间戳, 未知时为 -1, 使用上一个样本的时长
+         */
+        void computeDurations(long nextTime) {
+            for (int i = 0; i < sampleCount - 1; i++) {
+                durations[i] = (int) Math.max(1, times[i + 1] - times[i]);
+            }
+            if (sampleCount > 1) {
+                lastDuration = durations[sampleCount - 2];
+            }
+            if (!isVideo) {
+                // AAC 每帧的时长固定
+                lastDuration = AAC_FRAME_SAMPLES;
+            }
+            durations[sampleCount - 1] = nextTime >= 0
+                    ? (int) Math.max(1, nextTime - times[sampleCount - 1]) : lastDuration;
+        }
+
+        void reset() {
+            payload.clear();
+            sampleCount = 0;
+        }
+
+        private void ensurePayloadCapacity(int required) {
+            if (payload.remaining() >= required) {
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocateDirect(
+                    Math.max(payload.capacity() * 2, payload.position() + required));
+            payload.flip();
+            larger.put(payload);
+            payload = larger;
+        }
+
+    }
+
+    private static int[] copyOf(int[] src, int length) {
+        int[] dst = new int[length];
+        System.arraycopy(src, 0, dst, 0, Math.min(src.length, length));
+        return dst;
+    }
+
+    /**
+     * 将 Annex-B 格式的 NAL 单元转为 4 字节长度前缀的格式
+     * <p>
+     * 数据不以起始码开头时, 视为单个 NAL 单元
+     */
+    private static void appendAnnexB(ByteBuffer src, ByteBuffer dst) {
+        int end = src.limit();
+        int nalStart = findStartCode(src, src.position(), end);
+        nalStart = nalStart < 0 ? src.position() : nalStart + 3;
+        while (nalStart < end) {
+            int next = findStartCode(src, nalStart, end);
+            int nalEnd = next < 0 ? end : next;
+            // 去掉 4 字节起始码前多出的 0 以及 trailing_zero_8bits
+            while (nalEnd > nalStart && src.get(nalEnd - 1) == 0) {
+                nalEnd--;
+            }
+            if (nalEnd > nalStart) {
+                dst.putInt(nalEnd - nalStart);
+                src.limit(nalEnd).position(nalStart);
+                dst.put(src);
+                src.limit(end);
+            }
+            if (next < 0) {
+                break;
+            }
+            nalStart = next + 3;
+        }
+        src.position(end);
+    }
+
+    /**
+     * @return 3 字节起始码 0x000001 的位置, 没有时返回 -1
+     */
+    private static int findStartCode(ByteBuffer buffer, int from, int end) {
+        for (int i = from; i + 2 < end; i++) {
+            if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
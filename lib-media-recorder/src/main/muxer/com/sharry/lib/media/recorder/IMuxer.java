@@ -9,6 +9,7 @@ import android.net.Uri;
 import androidx.annotation.IntDef;
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -23,6 +24,8 @@ public interface IMuxer {
 
     IMuxer MPEG_4 = new MPEG4Muxer();
 
+    IMuxer FRAGMENTED_MPEG_4 = new FMP4Muxer();
+
 
     /**
      * 编码前的准备工作
@@ -44,21 +47,23 @@ public interface IMuxer {
     /**
      * 添加视频轨
      */
-    @MainThread
+    @WorkerThread
     void addVideoTrack(@NonNull MediaFormat videoFormat);
 
     /**
      * 添加音轨
      */
-    @MainThread
+    @WorkerThread
     void addAudioTrack(@NonNull MediaFormat audioFormat);
 
     /**
      * 执行编码
+     * <p>
+     * 由 {@link MuxScheduler} 在唯一的封装线程中按时间戳顺序调用
      *
      * @param data 原生音频的数据源
      */
-    @MainThread
+    @WorkerThread
     void execute(@NonNull Parcel data) throws Throwable;
 
     /**
@@ -69,8 +74,10 @@ public interface IMuxer {
 
     /**
      * 混音器的元数据
+     * <p>
+     * 由 {@link SamplePool} 借出, 持有拷贝后的数据与帧信息, 写入后调用 {@link #recycle()} 归还
      */
-    class Parcel {
+    final class Parcel {
 
         static final int TRACK_VIDEO = 316;
         static final int TRACK_AUDIO = 748;
@@ -82,19 +89,38 @@ public interface IMuxer {
         @interface TrackType {
         }
 
-        static Parcel newInstance(@TrackType int trackType, ByteBuffer byteBuf,
-                                  MediaCodec.BufferInfo bufferInfo) {
-            return new Parcel(trackType, byteBuf, bufferInfo);
-        }
-
         int trackType;
-        ByteBuffer byteBuff;
-        MediaCodec.BufferInfo bufferInfo;
+        final ByteBuffer byteBuff;
+        final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+        private final SamplePool owner;
+
+        Parcel(SamplePool owner, int capacity) {
+            this.owner = owner;
+            this.byteBuff = ByteBuffer.allocateDirect(capacity);
+        }
 
-        private Parcel(@TrackType int trackType, ByteBuffer byteBuff, MediaCodec.BufferInfo bufferInfo) {
+        /**
+         * 拷贝数据帧, 不修改 data 的 position 和 limit
+         */
+        void copyFrom(@TrackType int trackType, ByteBuffer data, MediaCodec.BufferInfo info) {
             this.trackType = trackType;
-            this.byteBuff = byteBuff;
-            this.bufferInfo = bufferInfo;
+            int position = data.position();
+            int limit = data.limit();
+            data.limit(info.offset + info.size).position(info.offset);
+            byteBuff.clear();
+            byteBuff.put(data);
+            byteBuff.flip();
+            data.limit(limit).position(position);
+            bufferInfo.set(0, info.size, info.presentationTimeUs, info.flags);
+        }
+
+        /**
+         * 归还到所属的缓冲池, 之后不能再访问
+         */
+        void recycle() {
+            if (owner != null) {
+                owner.release(this);
+            }
         }
 
     }
@@ -5,11 +5,13 @@ import android.content.Context;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Mp4 音视频封装器
@@ -26,6 +28,11 @@ class MPEG4Muxer implements IMuxer {
 
     private MediaMuxer mImpl;
 
+    /**
+     * Android Q 上持有 pfd, 在 {@link #stop()} 中关闭, 避免分段录制时每段泄漏一个文件描述符
+     */
+    private ParcelFileDescriptor mFileDescriptor;
+
     /**
      * SVideoPlayer track index associated with this mixer
      * <p>
@@ -48,10 +55,21 @@ class MPEG4Muxer implements IMuxer {
     @Override
     @TargetApi(29)
     public void prepare(Context context, Uri uri) throws Throwable {
-        mImpl = new MediaMuxer(
-                context.getContentResolver().openFileDescriptor(uri, "w").getFileDescriptor(),
-                MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4
-        );
+        ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "w");
+        if (pfd == null) {
+            throw new IOException("Open file descriptor failed: " + uri);
+        }
+        mFileDescriptor = pfd;
+        try {
+            mImpl = new MediaMuxer(
+                    pfd.getFileDescriptor(),
+                    MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4
+            );
+        } catch (Throwable e) {
+            pfd.close();
+            mFileDescriptor = null;
+            throw e;
+        }
     }
 
     @Override
@@ -130,10 +148,18 @@ class MPEG4Muxer implements IMuxer {
         } catch (Throwable e) {
             Log.w(TAG, e.getMessage(), e);
         }
+        try {
+            if (mFileDescriptor != null) {
+                mFileDescriptor.close();
+            }
+        } catch (Throwable e) {
+            Log.w(TAG, e.getMessage(), e);
+        }
         mAudioTrackIndex = -1;
         mVideoTrackIndex = -1;
         isMixerStart = false;
         mImpl = null;
+        mFileDescriptor = null;
     }
 
     /**
@@ -0,0 +1,405 @@
+package com.sharry.lib.media.recorder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 音视频封装的调度器
+ * <p>
+ * 1. 编码线程回调的数据拷贝到 {@link SamplePool} 的缓冲中, 封装器启动前的数据不会被丢弃
+ * 2. 两个轨道的数据按时间戳交错写入, 某个轨道迟迟没有数据时, 最多等待 {@link #INTERLEAVE_WINDOW_US}
+ * 3. 添加轨道与写入数据都在唯一的封装线程中执行, {@link IMuxer} 不需要考虑线程安全
+ * 4. 开启分段后, 在满足时长或大小的下一个视频关键帧处停止当前封装器, 重新准备后继续写入, 编码器不受影响
+ * 5. 从预录制启动时, 封装线程先写完 {@link PreRollBuffer} 中的数据, 期间的实时数据排在其后, 编码线程不会被阻塞
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+final class MuxScheduler {
+
+    private static final String TAG = MuxScheduler.class.getSimpleName();
+
+    /**
+     * 交错写入时, 等待另一个轨道的最长时间跨度
+     */
+    private static final long INTERLEAVE_WINDOW_US = 500 * 1000;
+
+    /**
+     * 视频帧缓冲的容量与数量, 最多占用 16MB
+     */
+    private static final int VIDEO_BUFFER_CAPACITY = 512 * 1024;
+    private static final int VIDEO_BUFFER_COUNT = 32;
+
+    /**
+     * 音频帧缓冲的容量与数量, 最多占用 1MB
+     */
+    private static final int AUDIO_BUFFER_CAPACITY = 8 * 1024;
+    private static final int AUDIO_BUFFER_COUNT = 128;
+
+    private static final long NO_PTS = Long.MIN_VALUE;
+
+    private final IMuxer mMuxer;
+    private final Callback mCallback;
+    private final Object mLock = new Object();
+    private final SamplePool mVideoPool = new SamplePool(VIDEO_BUFFER_CAPACITY, VIDEO_BUFFER_COUNT);
+    private final SamplePool mAudioPool = new SamplePool(AUDIO_BUFFER_CAPACITY, AUDIO_BUFFER_COUNT);
+
+    /**
+     * 以下变量由 mLock 保护
+     */
+    private final ArrayDeque<IMuxer.Parcel> mVideoQueue = new ArrayDeque<>();
+    private final ArrayDeque<IMuxer.Parcel> mAudioQueue = new ArrayDeque<>();
+    private MediaFormat mVideoFormat;
+    private MediaFormat mAudioFormat;
+    private long mLastVideoPts = NO_PTS;
+    private long mLastAudioPts = NO_PTS;
+    private long mDroppedCount;
+    private boolean mIsStopping;
+
+    /**
+     * 分段策略与起始时间戳, 在 {@link #start()} 之前设置
+     */
+    private long mSegmentDurationUs;
+    private long mSegmentMaxBytes;
+    private long mStartTimeUs;
+
+    /**
+     * 以下变量仅在封装线程中访问
+     */
+    private boolean mIsTracksAdded;
+    private MediaFormat mAddedVideoFormat;
+    private MediaFormat mAddedAudioFormat;
+    private int mSegmentIndex;
+    private long mSegmentStartPts = NO_PTS;
+    private long mSegmentBytes;
+    private PreRollBuffer mPreRoll;
+    private IMuxer.Parcel mPreRollParcel;
+
+    private Thread mThread;
+
+    interface Callback {
+
+        /**
+         * 在封装线程中回调, 回调后不再写入数据
+         */
+        void onMuxFailed(@NonNull Throwable e);
+
+        /**
+         * 在封装线程中回调, 分段文件已经关闭
+         */
+        void onSegmentClosed(int segmentIndex);
+
+        /**
+         * 在封装线程中回调, 为新的分段创建输出并调用 {@link IMuxer#prepare}
+         */
+        void onPrepareSegment(@NonNull IMuxer muxer, int segmentIndex) throws Throwable;
+
+    }
+
+    MuxScheduler(@NonNull IMuxer muxer, @NonNull Callback callback) {
+        mMuxer = muxer;
+        mCallback = callback;
+    }
+
+    /**
+     * 设置分段策略, 满足任意一个条件后在下一个视频关键帧处分段
+     *
+     * @param segmentDurationUs 每个分段的时长, 0 表示不按时长分段
+     * @param segmentMaxBytes   每个分段的数据量, 0 表示不按大小分段
+     */
+    void setSegmentPolicy(long segmentDurationUs, long segmentMaxBytes) {
+        mSegmentDurationUs = segmentDurationUs;
+        mSegmentMaxBytes = segmentMaxBytes;
+    }
+
+    /**
+     * 设置首个分段的起始时间戳, 之后的数据以此为 0 点, 在 {@link #start()} 之前设置
+     */
+    void setStartTime(long startTimeUs) {
+        mStartTimeUs = startTimeUs;
+    }
+
+    /**
+     * 当前分段的序号, 停止后为最后一个分段的序号
+     */
+    int getSegmentIndex() {
+        return mSegmentIndex;
+    }
+
+    /**
+     * 启动封装线程, 需要在 {@link IMuxer#prepare} 之后调用
+     */
+    void start() {
+        start(null);
+    }
+
+    /**
+     * 启动封装线程, 轨道添加后先写入预录制的数据, 再写入 {@link #writeSampleData} 提交的实时数据
+     *
+     * @param preRoll 启动后不能再写入, 写完后被清空
+     */
+    void start(@Nullable PreRollBuffer preRoll) {
+        synchronized (mLock) {
+            mIsStopping = false;
+        }
+        mSegmentIndex = 0;
+        mPreRoll = preRoll;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    void addVideoTrack(@NonNull MediaFormat videoFormat) {
+        synchronized (mLock) {
+            mVideoFormat = videoFormat;
+            mLock.notify();
+        }
+    }
+
+    void addAudioTrack(@NonNull MediaFormat audioFormat) {
+        synchronized (mLock) {
+            mAudioFormat = audioFormat;
+            mLock.notify();
+        }
+    }
+
+    /**
+     * 拷贝一帧编码数据, 等待封装线程写入
+     *
+     * @param data       从 position 到 limit 为编码后的数据, 调用返回后不再访问
+     * @param bufferInfo 数据帧的信息, 调用返回后不再访问
+     */
+    void writeSampleData(@IMuxer.Parcel.TrackType int trackType, @NonNull ByteBuffer data,
+                         @NonNull MediaCodec.BufferInfo bufferInfo) {
+        // 编码器配置信息已经包含在 MediaFormat 中
+        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || bufferInfo.size <= 0) {
+            return;
+        }
+        // 在锁外拷贝, 不阻塞封装线程
+        SamplePool pool = trackType == IMuxer.Parcel.TRACK_VIDEO ? mVideoPool : mAudioPool;
+        IMuxer.Parcel parcel = pool.acquire(trackType, data, bufferInfo, false);
+        synchronized (mLock) {
+            if (parcel == null) {
+                // 缓冲池已耗尽, 封装线程来不及写入
+                if (mDroppedCount++ % 30 == 0) {
+                    Log.w(TAG, "Muxer too slow, dropped " + mDroppedCount + " samples.");
+                }
+                return;
+            }
+            if (mIsStopping) {
+                parcel.recycle();
+                return;
+            }
+            if (trackType == IMuxer.Parcel.TRACK_VIDEO) {
+                mVideoQueue.offer(parcel);
+                mLastVideoPts = bufferInfo.presentationTimeUs;
+            } else {
+                mAudioQueue.offer(parcel);
+                mLastAudioPts = bufferInfo.presentationTimeUs;
+            }
+            mLock.notify();
+        }
+    }
+
+    /**
+     * 写入剩余的数据并停止封装器, 阻塞直到封装线程退出
+     */
+    void stop() {
+        synchronized (mLock) {
+            mIsStopping = true;
+            mLock.notify();
+        }
+        if (mThread != null && mThread != Thread.currentThread()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, e.getMessage(), e);
+            } finally {
+                mThread = null;
+            }
+        }
+    }
+
+    private void loop() {
+        try {
+            while (true) {
+                IMuxer.Parcel parcel = null;
+                boolean isTracksReady = false;
+                MediaFormat videoFormat = null;
+                MediaFormat audioFormat = null;
+                synchronized (mLock) {
+                    while (true) {
+                        if (!mIsTracksAdded) {
+                            isTracksReady = mVideoFormat != null && mAudioFormat != null;
+                            if (isTracksReady) {
+                                videoFormat = mVideoFormat;
+                                audioFormat = mAudioFormat;
+                                break;
+                            }
+                            if (mIsStopping) {
+                                break;
+                            }
+                        } else {
+                            parcel = pollNextSample();
+                            if (parcel != null || (mIsStopping && isQueueEmpty())) {
+                                break;
+                            }
+                        }
+                        mLock.wait();
+                    }
+                }
+                if (isTracksReady) {
+                    // 两个轨道都已就绪, 添加后封装器自动启动
+                    mAddedVideoFormat = videoFormat;
+                    mAddedAudioFormat = audioFormat;
+                    mMuxer.addVideoTrack(videoFormat);
+                    mMuxer.addAudioTrack(audioFormat);
+                    mIsTracksAdded = true;
+                    // 预录制的数据先于这期间排队的实时数据写入
+                    if (mPreRoll != null) {
+                        mPreRoll.drainTo(this);
+                        mPreRoll = null;
+                    }
+                    continue;
+                }
+                if (parcel == null) {
+                    break;
+                }
+                try {
+                    writeParcel(parcel);
+                } finally {
+                    parcel.recycle();
+                }
+            }
+        } catch (Throwable e) {
+            Log.e(TAG, "Mux failed.", e);
+            mCallback.onMuxFailed(e);
+        } finally {
+            mMuxer.stop();
+            synchronized (mLock) {
+                recycleAll(mVideoQueue);
+                recycleAll(mAudioQueue);
+                mVideoFormat = null;
+                mAudioFormat = null;
+                mLastVideoPts = NO_PTS;
+                mLastAudioPts = NO_PTS;
+                mIsStopping = true;
+            }
+            mIsTracksAdded = false;
+            mAddedVideoFormat = null;
+            mAddedAudioFormat = null;
+            mSegmentStartPts = NO_PTS;
+            mSegmentBytes = 0;
+            mPreRoll = null;
+            mPreRollParcel = null;
+        }
+    }
+
+    /**
+     * 在封装线程中由 {@link PreRollBuffer#drainTo} 调用, 拷贝到独占的缓冲后直接写入, 不占用缓冲池
+     */
+    void writePreRollSample(@IMuxer.Parcel.TrackType int trackType, @NonNull ByteBuffer data,
+                            @NonNull MediaCodec.BufferInfo bufferInfo) throws Throwable {
+        if (mPreRollParcel == null || mPreRollParcel.byteBuff.capacity() < bufferInfo.size) {
+            mPreRollParcel = new IMuxer.Parcel(null, Math.max(bufferInfo.size, VIDEO_BUFFER_CAPACITY));
+        }
+        mPreRollParcel.copyFrom(trackType, data, bufferInfo);
+        writeParcel(mPreRollParcel);
+    }
+
+    private void writeParcel(IMuxer.Parcel parcel) throws Throwable {
+        if (shouldRotateSegment(parcel)) {
+            rotateSegment(parcel.bufferInfo.presentationTimeUs);
+        }
+        if (mSegmentStartPts == NO_PTS) {
+            mSegmentStartPts = mSegmentIndex == 0 ? mStartTimeUs : parcel.bufferInfo.presentationTimeUs;
+        }
+        mSegmentBytes += parcel.bufferInfo.size;
+        // 每个分段的时间戳从 0 开始
+        parcel.bufferInfo.presentationTimeUs = Math.max(0,
+                parcel.bufferInfo.presentationTimeUs - mSegmentStartPts);
+        mMuxer.execute(parcel);
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean shouldRotateSegment(IMuxer.Parcel parcel) {
+        if (parcel.trackType != IMuxer.Parcel.TRACK_VIDEO
+                || (parcel.bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) == 0
+                || mSegmentStartPts == NO_PTS) {
+            return false;
+        }
+        boolean isDurationReached = mSegmentDurationUs > 0
+                && parcel.bufferInfo.presentationTimeUs - mSegmentStartPts >= mSegmentDurationUs;
+        boolean isSizeReached = mSegmentMaxBytes > 0 && mSegmentBytes >= mSegmentMaxBytes;
+        return isDurationReached || isSizeReached;
+    }
+
+    /**
+     * 关闭当前分段, 以相同的轨道格式在新的输出上重新启动封装器
+     *
+     * @param startPts 新分段首个关键帧的时间戳
+     */
+    private void rotateSegment(long startPts) throws Throwable {
+        mMuxer.stop();
+        mCallback.onSegmentClosed(mSegmentIndex);
+        mSegmentIndex++;
+        mCallback.onPrepareSegment(mMuxer, mSegmentIndex);
+        mMuxer.addVideoTrack(mAddedVideoFormat);
+        mMuxer.addAudioTrack(mAddedAudioFormat);
+        mSegmentStartPts = startPts;
+        mSegmentBytes = 0;
+        Log.i(TAG, "Rotate to segment " + mSegmentIndex);
+    }
+
+    /**
+     * 选出下一个可以写入的数据帧, 需要持有 mLock
+     *
+     * @return 暂时没有可以写入的数据时返回 null
+     */
+    private IMuxer.Parcel pollNextSample() {
+        IMuxer.Parcel video = mVideoQueue.peek();
+        IMuxer.Parcel audio = mAudioQueue.peek();
+        if (video != null && audio != null) {
+            return video.bufferInfo.presentationTimeUs <= audio.bufferInfo.presentationTimeUs
+                    ? mVideoQueue.poll() : mAudioQueue.poll();
+        }
+        if (video == null && audio == null) {
+            return null;
+        }
+        ArrayDeque<IMuxer.Parcel> queue = video != null ? mVideoQueue : mAudioQueue;
+        long headPts = queue.peek().bufferInfo.presentationTimeUs;
+        long lastPts = video != null ? mLastVideoPts : mLastAudioPts;
+        long otherLastPts = video != null ? mLastAudioPts : mLastVideoPts;
+        // 另一个轨道已经越过了这一帧, 或等待已超出窗口, 或正在停止时直接写入
+        if (mIsStopping
+                || (otherLastPts != NO_PTS && otherLastPts >= headPts)
+                || lastPts - headPts >= INTERLEAVE_WINDOW_US) {
+            return queue.poll();
+        }
+        return null;
+    }
+
+    private boolean isQueueEmpty() {
+        return mVideoQueue.isEmpty() && mAudioQueue.isEmpty();
+    }
+
+    private static void recycleAll(ArrayDeque<IMuxer.Parcel> queue) {
+        IMuxer.Parcel parcel;
+        while ((parcel = queue.poll()) != null) {
+            parcel.recycle();
+        }
+    }
+
+}
@@ -16,6 +16,9 @@ class MuxerFactory {
             case MP4:
                 result = IMuxer.MPEG_4;
                 break;
+            case FRAGMENTED_MP4:
+                result = IMuxer.FRAGMENTED_MPEG_4;
+                break;
             default:
                 throw new UnsupportedOperationException();
         }
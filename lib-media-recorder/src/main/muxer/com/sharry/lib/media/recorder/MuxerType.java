@@ -11,7 +11,12 @@ import android.media.MediaMuxer;
  */
 public enum MuxerType {
 
-    MP4("video/mp4", ".mp4");
+    MP4("video/mp4", ".mp4"),
+
+    /**
+     * 分段 MP4, 录制中途异常退出时已写入的部分仍可播放
+     */
+    FRAGMENTED_MP4("video/mp4", ".mp4");
 
     private String mime;
     private String suffix;
@@ -0,0 +1,207 @@
+package com.sharry.lib.media.recorder;
+
+import android.media.MediaCodec;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 预录制的环形缓冲
+ * <p>
+ * 1. 编码后的音视频数据连续存放在一块固定大小的 direct buffer 中, 内存占用不超过预算
+ * 2. 空间不足或超出时长窗口时从最早的数据开始淘汰, 并保证首帧总是视频关键帧, 淘汰后的数据可以直接封装
+ * 3. 开始录制时交给 {@link MuxScheduler#start(PreRollBuffer)}, 由封装线程通过 {@link #drainTo(MuxScheduler)} 按写入顺序写入
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+final class PreRollBuffer {
+
+    private static final String TAG = PreRollBuffer.class.getSimpleName();
+
+    private static final long NO_PTS = Long.MIN_VALUE;
+
+    private final ByteBuffer mRing;
+    private final long mWindowUs;
+    private final MediaCodec.BufferInfo mDrainInfo = new MediaCodec.BufferInfo();
+
+    /**
+     * 以下变量由 this 保护
+     */
+    private final ArrayDeque<Entry> mEntries = new ArrayDeque<>();
+    private final ArrayDeque<Entry> mFreeEntries = new ArrayDeque<>();
+    private int mHead;
+    private int mTail;
+    private long mLatestVideoPts = NO_PTS;
+
+    /**
+     * @param memoryBudget 缓冲的字节数
+     * @param windowUs     最多保留的时长
+     */
+    PreRollBuffer(int memoryBudget, long windowUs) {
+        mRing = ByteBuffer.allocateDirect(memoryBudget);
+        mWindowUs = windowUs;
+    }
+
+    /**
+     * 拷贝一帧编码数据, 不修改 data 的 position 和 limit
+     */
+    @SuppressWarnings("deprecation")
+    synchronized void append(@IMuxer.Parcel.TrackType int trackType, @NonNull ByteBuffer data,
+                             @NonNull MediaCodec.BufferInfo bufferInfo) {
+        int size = bufferInfo.size;
+        if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || size <= 0) {
+            return;
+        }
+        boolean isVideo = trackType == IMuxer.Parcel.TRACK_VIDEO;
+        boolean isKeyFrame = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+        // 没有关键帧作为开头的数据无法解码
+        if (mEntries.isEmpty() && !(isVideo && isKeyFrame)) {
+            return;
+        }
+        if (size > mRing.capacity()) {
+            Log.w(TAG, "Sample size " + size + " exceeds pre-roll budget " + mRing.capacity());
+            clear();
+            return;
+        }
+        int offset;
+        while ((offset = allocate(size)) < 0) {
+            evictHead();
+        }
+        // 空间不足时可能淘汰了全部数据, 需要重新以关键帧开头
+        if (mEntries.isEmpty() && !(isVideo && isKeyFrame)) {
+            return;
+        }
+        int position = data.position();
+        int limit = data.limit();
+        data.limit(bufferInfo.offset + size).position(bufferInfo.offset);
+        mRing.limit(offset + size).position(offset);
+        mRing.put(data);
+        data.limit(limit).position(position);
+        mTail = offset + size;
+        Entry entry = mFreeEntries.poll();
+        if (entry == null) {
+            entry = new Entry();
+        }
+        entry.set(trackType, offset, size, bufferInfo.presentationTimeUs, bufferInfo.flags, isKeyFrame);
+        mEntries.offer(entry);
+        if (isVideo) {
+            mLatestVideoPts = bufferInfo.presentationTimeUs;
+            trimToWindow();
+        }
+    }
+
+    /**
+     * @return 首帧的时间戳, 缓冲为空时返回 -1
+     */
+    synchronized long getStartTime() {
+        return mEntries.isEmpty() ? -1 : mEntries.peek().ptsUs;
+    }
+
+    /**
+     * 在封装线程中按写入顺序写入, 之后缓冲被清空
+     */
+    synchronized void drainTo(@NonNull MuxScheduler scheduler) throws Throwable {
+        try {
+            mRing.clear();
+            for (Entry entry : mEntries) {
+                mDrainInfo.set(entry.offset, entry.size, entry.ptsUs, entry.flags);
+                scheduler.writePreRollSample(entry.trackType, mRing, mDrainInfo);
+            }
+        } finally {
+            clear();
+        }
+    }
+
+    synchronized void clear() {
+        while (!mEntries.isEmpty()) {
+            mFreeEntries.offer(mEntries.poll());
+        }
+        mHead = 0;
+        mTail = 0;
+        mLatestVideoPts = NO_PTS;
+    }
+
+    /**
+     * 在环形缓冲中分配连续的空间, 尾部剩余的空间不足时回到开头
+     *
+     * @return 分配的偏移量, 空间不足时返回 -1
+     */
+    private int allocate(int size) {
+        if (mEntries.isEmpty()) {
+            mHead = 0;
+            mTail = 0;
+            return 0;
+        }
+        if (mHead < mTail) {
+            if (mRing.capacity() - mTail >= size) {
+                return mTail;
+            }
+            return mHead >= size ? 0 : -1;
+        }
+        return mHead - mTail >= size ? mTail : -1;
+    }
+
+    /**
+     * 淘汰最早的一个 GOP, 保证剩余数据以视频关键帧开头
+     */
+    private void evictHead() {
+        mFreeEntries.offer(mEntries.poll());
+        while (!mEntries.isEmpty() && !mEntries.peek().isVideoKeyFrame()) {
+            mFreeEntries.offer(mEntries.poll());
+        }
+        mHead = mEntries.isEmpty() ? mTail : mEntries.peek().offset;
+    }
+
+    /**
+     * 淘汰超出时长窗口的 GOP, 窗口内至少保留最近的一个关键帧
+     */
+    private void trimToWindow() {
+        while (mLatestVideoPts - mEntries.peek().ptsUs > mWindowUs && hasSecondKeyFrame()) {
+            evictHead();
+        }
+    }
+
+    private boolean hasSecondKeyFrame() {
+        boolean isFirst = true;
+        for (Entry entry : mEntries) {
+            if (isFirst) {
+                isFirst = false;
+                continue;
+            }
+            if (entry.isVideoKeyFrame()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Entry {
+
+        int trackType;
+        int offset;
+        int size;
+        long ptsUs;
+        int flags;
+        boolean isKeyFrame;
+
+        void set(int trackType, int offset, int size, long ptsUs, int flags, boolean isKeyFrame) {
+            this.trackType = trackType;
+            this.offset = offset;
+            this.size = size;
+            this.ptsUs = ptsUs;
+            this.flags = flags;
+            this.isKeyFrame = isKeyFrame;
+        }
+
+        boolean isVideoKeyFrame() {
+            return trackType == IMuxer.Parcel.TRACK_VIDEO && isKeyFrame;
+        }
+
+    }
+
+}
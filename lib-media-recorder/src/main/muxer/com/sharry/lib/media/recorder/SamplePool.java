@@ -0,0 +1,99 @@
+package com.sharry.lib.media.recorder;
+
+import android.media.MediaCodec;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 编码数据帧的缓冲池
+ * <p>
+ * 1. 每个 {@link IMuxer.Parcel} 持有固定容量的 direct buffer 和独立的 BufferInfo, 拷贝后可以安全地跨线程传递
+ * 2. 按需创建, 最多 maxCount 个, 写入后通过 {@link IMuxer.Parcel#recycle()} 归还, 稳定后不再分配内存
+ * 3. 超出容量的数据帧(如较大的关键帧)单独分配, 用完后不归还
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+final class SamplePool {
+
+    private static final String TAG = SamplePool.class.getSimpleName();
+
+    private final int mBufferCapacity;
+    private final int mMaxCount;
+
+    /**
+     * 以下变量由 this 保护
+     */
+    private final ArrayDeque<IMuxer.Parcel> mFreeParcels = new ArrayDeque<>();
+    private int mCreatedCount;
+    private int mOversizedCount;
+
+    /**
+     * @param bufferCapacity 每个缓冲的容量
+     * @param maxCount       最多同时借出的数量
+     */
+    SamplePool(int bufferCapacity, int maxCount) {
+        mBufferCapacity = bufferCapacity;
+        mMaxCount = maxCount;
+    }
+
+    /**
+     * 借出一个缓冲并拷贝数据帧
+     *
+     * @param data       从 bufferInfo.offset 开始的 bufferInfo.size 字节为编码后的数据, position 和 limit 不变
+     * @param bufferInfo 数据帧的信息
+     * @param isBlocking 已借出 maxCount 个时, 是否等待其他缓冲归还
+     * @return 已借出 maxCount 个且不等待时返回 null
+     */
+    @Nullable
+    IMuxer.Parcel acquire(@IMuxer.Parcel.TrackType int trackType, @NonNull ByteBuffer data,
+                          @NonNull MediaCodec.BufferInfo bufferInfo, boolean isBlocking) {
+        IMuxer.Parcel parcel;
+        synchronized (this) {
+            if (bufferInfo.size > mBufferCapacity) {
+                // 超出容量的数据帧单独分配, 不占用池中的缓冲
+                if (mOversizedCount++ % 30 == 0) {
+                    Log.w(TAG, "Sample size " + bufferInfo.size + " exceeds buffer capacity "
+                            + mBufferCapacity + ", oversized count " + mOversizedCount);
+                }
+                parcel = null;
+            } else {
+                while (mFreeParcels.isEmpty() && mCreatedCount >= mMaxCount) {
+                    if (!isBlocking) {
+                        return null;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return null;
+                    }
+                }
+                parcel = mFreeParcels.poll();
+                if (parcel == null) {
+                    mCreatedCount++;
+                    parcel = new IMuxer.Parcel(this, mBufferCapacity);
+                }
+            }
+        }
+        if (parcel == null) {
+            parcel = new IMuxer.Parcel(null, bufferInfo.size);
+        }
+        parcel.copyFrom(trackType, data, bufferInfo);
+        return parcel;
+    }
+
+    /**
+     * 归还缓冲, 由 {@link IMuxer.Parcel#recycle()} 调用
+     */
+    synchronized void release(@NonNull IMuxer.Parcel parcel) {
+        mFreeParcels.offer(parcel);
+        notify();
+    }
+
+}
@@ -4,6 +4,9 @@ import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * 系统的音频录制引擎
  *
@@ -15,6 +18,7 @@ public class DefaultPCMProvider implements IPCMProvider, Runnable {
 
     private final AudioRecord mImpl;
     private final int mMinBufferSize;
+    private final ByteBuffer mPcmBuffer;
     private final Object mLockPause = new Object();
 
     private OnPCMChangedListener mListener;
@@ -37,6 +41,8 @@ public class DefaultPCMProvider implements IPCMProvider, Runnable {
                 AudioFormat.ENCODING_PCM_16BIT,   // 输出的格式, 输出的源数据均为 PCM
                 mMinBufferSize                    // 数据缓冲的大小
         );
+        // 复用同一个 direct buffer, 读取时不需要分配数组
+        this.mPcmBuffer = ByteBuffer.allocateDirect(mMinBufferSize).order(ByteOrder.nativeOrder());
     }
 
     @Override
@@ -85,7 +91,6 @@ public class DefaultPCMProvider implements IPCMProvider, Runnable {
     @Override
     public void run() {
         mImpl.startRecording();
-        byte[] pcmData = new byte[mMinBufferSize];
         while (isStart) {
             if (isPause) {
                 synchronized (mLockPause) {
@@ -98,9 +103,10 @@ public class DefaultPCMProvider implements IPCMProvider, Runnable {
                 continue;
             }
             // 获取录制的音频流
-            mImpl.read(pcmData, 0, mMinBufferSize);
-            if (mListener != null) {
-                mListener.OnPCMChanged(pcmData);
+            mPcmBuffer.clear();
+            int length = mImpl.read(mPcmBuffer, mMinBufferSize);
+            if (length > 0 && mListener != null) {
+                mListener.OnPCMChanged(mPcmBuffer, 0, length);
             }
         }
     }
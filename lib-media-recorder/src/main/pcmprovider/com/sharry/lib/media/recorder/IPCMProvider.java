@@ -1,7 +1,10 @@
 package com.sharry.lib.media.recorder;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
+import java.nio.ByteBuffer;
+
 /**
  * 音频 PCM 数据源的提供者
  *
@@ -23,8 +26,17 @@ public interface IPCMProvider {
 
     interface OnPCMChangedListener {
 
+        /**
+         * PCM 数据可读时回调
+         * <p>
+         * pcm 由数据源复用, [offset, offset + length) 的数据只在回调期间有效, 需要时直接拷贝到编码器的输入缓冲中
+         *
+         * @param pcm    数据源持有的 direct ByteBuffer, 回调中可以修改其 position 和 limit
+         * @param offset 数据在 pcm 中的起始位置
+         * @param length 数据的字节数
+         */
         @WorkerThread
-        void OnPCMChanged(byte[] pcmData);
+        void OnPCMChanged(@NonNull ByteBuffer pcm, int offset, int length);
 
     }
 
@@ -1,23 +1,71 @@
 package com.sharry.lib.media.recorder;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * 使用 OpenSL ES 实现的音频录制引擎
+ * <p>
+ * native 层直接将 PCM 写入共享的 direct ByteBuffer 环形缓冲, Java 层只接收偏移量和长度, 不会为每个 buffer 分配数组
+ * <p>
+ * 1. OpenSL ES 的回调线程只负责发布写满的 slot, 由独立的读取线程回调监听者, 监听者耗时不会阻塞录制
+ * 2. 回调的数据在 {@link OnPCMChangedListener#OnPCMChanged} 返回后才会归还, 返回后不能再访问
+ * 3. 读取线程来不及消费时丢弃新数据而不覆盖未读的 slot, 通过 {@link #getOverrunCount()} 统计
  *
  * @author Sharry <a href="xiaoyu.zhu@1hai.cn">Contact me.</a>
  * @version 1.0
  * @since 2019-08-26 15:34
  */
-public class OpenSLESPCMProvider implements IPCMProvider, IPCMProvider.OnPCMChangedListener {
+public class OpenSLESPCMProvider implements IPCMProvider {
 
     static {
         System.loadLibrary("smedia-recorder");
     }
 
-    private OnPCMChangedListener listener;
+    /**
+     * 每个 slot 的字节数, 即 OpenSL ES 每次回调的数据量
+     */
+    private static final int SLOT_SIZE = 4096;
+
+    /**
+     * 默认的环形缓冲 slot 数量, 约 185ms 的数据, 其中 2 个始终交给 OpenSL ES 写入
+     */
+    public static final int DEFAULT_RING_DEPTH = 8;
+
+    /**
+     * 最小的 slot 数量, 需要大于 OpenSL ES 的队列长度
+     */
+    private static final int MIN_RING_DEPTH = 3;
+
+    private final int mRingDepth;
+    private final ByteBuffer mRing;
+
+    /**
+     * 回调给监听者的视图, 仅在读取线程中访问
+     */
+    private final ByteBuffer mReadView;
+
+    private volatile OnPCMChangedListener listener;
+
+    public OpenSLESPCMProvider() {
+        this(DEFAULT_RING_DEPTH);
+    }
+
+    /**
+     * @param ringDepth 环形缓冲的 slot 数量, 越大越能容忍读取线程的抖动, 每个 slot 4096 字节
+     */
+    public OpenSLESPCMProvider(int ringDepth) {
+        if (ringDepth < MIN_RING_DEPTH) {
+            throw new IllegalArgumentException("ringDepth must be at least " + MIN_RING_DEPTH);
+        }
+        mRingDepth = ringDepth;
+        mRing = ByteBuffer.allocateDirect(SLOT_SIZE * ringDepth).order(ByteOrder.nativeOrder());
+        mReadView = mRing.duplicate();
+    }
 
     @Override
     public void start() {
-        nativeStart();
+        nativeStart(mRing, SLOT_SIZE, mRingDepth);
     }
 
     @Override
@@ -37,20 +85,39 @@ public class OpenSLESPCMProvider implements IPCMProvider, IPCMProvider.OnPCMChan
         listener = null;
     }
 
-    @Override
-    public void OnPCMChanged(byte[] pcmData) {
-        if (listener != null) {
-            listener.OnPCMChanged(pcmData);
-        }
-    }
-
     @Override
     public void setOnPCMChangedListener(OnPCMChangedListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * 环形缓冲已满而丢弃的 slot 数量, 停止后保留最近一次录制的统计
+     */
+    public long getOverrunCount() {
+        return nativeGetOverrunCount();
+    }
+
+    /**
+     * 读取线程等待超过两个周期仍没有数据的次数, 停止后保留最近一次录制的统计
+     */
+    public long getUnderrunCount() {
+        return nativeGetUnderrunCount();
+    }
+
+    /**
+     * 由 native 层在读取线程中调用
+     */
+    @SuppressWarnings("unused")
+    private void onPCMAvailable(int offset, int length) {
+        OnPCMChangedListener listener = this.listener;
+        if (listener != null) {
+            mReadView.clear();
+            listener.OnPCMChanged(mReadView, offset, length);
+        }
+    }
+
     // native method.
-    private native void nativeStart();
+    private native void nativeStart(ByteBuffer ring, int slotSize, int slotCount);
 
     private native void nativePause();
 
@@ -58,4 +125,8 @@ public class OpenSLESPCMProvider implements IPCMProvider, IPCMProvider.OnPCMChan
 
     private native void nativeStop();
 
+    private native long nativeGetOverrunCount();
+
+    private native long nativeGetUnderrunCount();
+
 }
@@ -7,6 +7,7 @@ import android.media.MediaFormat;
 import android.net.Uri;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
 import java.io.File;
@@ -67,6 +68,7 @@ final class AudioRecorder extends BaseMediaRecorder implements IAudioEncoder.Cal
                     options.getPerSampleSize(),
                     options.isJustEncode(),
                     fd,
+                    options.getFileSyncPolicy(),
                     this
             );
         } catch (IOException e) {
@@ -80,9 +82,9 @@ final class AudioRecorder extends BaseMediaRecorder implements IAudioEncoder.Cal
 
     @Override
     @WorkerThread
-    public void OnPCMChanged(byte[] pcmData) {
+    public void OnPCMChanged(@NonNull ByteBuffer pcm, int offset, int length) {
         try {
-            mEncoder.encode(pcmData);
+            mEncoder.encode(pcm, offset, length);
         } catch (Throwable e) {
             performRecordFailed(IRecorderCallback.ERROR_ENCODE_FAILED, e);
         }
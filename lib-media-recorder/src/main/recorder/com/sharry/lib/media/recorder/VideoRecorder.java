@@ -5,6 +5,7 @@ import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
 import com.sharry.lib.camera.SCameraView;
@@ -25,15 +26,29 @@ import static com.sharry.lib.media.recorder.Options.Video.RESOLUTION_720P;
  * @version 1.0
  * @since 2019-07-15 17:36
  */
-final class VideoRecorder extends BaseMediaRecorder implements IAudioEncoder.Callback, IVideoEncoder.Callback {
+final class VideoRecorder extends BaseMediaRecorder implements IAudioEncoder.Callback, IVideoEncoder.Callback,
+        MuxScheduler.Callback {
 
     private final AudioRecorder mAudio;
     private final IVideoEncoder mEncoder;
     private final IVideoEncoder.Context mEncodeContext;
     private final IMuxer mMuxer;
+    private final Options.Video mOptions;
+    private final MuxScheduler mMuxScheduler;
+
+    /**
+     * 预录制时编码后的数据暂存在 mPreRoll 中, 开始录制后转交给 mMuxScheduler
+     * <p>
+     * mSinkLock 只保护切换的瞬间, 预录制的数据由封装线程写入, 之后提交的实时数据在封装调度器中排在其后
+     */
+    private final Object mSinkLock = new Object();
+    private PreRollBuffer mPreRoll;
+    private volatile boolean mIsPreRolling = false;
+    private long mStartTimeUs;
 
     VideoRecorder(Context context, Options.Video options, SCameraView cameraView, IRecorderCallback callback) {
         super(context, callback);
+        this.mOptions = options;
         // init audio record
         this.mAudio = new AudioRecorder(
                 context,
@@ -49,73 +64,118 @@ final class VideoRecorder extends BaseMediaRecorder implements IAudioEncoder.Cal
                 options.getFrameRate(),
                 cameraView.getPreviewer().getRenderer().getTextureId(),
                 cameraView.getPreviewer().getEGLContext(),
+                cameraView.getPreviewer(),
                 this
         );
         // Step1. Create an instance of video encoder.
         this.mEncoder = EncoderFactory.create(options.getVideoEncodeType());
         // Step2. Create an instance of video muxer and prepare.
         this.mMuxer = MuxerFactory.createEncoder(options.getMuxerType());
-        if (VersionUtil.isQ()) {
-            this.mOutputUri = FileUtil.createVideoPendingItem(context, options.getRelativePath(),
-                    options.getMuxerType().getMIME(), options.getMuxerType().getFileSuffix());
-            this.mOutputFile = new File(FileUtil.getVideoPath(context, mOutputUri));
-        } else {
-            this.mOutputFile = FileUtil.createVideoFile(context, options.getRelativePath(),
-                    options.getMuxerType().getFileSuffix());
-            this.mOutputUri = FileUtil.getUriFromFile(context, options.getAuthority(), mOutputFile);
-        }
+        this.mMuxScheduler = new MuxScheduler(mMuxer, this);
+        this.mMuxScheduler.setSegmentPolicy(options.getSegmentDuration() * 1000,
+                options.getSegmentMaxSize());
+        // Step3. Create output file.
+        createOutput(options.isSegmented() ? 0 : FileUtil.NO_SEGMENT);
     }
 
     // //////////////////////////////////// IAudioEncoder.Callback ////////////////////////////////////
 
     @Override
     public void onAudioFormatChanged(MediaFormat outputFormat) {
-        mMuxer.addAudioTrack(outputFormat);
+        mMuxScheduler.addAudioTrack(outputFormat);
     }
 
     @Override
     public void onAudioEncoded(ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
-        // 回调录制进度
-        mCallback.onProgress(bufferInfo.presentationTimeUs / 1000);
-        // 合并音视频
-        try {
-            mMuxer.execute(
-                    IMuxer.Parcel.newInstance(IMuxer.Parcel.TRACK_AUDIO, byteBuffer, bufferInfo)
-            );
-        } catch (Throwable e) {
-            performRecordFailed(ERROR_MUXER_FAILED, e);
-        }
+        writeSampleData(IMuxer.Parcel.TRACK_AUDIO, byteBuffer, bufferInfo);
     }
 
     // //////////////////////////////////// IVideoEncoder.Callback  ////////////////////////////////////
 
     @Override
     public void onVideoFormatChanged(MediaFormat outputFormat) {
-        mMuxer.addVideoTrack(outputFormat);
+        mMuxScheduler.addVideoTrack(outputFormat);
     }
 
     @Override
     public void onVideoEncoded(ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
-        // 回调录制进度
-        mCallback.onProgress(bufferInfo.presentationTimeUs / 1000);
-        // 合并音视频
-        try {
-            mMuxer.execute(
-                    IMuxer.Parcel.newInstance(IMuxer.Parcel.TRACK_VIDEO, byteBuffer, bufferInfo)
-            );
-        } catch (Throwable e) {
-            performRecordFailed(ERROR_MUXER_FAILED, e);
-        }
+        writeSampleData(IMuxer.Parcel.TRACK_VIDEO, byteBuffer, bufferInfo);
+    }
+
+    // //////////////////////////////////// MuxScheduler.Callback  ////////////////////////////////////
+
+    @Override
+    public void onMuxFailed(@NonNull final Throwable e) {
+        // 停止录制时会等待封装线程退出, 不能在封装线程中执行
+        AVPoolExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                performRecordFailed(ERROR_MUXER_FAILED, e);
+            }
+        });
+    }
+
+    @Override
+    public void onSegmentClosed(int segmentIndex) {
+        // 分段文件关闭后立即发布, 可以在录制的同时上传
+        publishOutput();
+        mCallback.onSegmentComplete(mOutputUri, mOutputFile, segmentIndex);
+    }
+
+    @Override
+    public void onPrepareSegment(@NonNull IMuxer muxer, int segmentIndex) throws Throwable {
+        createOutput(segmentIndex);
+        prepareMuxer();
     }
 
     // //////////////////////////////////// IMediaRecorder ////////////////////////////////////
 
+    /**
+     * 启动编码器但不写入文件, 只在内存中保留最近 {@link Options.Video#getPreRollDuration()} 的数据
+     * <p>
+     * 之后调用 {@link #start()} 时, 输出的文件从这段数据开始
+     */
+    void startPreRoll() {
+        if (isRecording || mIsPreRolling) {
+            Log.i(TAG, "Is already start.");
+            return;
+        }
+        if (mPreRoll == null) {
+            mPreRoll = new PreRollBuffer(mOptions.getPreRollMemoryBudget(),
+                    mOptions.getPreRollDuration() * 1000);
+        }
+        mIsPreRolling = true;
+        AVPoolExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                // prepare encoder.
+                try {
+                    mEncoder.prepare(mEncodeContext);
+                } catch (Throwable e) {
+                    performRecordFailed(IRecorderCallback.ERROR_ENCODER_PREPARE_FAILED, e);
+                    return;
+                }
+                // start encoding only.
+                mEncoder.start();
+                mAudio.start();
+            }
+        });
+    }
+
+    boolean isPreRolling() {
+        return mIsPreRolling;
+    }
+
     @Override
     public void start() {
         if (isRecording) {
             Log.i(TAG, "Is already start.");
             return;
         }
+        if (mIsPreRolling) {
+            startFromPreRoll();
+            return;
+        }
         isRecording = true;
         AVPoolExecutor.getInstance().execute(new Runnable() {
             @Override
@@ -129,16 +189,13 @@ final class VideoRecorder extends BaseMediaRecorder implements IAudioEncoder.Cal
                 }
                 // prepare muxer.
                 try {
-                    if (VersionUtil.isQ()) {
-                        mMuxer.prepare(mContext, mOutputUri);
-                    } else {
-                        mMuxer.prepare(mContext, mOutputFile);
-                    }
+                    prepareMuxer();
                 } catch (Throwable e) {
                     performRecordFailed(IRecorderCallback.ERROR_MUXER_PREPARE_FAILED, e);
                     return;
                 }
                 // start everything.
+                mMuxScheduler.start();
                 mEncoder.start();
                 mAudio.start();
                 mCallback.onStart();
@@ -170,7 +227,7 @@ final class VideoRecorder extends BaseMediaRecorder implements IAudioEncoder.Cal
 
     @Override
     public void cancel() {
-        if (!isRecording) {
+        if (!isRecording && !mIsPreRolling) {
             Log.i(TAG, "Not recording.");
             return;
         }
@@ -198,10 +255,9 @@ final class VideoRecorder extends BaseMediaRecorder implements IAudioEncoder.Cal
             public void run() {
                 // 释放资源
                 stop();
-                if (VersionUtil.isQ()) {
-                    FileUtil.publishPendingItem(mContext, mOutputUri);
-                } else {
-                    FileUtil.notifyMediaStore(mContext, mOutputFile.getAbsolutePath());
+                publishOutput();
+                if (mOptions.isSegmented()) {
+                    mCallback.onSegmentComplete(mOutputUri, mOutputFile, mMuxScheduler.getSegmentIndex());
                 }
                 // 回调完成
                 mCallback.onComplete(mOutputUri, mOutputFile);
@@ -214,18 +270,106 @@ final class VideoRecorder extends BaseMediaRecorder implements IAudioEncoder.Cal
     @Override
     @WorkerThread
     protected void stop() {
-        if (isRecording) {
+        if (isRecording || mIsPreRolling) {
             // 音频停止
             mAudio.stop();
             // 停止编码器
             mEncoder.stop();
-            // 停止音视频合并
-            mMuxer.stop();
+            // 写入剩余的数据并停止音视频合并
+            mMuxScheduler.stop();
             // 变更标记位
+            synchronized (mSinkLock) {
+                if (mPreRoll != null) {
+                    mPreRoll.clear();
+                }
+                mIsPreRolling = false;
+            }
             isRecording = false;
         }
     }
 
+    /**
+     * 将预录制的数据交给封装线程后, 继续写入实时数据
+     */
+    private void startFromPreRoll() {
+        isRecording = true;
+        AVPoolExecutor.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                // prepare muxer.
+                try {
+                    prepareMuxer();
+                } catch (Throwable e) {
+                    performRecordFailed(IRecorderCallback.ERROR_MUXER_PREPARE_FAILED, e);
+                    return;
+                }
+                // 只在切换的瞬间持有锁, 预录制的数据交给封装线程写入, 不阻塞编码线程
+                synchronized (mSinkLock) {
+                    if (!mIsPreRolling) {
+                        return;
+                    }
+                    // 预录制的数据为空时, 实时数据就从编码器的首帧开始
+                    mStartTimeUs = Math.max(0, mPreRoll.getStartTime());
+                    mMuxScheduler.setStartTime(mStartTimeUs);
+                    mMuxScheduler.start(mPreRoll);
+                    mIsPreRolling = false;
+                }
+                mCallback.onStart();
+            }
+        });
+    }
+
+    private void writeSampleData(@IMuxer.Parcel.TrackType int trackType, ByteBuffer byteBuffer,
+                                 MediaCodec.BufferInfo bufferInfo) {
+        synchronized (mSinkLock) {
+            if (mIsPreRolling) {
+                mPreRoll.append(trackType, byteBuffer, bufferInfo);
+                return;
+            }
+        }
+        // 回调录制进度
+        mCallback.onProgress(Math.max(0, bufferInfo.presentationTimeUs - mStartTimeUs) / 1000);
+        // 拷贝后交给封装线程合并音视频
+        mMuxScheduler.writeSampleData(trackType, byteBuffer, bufferInfo);
+    }
+
+    /**
+     * 创建输出文件
+     *
+     * @param segmentIndex 分段的序号, 不分段时为 {@link FileUtil#NO_SEGMENT}
+     */
+    private void createOutput(int segmentIndex) {
+        MuxerType muxerType = mOptions.getMuxerType();
+        if (VersionUtil.isQ()) {
+            this.mOutputUri = FileUtil.createVideoPendingItem(mContext, mOptions.getRelativePath(),
+                    muxerType.getMIME(), muxerType.getFileSuffix(), segmentIndex);
+            this.mOutputFile = new File(FileUtil.getVideoPath(mContext, mOutputUri));
+        } else {
+            this.mOutputFile = FileUtil.createVideoFile(mContext, mOptions.getRelativePath(),
+                    muxerType.getFileSuffix(), segmentIndex);
+            this.mOutputUri = FileUtil.getUriFromFile(mContext, mOptions.getAuthority(), mOutputFile);
+        }
+    }
+
+    private void prepareMuxer() throws Throwable {
+        if (VersionUtil.isQ()) {
+            mMuxer.prepare(mContext, mOutputUri);
+        } else {
+            mMuxer.prepare(mContext, mOutputFile);
+        }
+    }
+
+    /**
+     * 通知 MediaStore 当前输出的文件已完成
+     */
+    private void publishOutput() {
+        if (VersionUtil.isQ()) {
+            FileUtil.publishPendingItem(mContext, mOutputUri);
+        } else {
+            FileUtil.notifyMediaStore(mContext, mOutputFile.getAbsolutePath());
+        }
+    }
+
     /**
      * 计算录制时视频帧的尺寸
      *
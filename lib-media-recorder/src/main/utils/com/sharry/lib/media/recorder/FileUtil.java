@@ -28,6 +28,8 @@ import java.util.Locale;
  */
 class FileUtil {
 
+    static final int NO_SEGMENT = -1;
+
     /**
      * 创建音频 URI
      */
@@ -84,8 +86,19 @@ class FileUtil {
     @NonNull
     @TargetApi(29)
     static Uri createVideoPendingItem(Context context, String relativePath, String mime, String suffix) {
-        String fileName = "video_" + DateFormat.format("yyyyMMdd_HH_mm_ss",
-                Calendar.getInstance(Locale.CHINA)) + suffix;
+        return createVideoPendingItem(context, relativePath, mime, suffix, NO_SEGMENT);
+    }
+
+    /**
+     * 创建分段视频 URI
+     *
+     * @param segmentIndex 分段的序号, 为 {@link #NO_SEGMENT} 时不追加到文件名
+     */
+    @NonNull
+    @TargetApi(29)
+    static Uri createVideoPendingItem(Context context, String relativePath, String mime, String suffix,
+                                      int segmentIndex) {
+        String fileName = createVideoFileName(suffix, segmentIndex);
         ContentValues values = new ContentValues();
         // 创建相对路径
         if (TextUtils.isEmpty(relativePath)) {
@@ -109,8 +122,17 @@ class FileUtil {
      */
     @NonNull
     static File createVideoFile(Context context, String relativePath, String suffix) {
-        String fileName = "video_" + DateFormat.format("yyyyMMdd_HH_mm_ss",
-                Calendar.getInstance(Locale.CHINA)) + suffix;
+        return createVideoFile(context, relativePath, suffix, NO_SEGMENT);
+    }
+
+    /**
+     * 创建分段视频 File
+     *
+     * @param segmentIndex 分段的序号, 为 {@link #NO_SEGMENT} 时不追加到文件名
+     */
+    @NonNull
+    static File createVideoFile(Context context, String relativePath, String suffix, int segmentIndex) {
+        String fileName = createVideoFileName(suffix, segmentIndex);
         File dir = TextUtils.isEmpty(relativePath) ? Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES)
                 : new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES), relativePath);
         try {
@@ -129,6 +151,18 @@ class FileUtil {
         }
     }
 
+    /**
+     * 同一秒内可能产生多个分段, 追加序号避免重名
+     */
+    private static String createVideoFileName(String suffix, int segmentIndex) {
+        String fileName = "video_" + DateFormat.format("yyyyMMdd_HH_mm_ss",
+                Calendar.getInstance(Locale.CHINA));
+        if (segmentIndex != NO_SEGMENT) {
+            fileName += "_part" + segmentIndex;
+        }
+        return fileName + suffix;
+    }
+
     /**
      * 获取 URI
      */
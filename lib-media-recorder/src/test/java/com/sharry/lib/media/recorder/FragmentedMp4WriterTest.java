@@ -0,0 +1,316 @@
+package com.sharry.lib.media.recorder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link FragmentedMp4Writer} 的输出校验
+ * <p>
+ * 初始化段与 golden 文件逐字节比较, 分段部分解析 box 后校验 trun 的 data_offset 与样本数据
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+public class FragmentedMp4WriterTest {
+
+    private static final String GOLDEN_INIT_SEGMENT = "/fmp4/init_segment.mp4";
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02, (byte) 0x80, (byte) 0xBF};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNEL_COUNT = 2;
+    private static final byte[] ASC = {0x12, 0x10};
+
+    /**
+     * 容器类型的 box, 其负载全部由子 box 组成
+     */
+    private static final List<String> CONTAINERS = Arrays.asList(
+            "moov", "trak", "mdia", "minf", "dinf", "stbl", "mvex", "moof", "traf");
+
+    private File mFile;
+    private FileOutputStream mOutput;
+    private FragmentedMp4Writer mWriter;
+    private int mVideoTrack;
+    private int mAudioTrack;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("fmp4", ".mp4");
+        mOutput = new FileOutputStream(mFile);
+        // 分段时长足够长, 只在 finish 时写出一个分段
+        mWriter = new FragmentedMp4Writer(mOutput.getChannel(), 10 * 1000 * 1000);
+        mVideoTrack = mWriter.addVideoTrack(WIDTH, HEIGHT, SPS, PPS);
+        mAudioTrack = mWriter.addAudioTrack(SAMPLE_RATE, CHANNEL_COUNT, ASC);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mOutput.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void initSegmentMatchesGolden() throws IOException {
+        mWriter.start();
+        assertArrayEquals(readGolden(), readOutput());
+    }
+
+    @Test
+    public void initSegmentBoxSizes() throws IOException {
+        mWriter.start();
+        byte[] file = readOutput();
+        List<Box> boxes = parseBoxes(file, 0, file.length);
+        assertEquals(2, boxes.size());
+        // ftyp: header + major_brand + minor_version + 5 个 compatible_brands
+        assertEquals("ftyp", boxes.get(0).type);
+        assertEquals(8 + 4 + 4 + 5 * 4, boxes.get(0).size);
+        assertEquals("moov", boxes.get(1).type);
+        // avcC: header + 5 字节配置 + SPS 数量与长度 + SPS + PPS 数量与长度 + PPS
+        Box avcC = findBox(file, boxes.get(1), "trak", "mdia", "minf", "stbl");
+        avcC = findSampleEntryChild(file, avcC, "avc1", "avcC");
+        assertEquals(8 + 5 + 3 + SPS.length + 3 + PPS.length, avcC.size);
+        assertEquals(SPS[1], file[avcC.offset + 9]);
+        assertEquals(SPS[3], file[avcC.offset + 11]);
+        // esds: full box 头 + ES 描述符 5 + DecoderConfig 15 + DecoderSpecificInfo 2 + ASC + SLConfig 3
+        Box stbl = findNthBox(file, boxes.get(1), "trak", 1, "mdia", "minf", "stbl");
+        Box esds = findSampleEntryChild(file, stbl, "mp4a", "esds");
+        assertEquals(12 + 5 + 15 + 2 + ASC.length + 3, esds.size);
+    }
+
+    @Test
+    public void trunDataOffsetPointsToSamples() throws IOException {
+        mWriter.start();
+        int initSize = readOutput().length;
+        byte[][] video = {
+                {0x65, 0x01, 0x02, 0x03},
+                {0x41, 0x04, 0x05},
+                {0x41, 0x06}
+        };
+        byte[][] audio = {
+                {0x21, 0x11, 0x12, 0x13, 0x14},
+                {0x21, 0x15, 0x16}
+        };
+        mWriter.writeSample(mVideoTrack, annexB(video[0]), 0, true);
+        mWriter.writeSample(mAudioTrack, ByteBuffer.wrap(audio[0]), 0, true);
+        mWriter.writeSample(mVideoTrack, annexB(video[1]), 33333, false);
+        mWriter.writeSample(mAudioTrack, ByteBuffer.wrap(audio[1]), 23220, true);
+        mWriter.writeSample(mVideoTrack, annexB(video[2]), 66666, false);
+        mWriter.finish();
+
+        byte[] file = readOutput();
+        List<Box> boxes = parseBoxes(file, initSize, file.length);
+        assertEquals(2, boxes.size());
+        Box moof = boxes.get(0);
+        Box mdat = boxes.get(1);
+        assertEquals("moof", moof.type);
+        assertEquals("mdat", mdat.type);
+        assertEquals(file.length, mdat.offset + mdat.size);
+
+        List<Box> trafs = new ArrayList<>();
+        for (Box child : parseBoxes(file, moof.offset + 8, moof.offset + moof.size)) {
+            if ("traf".equals(child.type)) {
+                trafs.add(child);
+            }
+        }
+        assertEquals(2, trafs.size());
+        // 视频样本转为 4 字节长度前缀, 音频样本原样写入
+        assertTrun(file, moof, mdat, trafs.get(0), lengthPrefixed(video), video);
+        assertTrun(file, moof, mdat, trafs.get(1), audio, audio);
+    }
+
+    @Test
+    public void annexBConvertedToLengthPrefix() throws IOException {
+        mWriter.start();
+        int initSize = readOutput().length;
+        // 4 字节起始码 + SEI, 3 字节起始码 + IDR, 末尾带 trailing_zero_8bits
+        byte[] sample = {
+                0, 0, 0, 1, 0x06, 0x05, 0x01, (byte) 0x80,
+                0, 0, 1, 0x65, (byte) 0x88, (byte) 0x84, 0x21,
+                0, 0
+        };
+        mWriter.writeSample(mVideoTrack, ByteBuffer.wrap(sample), 0, true);
+        mWriter.finish();
+
+        byte[] file = readOutput();
+        List<Box> boxes = parseBoxes(file, initSize, file.length);
+        Box mdat = boxes.get(1);
+        byte[] expected = {
+                0, 0, 0, 4, 0x06, 0x05, 0x01, (byte) 0x80,
+                0, 0, 0, 4, 0x65, (byte) 0x88, (byte) 0x84, 0x21
+        };
+        assertEquals(8 + expected.length, mdat.size);
+        assertArrayEquals(expected, Arrays.copyOfRange(file, mdat.offset + 8, mdat.offset + mdat.size));
+    }
+
+    // //////////////////////////////////// 校验 ////////////////////////////////////
+
+    /**
+     * 校验 trun 中的样本数与大小, 以及 data_offset 处的数据
+     */
+    private static void assertTrun(byte[] file, Box moof, Box mdat, Box traf, byte[][] expected,
+                                   byte[][] raw) {
+        Box trun = null;
+        for (Box child : parseBoxes(file, traf.offset + 8, traf.offset + traf.size)) {
+            if ("trun".equals(child.type)) {
+                trun = child;
+            }
+        }
+        assertNotNull(trun);
+        int position = trun.offset + 12;
+        int sampleCount = readInt(file, position);
+        int dataOffset = readInt(file, position + 4);
+        assertEquals(raw.length, sampleCount);
+        // full box 头 + sample_count + data_offset + 每个样本的 duration, size, flags
+        assertEquals(12 + 4 + 4 + 12 * sampleCount, trun.size);
+        // data_offset 相对于 moof 的起始位置, 且落在 mdat 的负载内
+        int sampleStart = moof.offset + dataOffset;
+        assertTrue(sampleStart >= mdat.offset + 8);
+        for (int i = 0; i < sampleCount; i++) {
+            int size = readInt(file, position + 8 + 12 * i + 4);
+            assertEquals(expected[i].length, size);
+            assertArrayEquals(expected[i], Arrays.copyOfRange(file, sampleStart, sampleStart + size));
+            sampleStart += size;
+        }
+        assertTrue(sampleStart <= mdat.offset + mdat.size);
+    }
+
+    // //////////////////////////////////// 解析 ////////////////////////////////////
+
+    private static final class Box {
+
+        final String type;
+        final int offset;
+        final int size;
+
+        Box(String type, int offset, int size) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+
+    }
+
+    /**
+     * 解析 [start, end) 中连续的 box, 容器类型的 box 会递归校验子 box 的大小之和
+     */
+    private static List<Box> parseBoxes(byte[] file, int start, int end) {
+        List<Box> boxes = new ArrayList<>();
+        int position = start;
+        while (position < end) {
+            int size = readInt(file, position);
+            String type = new String(file, position + 4, 4);
+            assertTrue(type + " size " + size + " is invalid", size >= 8 && position + size <= end);
+            Box box = new Box(type, position, size);
+            if (CONTAINERS.contains(type)) {
+                parseBoxes(file, position + 8, position + size);
+            }
+            boxes.add(box);
+            position += size;
+        }
+        assertEquals(end, position);
+        return boxes;
+    }
+
+    private static Box findBox(byte[] file, Box parent, String... path) {
+        Box current = parent;
+        for (String type : path) {
+            current = findChild(file, current, type, 0);
+        }
+        return current;
+    }
+
+    private static Box findNthBox(byte[] file, Box parent, String type, int index, String... path) {
+        return findBox(file, findChild(file, parent, type, index), path);
+    }
+
+    private static Box findChild(byte[] file, Box parent, String type, int index) {
+        int found = 0;
+        for (Box child : parseBoxes(file, parent.offset + 8, parent.offset + parent.size)) {
+            if (type.equals(child.type) && found++ == index) {
+                return child;
+            }
+        }
+        throw new AssertionError("Box " + type + " not found in " + parent.type);
+    }
+
+    /**
+     * stsd 与 sample entry 的子 box 前有固定长度的字段, 需要跳过后再解析
+     */
+    private static Box findSampleEntryChild(byte[] file, Box stbl, String entryType, String childType) {
+        Box stsd = findChild(file, stbl, "stsd", 0);
+        // full box 头 + entry_count
+        Box entry = parseBoxes(file, stsd.offset + 16, stsd.offset + stsd.size).get(0);
+        assertEquals(entryType, entry.type);
+        // VisualSampleEntry 78 字节, AudioSampleEntry 28 字节
+        int fields = "avc1".equals(entryType) ? 78 : 28;
+        for (Box child : parseBoxes(file, entry.offset + 8 + fields, entry.offset + entry.size)) {
+            if (childType.equals(child.type)) {
+                return child;
+            }
+        }
+        throw new AssertionError("Box " + childType + " not found in " + entryType);
+    }
+
+    private static int readInt(byte[] file, int position) {
+        return ((file[position] & 0xFF) << 24) | ((file[position + 1] & 0xFF) << 16)
+                | ((file[position + 2] & 0xFF) << 8) | (file[position + 3] & 0xFF);
+    }
+
+    // //////////////////////////////////// 数据 ////////////////////////////////////
+
+    private static ByteBuffer annexB(byte[] nal) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + nal.length);
+        buffer.put(new byte[]{0, 0, 0, 1}).put(nal).flip();
+        return buffer;
+    }
+
+    private static byte[][] lengthPrefixed(byte[][] nals) {
+        byte[][] result = new byte[nals.length][];
+        for (int i = 0; i < nals.length; i++) {
+            result[i] = ByteBuffer.allocate(4 + nals[i].length).putInt(nals[i].length).put(nals[i]).array();
+        }
+        return result;
+    }
+
+    private byte[] readOutput() throws IOException {
+        mOutput.flush();
+        return Files.readAllBytes(mFile.toPath());
+    }
+
+    private byte[] readGolden() throws IOException {
+        InputStream input = getClass().getResourceAsStream(GOLDEN_INIT_SEGMENT);
+        assertNotNull("Missing golden file " + GOLDEN_INIT_SEGMENT, input);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.sharry.lib.opengles;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayDeque;
+
+/**
+ * 离屏帧缓冲池
+ * <p>
+ * 复用同尺寸的 FBO 及其颜色附件纹理, 尺寸变化时释放所有空闲的帧缓冲
+ * <p>
+ * 非线程安全, 只能在创建 GL 资源的渲染线程中使用
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-18
+ */
+public final class FramebufferPool {
+
+    /**
+     * 默认最多缓存的空闲帧缓冲数量
+     */
+    private static final int DEFAULT_MAX_IDLE_COUNT = 3;
+
+    private final ArrayDeque<Framebuffer> mIdles = new ArrayDeque<>();
+    private final int mMaxIdleCount;
+    private int mWidth;
+    private int mHeight;
+
+    public FramebufferPool() {
+        this(DEFAULT_MAX_IDLE_COUNT);
+    }
+
+    public FramebufferPool(int maxIdleCount) {
+        this.mMaxIdleCount = maxIdleCount;
+    }
+
+    /**
+     * 设置帧缓冲的尺寸, 尺寸变化时释放所有空闲的帧缓冲
+     */
+    public void resize(int width, int height) {
+        if (mWidth == width && mHeight == height) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        clear();
+    }
+
+    /**
+     * 获取一个当前尺寸的帧缓冲
+     */
+    public Framebuffer obtain() {
+        Framebuffer framebuffer = mIdles.pollLast();
+        if (framebuffer == null) {
+            framebuffer = Framebuffer.create(mWidth, mHeight);
+        }
+        return framebuffer;
+    }
+
+    /**
+     * 归还帧缓冲, 尺寸不匹配或池已满时直接释放
+     */
+    public void recycle(Framebuffer framebuffer) {
+        if (framebuffer.width != mWidth || framebuffer.height != mHeight
+                || mIdles.size() >= mMaxIdleCount) {
+            framebuffer.release();
+            return;
+        }
+        mIdles.offerLast(framebuffer);
+    }
+
+    /**
+     * 释放多余的空闲帧缓冲, 最多保留 maxIdleCount 个
+     */
+    public void trimToSize(int maxIdleCount) {
+        while (mIdles.size() > maxIdleCount) {
+            mIdles.pollFirst().release();
+        }
+    }
+
+    /**
+     * 释放所有空闲的帧缓冲
+     */
+    public void clear() {
+        Framebuffer framebuffer;
+        while ((framebuffer = mIdles.pollLast()) != null) {
+            framebuffer.release();
+        }
+    }
+
+    /**
+     * EGL 上下文销毁后, GL 资源已随之释放, 仅丢弃引用
+     */
+    public void abandon() {
+        mIdles.clear();
+    }
+
+    /**
+     * 帧缓冲及其颜色附件纹理
+     */
+    public static final class Framebuffer {
+
+        public final int framebufferId;
+        public final int textureId;
+        public final int width;
+        public final int height;
+
+        private Framebuffer(int framebufferId, int textureId, int width, int height) {
+            this.framebufferId = framebufferId;
+            this.textureId = textureId;
+            this.width = width;
+            this.height = height;
+        }
+
+        static Framebuffer create(int width, int height) {
+            // 创建纹理画布
+            int[] ids = new int[1];
+            GLES20.glGenTextures(1, ids, 0);
+            int textureId = ids[0];
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+            // 创建 fbo, 将纹理作为颜色附件
+            GLES20.glGenFramebuffers(1, ids, 0);
+            int framebufferId = ids[0];
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+            GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, textureId, 0);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            return new Framebuffer(framebufferId, textureId, width, height);
+        }
+
+        public void bind() {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferId);
+            GLES20.glViewport(0, 0, width, height);
+        }
+
+        void release() {
+            GLES20.glDeleteFramebuffers(1, new int[]{framebufferId}, 0);
+            GLES20.glDeleteTextures(1, new int[]{textureId}, 0);
+        }
+
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.sharry.lib.opengles;
+
+import android.opengl.GLES20;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 滤镜链中的一个渲染 pass
+ * <p>
+ * 输入为 2D 纹理, 顶点着色器需声明 aVertexPosition, aTexturePosition, 片元着色器需声明 uTexture
+ * <p>
+ * 着色器源码相同的滤镜共享同一个 OpenGL 程序, 自定义的 uniform 在 {@link #onApplyParameters} 中赋值
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-18
+ */
+public class GlFilter {
+
+    public static final String DEFAULT_VERTEX_SHADER = "attribute vec4 aVertexPosition;\n" +
+            "attribute vec2 aTexturePosition;\n" +
+            "varying vec2 vPosition;\n" +
+            "void main() {\n" +
+            "    vPosition = aTexturePosition;\n" +
+            "    gl_Position = aVertexPosition;\n" +
+            "}";
+
+    public static final String DEFAULT_FRAGMENT_SHADER = "precision mediump float;\n" +
+            "varying vec2 vPosition;\n" +
+            "uniform sampler2D uTexture;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = texture2D(uTexture, vPosition);\n" +
+            "}";
+
+    private final String mVertexSource;
+    private final String mFragmentSource;
+    private int mProgramId;
+    private int aVertexPosition;
+    private int aTexturePosition;
+    private int uTexture;
+
+    public GlFilter(@NonNull String fragmentSource) {
+        this(DEFAULT_VERTEX_SHADER, fragmentSource);
+    }
+
+    public GlFilter(@NonNull String vertexSource, @NonNull String fragmentSource) {
+        this.mVertexSource = vertexSource;
+        this.mFragmentSource = fragmentSource;
+    }
+
+    /**
+     * 程序创建或切换后在渲染线程中回调, 用于获取自定义 uniform 的位置
+     */
+    protected void onProgramCreated(int programId) {
+        // nothing.
+    }
+
+    /**
+     * 每次绘制前在渲染线程中回调, 用于为自定义 uniform 赋值
+     */
+    protected void onApplyParameters(int programId) {
+        // nothing.
+    }
+
+    /**
+     * 连续执行两次与执行一次效果是否相同
+     * <p>
+     * 返回 true 时, 滤镜链中相邻且 {@link #isSameAs} 的 pass 会被合并为一个
+     */
+    protected boolean isIdempotent() {
+        return false;
+    }
+
+    /**
+     * 是否与另一个滤镜的参数完全相同, 子类存在自定义参数时需要重写
+     */
+    public boolean isSameAs(@NonNull GlFilter other) {
+        return getClass() == other.getClass()
+                && mVertexSource.equals(other.mVertexSource)
+                && mFragmentSource.equals(other.mFragmentSource);
+    }
+
+    final String getVertexSource() {
+        return mVertexSource;
+    }
+
+    final String getFragmentSource() {
+        return mFragmentSource;
+    }
+
+    final void setProgram(int programId) {
+        if (mProgramId == programId) {
+            return;
+        }
+        mProgramId = programId;
+        aVertexPosition = GLES20.glGetAttribLocation(programId, "aVertexPosition");
+        aTexturePosition = GLES20.glGetAttribLocation(programId, "aTexturePosition");
+        uTexture = GLES20.glGetUniformLocation(programId, "uTexture");
+        onProgramCreated(programId);
+    }
+
+    /**
+     * 将 textureId 绘制到当前绑定的帧缓冲
+     *
+     * @param vboId 顶点坐标和纹理坐标依次写入的 VBO
+     */
+    final void draw(int textureId, int vboId, int textureCoordinateOffset) {
+        GLES20.glUseProgram(mProgramId);
+        // 绑定纹理
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        // 写入顶点坐标和纹理坐标
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vboId);
+        GLES20.glEnableVertexAttribArray(aVertexPosition);
+        GLES20.glVertexAttribPointer(aVertexPosition, 2, GLES20.GL_FLOAT, false,
+                8, 0);
+        GLES20.glEnableVertexAttribArray(aTexturePosition);
+        GLES20.glVertexAttribPointer(aTexturePosition, 2, GLES20.GL_FLOAT, false,
+                8, textureCoordinateOffset);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glUniform1i(uTexture, 0);
+        // 自定义参数
+        onApplyParameters(mProgramId);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        // 解绑纹理
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+}
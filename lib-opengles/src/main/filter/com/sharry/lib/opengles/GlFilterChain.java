@@ -0,0 +1,177 @@
+package com.sharry.lib.opengles;
+
+import android.opengl.GLES20;
+
+import androidx.annotation.NonNull;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 多 pass 滤镜链
+ * <p>
+ * 按顺序执行 {@link GlFilter}, 所有 pass 在两个池化的帧缓冲之间交替读写, 不会为每个 pass 分配全尺寸纹理
+ * <p>
+ * 1. 相邻且参数相同的幂等滤镜会合并为一个 pass
+ * 2. 着色器源码相同的滤镜共享当前上下文中的同一个 OpenGL 程序
+ * 3. 尺寸变化时释放旧尺寸的中间纹理
+ * <p>
+ * 滤镜的增删可在任意线程调用, 其余方法需在渲染线程中调用
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-18
+ */
+public final class GlFilterChain {
+
+    private final float[] mVertexCoordinate = new float[]{
+            -1f, 1f,  // 左上
+            -1f, -1f, // 左下
+            1f, 1f,   // 右上
+            1f, -1f   // 右下
+    };
+    private final float[] mTextureCoordinate = new float[]{
+            0f, 1f,   // 左上
+            0f, 0f,   // 左下
+            1f, 1f,   // 右上
+            1f, 0f    // 右下
+    };
+
+    private final List<GlFilter> mFilters = new ArrayList<>();
+    private volatile boolean mIsFiltersChanged = true;
+
+    /**
+     * 以下变量仅在渲染线程中访问
+     */
+    private final List<GlFilter> mPasses = new ArrayList<>();
+    private final FramebufferPool mFramebufferPool = new FramebufferPool();
+    private int mVboId;
+    private int mWidth;
+    private int mHeight;
+
+    public void addFilter(@NonNull GlFilter filter) {
+        synchronized (mFilters) {
+            mFilters.add(filter);
+            mIsFiltersChanged = true;
+        }
+    }
+
+    public void removeFilter(@NonNull GlFilter filter) {
+        synchronized (mFilters) {
+            mFilters.remove(filter);
+            mIsFiltersChanged = true;
+        }
+    }
+
+    public void clearFilters() {
+        synchronized (mFilters) {
+            mFilters.clear();
+            mIsFiltersChanged = true;
+        }
+    }
+
+    /**
+     * 上下文变更后, 之前的 GL 资源已失效, 重新创建
+     */
+    public void onEGLContextCreated() {
+        mFramebufferPool.abandon();
+        mIsFiltersChanged = true;
+        setupCoordinates();
+    }
+
+    public void onSurfaceChanged(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mFramebufferPool.resize(width, height);
+    }
+
+    /**
+     * 依次执行所有的 pass
+     *
+     * @param textureId 输入的 2D 纹理
+     * @return 最后一个 pass 输出的纹理, 没有滤镜时返回输入的纹理
+     */
+    public int draw(int textureId) {
+        if (mIsFiltersChanged) {
+            rebuildPasses();
+        }
+        int passCount = mPasses.size();
+        if (passCount == 0 || mWidth == 0 || mHeight == 0) {
+            return textureId;
+        }
+        // 只有一个 pass 时只需要一个帧缓冲
+        FramebufferPool.Framebuffer ping = mFramebufferPool.obtain();
+        FramebufferPool.Framebuffer pong = passCount > 1 ? mFramebufferPool.obtain() : null;
+        int inputTextureId = textureId;
+        for (int i = 0; i < passCount; i++) {
+            FramebufferPool.Framebuffer target = (i & 1) == 0 ? ping : pong;
+            target.bind();
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            mPasses.get(i).draw(inputTextureId, mVboId, mVertexCoordinate.length * 4);
+            inputTextureId = target.textureId;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, mWidth, mHeight);
+        // 逆序归还, 保证下一帧取到相同顺序的帧缓冲, 输出纹理保持稳定
+        if (pong != null) {
+            mFramebufferPool.recycle(pong);
+        }
+        mFramebufferPool.recycle(ping);
+        return inputTextureId;
+    }
+
+    /**
+     * 释放所有的 GL 资源, 需在渲染线程中调用
+     */
+    public void release() {
+        // 程序由上下文共享, 随上下文一起释放
+        mFramebufferPool.clear();
+        if (mVboId != 0) {
+            GLES20.glDeleteBuffers(1, new int[]{mVboId}, 0);
+            mVboId = 0;
+        }
+        mIsFiltersChanged = true;
+    }
+
+    private void rebuildPasses() {
+        List<GlFilter> filters;
+        synchronized (mFilters) {
+            filters = new ArrayList<>(mFilters);
+            mIsFiltersChanged = false;
+        }
+        mPasses.clear();
+        for (GlFilter filter : filters) {
+            // 合并相邻的相同幂等滤镜
+            if (!mPasses.isEmpty()) {
+                GlFilter last = mPasses.get(mPasses.size() - 1);
+                if (last.isIdempotent() && last.isSameAs(filter)) {
+                    continue;
+                }
+            }
+            // 复用源码相同的程序
+            filter.setProgram(GlUtil.obtainProgram(filter.getVertexSource(), filter.getFragmentSource()));
+            mPasses.add(filter);
+        }
+        // 多出的中间纹理不再保留
+        mFramebufferPool.trimToSize(Math.min(mPasses.size(), 2));
+    }
+
+    private void setupCoordinates() {
+        FloatBuffer vertexBuffer = GlUtil.createFloatBuffer(mVertexCoordinate);
+        FloatBuffer textureBuffer = GlUtil.createFloatBuffer(mTextureCoordinate);
+        int[] vboIds = new int[1];
+        GLES20.glGenBuffers(1, vboIds, 0);
+        mVboId = vboIds[0];
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVboId);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER,
+                (mVertexCoordinate.length + mTextureCoordinate.length) * 4,
+                null, GLES20.GL_STATIC_DRAW);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0,
+                mVertexCoordinate.length * 4, vertexBuffer);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, mVertexCoordinate.length * 4,
+                mTextureCoordinate.length * 4, textureBuffer);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+}
@@ -10,6 +10,7 @@ import android.util.AttributeSet;
 import android.view.TextureView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
 import java.lang.ref.WeakReference;
 
@@ -46,6 +47,9 @@ public class GLTextureView extends TextureView {
                 mRendererThread = new RendererThread(RendererThread.class.getSimpleName(),
                         new WeakReference<>(GLTextureView.this));
                 mRendererThread.start();
+                if (getDisplay() != null) {
+                    mRendererThread.mRenderScheduler.setRefreshRate(getDisplay().getRefreshRate());
+                }
                 // invoke renderer lifecycle sequence.
                 if (mRenderer != null) {
                     mRendererThread.handleRendererChanged();
@@ -99,6 +103,45 @@ public class GLTextureView extends TextureView {
         }
     }
 
+    /**
+     * Invoked on renderer thread after {@link ITextureRenderer#onDrawFrame()}, before swap buffers.
+     */
+    @WorkerThread
+    protected void onFrameDrawn() {
+        // nothing.
+    }
+
+    /**
+     * Invoked on renderer thread before the EGL context is released.
+     * <p>
+     * GL resources created in {@link #onFrameDrawn()} should be deleted here.
+     */
+    @WorkerThread
+    protected void onRendererReleased() {
+        // nothing.
+    }
+
+    /**
+     * Gets the count of frames drawn by renderer thread.
+     */
+    public long getDrawnFrameCount() {
+        return mRendererThread != null ? mRendererThread.mRenderScheduler.getDrawnCount() : 0;
+    }
+
+    /**
+     * Gets the count of render requests coalesced into a later draw.
+     */
+    public long getDroppedFrameCount() {
+        return mRendererThread != null ? mRendererThread.mRenderScheduler.getDroppedCount() : 0;
+    }
+
+    /**
+     * Gets the count of frames drawn after the next vsync has already passed.
+     */
+    public long getLateFrameCount() {
+        return mRendererThread != null ? mRendererThread.mRenderScheduler.getLateCount() : 0;
+    }
+
     /**
      * Gets a EGLContext
      *
@@ -113,16 +156,18 @@ public class GLTextureView extends TextureView {
     }
 
     static class RendererThread extends HandlerThread
-            implements SurfaceTexture.OnFrameAvailableListener, Handler.Callback {
+            implements SurfaceTexture.OnFrameAvailableListener, Handler.Callback, RenderScheduler.Callback {
 
         private static final int MSG_SURFACE_TEXTURE_CHANGED = 0;
         private static final int MSG_RENDERER_CHANGED = 1;
         private static final int MSG_SURFACE_SIZE_CHANGED = 2;
         private static final int MSG_DRAW_FRAME = 3;
+        private static final int MSG_RELEASE = 4;
 
         private final WeakReference<GLTextureView> mWkRef;
-        private final EglCore mEglCore = new EglCore();
+        private final EglCore mEglCore = new EglCore(EglContextGroup.getDefault());
         private Handler mRendererHandler;
+        private RenderScheduler mRenderScheduler;
 
         private RendererThread(String name, WeakReference<GLTextureView> view) {
             super(name);
@@ -133,6 +178,7 @@ public class GLTextureView extends TextureView {
         public synchronized void start() {
             super.start();
             mRendererHandler = new Handler(getLooper(), this);
+            mRenderScheduler = new RenderScheduler(mRendererHandler, MSG_DRAW_FRAME, this);
             mRendererHandler.sendEmptyMessage(MSG_SURFACE_TEXTURE_CHANGED);
         }
 
@@ -157,9 +203,13 @@ public class GLTextureView extends TextureView {
                 case MSG_SURFACE_SIZE_CHANGED:
                     performSurfaceSizeChanged();
                     break;
-                // 绘制数据帧
+                // 等待垂直同步信号绘制数据帧
                 case MSG_DRAW_FRAME:
-                    performDrawFrame();
+                    mRenderScheduler.performSchedule();
+                    break;
+                // 释放 EGL 上下文
+                case MSG_RELEASE:
+                    performRelease();
                     break;
                 default:
                     break;
@@ -169,11 +219,16 @@ public class GLTextureView extends TextureView {
 
         @Override
         public void onFrameAvailable(SurfaceTexture surfaceTexture) {
-            if (mRendererHandler != null) {
-                mRendererHandler.sendEmptyMessage(MSG_DRAW_FRAME);
+            if (mRenderScheduler != null) {
+                mRenderScheduler.requestDraw();
             }
         }
 
+        @Override
+        public void onDrawFrame() {
+            performDrawFrame();
+        }
+
         /**
          * {@link #preformSurfaceTextureChanged}
          */
@@ -203,11 +258,13 @@ public class GLTextureView extends TextureView {
         }
 
         /**
-         * {@link #performSurfaceSizeChanged}
+         * {@link #performDrawFrame}
+         * <p>
+         * 绘制前的多次请求会被合并为一次
          */
         void handleDrawFrame() {
-            if (mRendererHandler != null) {
-                mRendererHandler.sendEmptyMessage(MSG_DRAW_FRAME);
+            if (mRenderScheduler != null) {
+                mRenderScheduler.requestDraw();
             }
         }
 
@@ -231,7 +288,7 @@ public class GLTextureView extends TextureView {
             if (view == null) {
                 return;
             }
-            mRendererHandler.removeMessages(MSG_DRAW_FRAME);
+            mRenderScheduler.cancel();
             ITextureRenderer renderer = view.mRenderer;
             if (renderer != null) {
                 renderer.onEGLContextCreated();
@@ -261,17 +318,33 @@ public class GLTextureView extends TextureView {
             if (renderer != null) {
                 renderer.onDrawFrame();
             }
+            view.onFrameDrawn();
             // 将 EGL 绘制的数据, 输出到 View 的 preview 中
             mEglCore.swapBuffers();
         }
 
+        private void performRelease() {
+            GLTextureView view = mWkRef.get();
+            if (view != null) {
+                view.onRendererReleased();
+            }
+            mEglCore.release();
+        }
+
+        /**
+         * {@link #performRelease}
+         * <p>
+         * EGL 上下文需要在创建它的渲染线程中释放
+         */
         private void release() {
             if (mRendererHandler != null) {
                 mRendererHandler.removeMessages(MSG_SURFACE_TEXTURE_CHANGED);
                 mRendererHandler.removeMessages(MSG_SURFACE_SIZE_CHANGED);
-                mRendererHandler.removeMessages(MSG_DRAW_FRAME);
+                mRendererHandler.sendEmptyMessage(MSG_RELEASE);
+            }
+            if (mRenderScheduler != null) {
+                mRenderScheduler.cancel();
             }
-            mEglCore.release();
         }
     }
 
@@ -0,0 +1,113 @@
+package com.sharry.lib.opengles;
+
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 渲染调度器
+ * <p>
+ * 1. 同一时刻最多只有一个等待中的绘制请求, 绘制前到达的请求会被合并, 计为丢帧
+ * 2. 绘制与渲染线程的 Choreographer 垂直同步信号对齐
+ * 3. 收到垂直同步信号时已经错过下一个信号的绘制, 计为延迟帧
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-18
+ */
+final class RenderScheduler implements Choreographer.FrameCallback {
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+
+    interface Callback {
+
+        /**
+         * 在渲染线程中执行一帧绘制
+         */
+        void onDrawFrame();
+
+    }
+
+    private final Handler mRendererHandler;
+    private final int mScheduleWhat;
+    private final Callback mCallback;
+    private final AtomicBoolean mIsDrawPending = new AtomicBoolean(false);
+    private final AtomicLong mDrawnCount = new AtomicLong(0);
+    private final AtomicLong mDroppedCount = new AtomicLong(0);
+    private final AtomicLong mLateCount = new AtomicLong(0);
+    private volatile long mFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+
+    /**
+     * @param rendererHandler 渲染线程的 Handler
+     * @param scheduleWhat    渲染线程中用于调用 {@link #performSchedule()} 的消息
+     */
+    RenderScheduler(Handler rendererHandler, int scheduleWhat, Callback callback) {
+        this.mRendererHandler = rendererHandler;
+        this.mScheduleWhat = scheduleWhat;
+        this.mCallback = callback;
+    }
+
+    /**
+     * 设置屏幕的刷新率, 用于判断延迟帧
+     */
+    void setRefreshRate(float refreshRate) {
+        if (refreshRate > 0) {
+            mFrameIntervalNanos = (long) (1000000000L / refreshRate);
+        }
+    }
+
+    /**
+     * 请求绘制, 可在任意线程调用
+     */
+    void requestDraw() {
+        if (mIsDrawPending.compareAndSet(false, true)) {
+            mRendererHandler.sendEmptyMessage(mScheduleWhat);
+        } else {
+            // 已有等待中的绘制, 这一帧会被下一次绘制覆盖
+            mDroppedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 取消等待中的绘制
+     */
+    void cancel() {
+        mIsDrawPending.set(false);
+        mRendererHandler.removeMessages(mScheduleWhat);
+    }
+
+    /**
+     * 在渲染线程中注册下一个垂直同步信号
+     */
+    void performSchedule() {
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // 先清除标记, 绘制过程中到达的请求会注册下一个垂直同步信号
+        if (!mIsDrawPending.compareAndSet(true, false)) {
+            return;
+        }
+        if (System.nanoTime() - frameTimeNanos > mFrameIntervalNanos) {
+            mLateCount.incrementAndGet();
+        }
+        mCallback.onDrawFrame();
+        mDrawnCount.incrementAndGet();
+    }
+
+    long getDrawnCount() {
+        return mDrawnCount.get();
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    long getLateCount() {
+        return mLateCount.get();
+    }
+
+}
@@ -0,0 +1,271 @@
+package com.sharry.lib.opengles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.GLES20;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static android.opengl.EGL14.EGL_CONTEXT_CLIENT_VERSION;
+
+/**
+ * EGL 上下文组
+ * <p>
+ * 1. EGLDisplay 和 EGLConfig 只初始化一次, 组内的上下文直接复用
+ * 2. 持有一个根上下文, 组内的上下文都与其共享, 任意成员销毁时共享的 GL 对象不会失效,
+ * 根上下文按成员计数, 最后一个成员离开时销毁, 共享组随之释放
+ * 3. 通过 {@link #createTexture} 和 {@link #createFramebuffer} 创建引用计数的共享资源,
+ * 引用归零时在组内的上下文中删除, 当前线程没有组内的上下文时延迟到下一次 swapBuffers 删除
+ * <p>
+ * 预览, 编码等消费者通过 {@link EglCore#EglCore(EglContextGroup)} 加入同一个组, 不需要互相传递上下文
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+public final class EglContextGroup {
+
+    private static final EglContextGroup DEFAULT = new EglContextGroup(EglCore.EGL_VERSION_2);
+
+    /**
+     * 获取进程内默认的上下文组
+     */
+    @NonNull
+    public static EglContextGroup getDefault() {
+        return DEFAULT;
+    }
+
+    private final int mVersion;
+    private final Object mLock = new Object();
+    private EGLDisplay mDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLConfig mConfig;
+    private EGLContext mRootContext = EGL14.EGL_NO_CONTEXT;
+    private int mRootRefCount;
+
+    /**
+     * 以下变量由 mLock 保护
+     */
+    private final Set<EGLContext> mMembers = new HashSet<>();
+    private final List<Integer> mPendingTextures = new ArrayList<>();
+    private final Map<EGLContext, List<Integer>> mPendingFramebuffers = new HashMap<>();
+    private volatile boolean mHasPendingDeletes;
+
+    public EglContextGroup(int version) {
+        mVersion = version;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * 在当前线程组内的上下文中创建共享纹理
+     *
+     * @param target GL_TEXTURE_2D 或 GL_TEXTURE_EXTERNAL_OES
+     */
+    @NonNull
+    public GlSharedTexture createTexture(int target) {
+        checkMemberCurrent();
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        GLES20.glBindTexture(target, ids[0]);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glBindTexture(target, 0);
+        return new GlSharedTexture(this, target, ids[0]);
+    }
+
+    /**
+     * 在当前线程组内的上下文中创建帧缓冲
+     * <p>
+     * 颜色附件纹理在组内共享, FBO 只能在创建它的上下文中绑定
+     */
+    @NonNull
+    public GlSharedFramebuffer createFramebuffer(int width, int height) {
+        GlSharedTexture texture = createTexture(GLES20.GL_TEXTURE_2D);
+        int[] ids = new int[1];
+        GLES20.glGenFramebuffers(1, ids, 0);
+        GlSharedFramebuffer framebuffer = new GlSharedFramebuffer(this,
+                EGL14.eglGetCurrentContext(), ids[0], texture);
+        framebuffer.resize(width, height);
+        return framebuffer;
+    }
+
+    /**
+     * 当前线程的上下文是否属于这个组
+     */
+    public boolean isMemberCurrent() {
+        EGLContext current = EGL14.eglGetCurrentContext();
+        synchronized (mLock) {
+            return mMembers.contains(current);
+        }
+    }
+
+    EGLDisplay getDisplay() {
+        synchronized (mLock) {
+            ensureDisplay();
+            return mDisplay;
+        }
+    }
+
+    EGLConfig getConfig() {
+        synchronized (mLock) {
+            ensureDisplay();
+            return mConfig;
+        }
+    }
+
+    /**
+     * 根上下文不绑定任何线程, 仅用于维持共享组
+     * <p>
+     * 每次获取都需要对应一次 {@link #releaseRootContext()}, 成员上下文在 {@link #detach} 时释放
+     */
+    EGLContext acquireRootContext() {
+        synchronized (mLock) {
+            mRootRefCount++;
+            ensureDisplay();
+            if (mRootContext == EGL14.EGL_NO_CONTEXT) {
+                int[] attrib_list = {EGL_CONTEXT_CLIENT_VERSION, mVersion, EGL14.EGL_NONE};
+                EGLContext rootContext = EGL14.eglCreateContext(mDisplay, mConfig,
+                        EGL14.EGL_NO_CONTEXT, attrib_list, 0);
+                if (EGL14.eglGetError() != EGL14.EGL_SUCCESS) {
+                    mRootRefCount--;
+                    throw new RuntimeException("Create root EGLContext failed.");
+                }
+                mRootContext = rootContext;
+            }
+            return mRootContext;
+        }
+    }
+
+    /**
+     * 最后一个引用释放时销毁根上下文, 组内的 GL 对象在所有成员销毁后随共享组释放
+     */
+    void releaseRootContext() {
+        synchronized (mLock) {
+            if (--mRootRefCount > 0 || mRootContext == EGL14.EGL_NO_CONTEXT) {
+                return;
+            }
+            EGL14.eglDestroyContext(mDisplay, mRootContext);
+            mRootContext = EGL14.EGL_NO_CONTEXT;
+            // 共享组释放后待删除的纹理已经失效
+            mPendingTextures.clear();
+            mHasPendingDeletes = false;
+        }
+    }
+
+    void attach(EGLContext context) {
+        synchronized (mLock) {
+            mMembers.add(context);
+        }
+    }
+
+    /**
+     * 成员上下文销毁前调用, 其中待删除的 FBO 随上下文一起释放
+     */
+    void detach(EGLContext context) {
+        if (context.equals(EGL14.eglGetCurrentContext())) {
+            performPendingDeletes();
+        }
+        synchronized (mLock) {
+            mMembers.remove(context);
+            mPendingFramebuffers.remove(context);
+        }
+        releaseRootContext();
+    }
+
+    void deleteTexture(int textureId) {
+        if (isMemberCurrent()) {
+            GLES20.glDeleteTextures(1, new int[]{textureId}, 0);
+            return;
+        }
+        synchronized (mLock) {
+            mPendingTextures.add(textureId);
+            mHasPendingDeletes = true;
+        }
+    }
+
+    void deleteFramebuffer(EGLContext owner, int framebufferId) {
+        if (owner.equals(EGL14.eglGetCurrentContext())) {
+            GLES20.glDeleteFramebuffers(1, new int[]{framebufferId}, 0);
+            return;
+        }
+        synchronized (mLock) {
+            // 所属的上下文已经销毁, FBO 随之释放
+            if (!mMembers.contains(owner)) {
+                return;
+            }
+            List<Integer> framebuffers = mPendingFramebuffers.get(owner);
+            if (framebuffers == null) {
+                framebuffers = new ArrayList<>();
+                mPendingFramebuffers.put(owner, framebuffers);
+            }
+            framebuffers.add(framebufferId);
+            mHasPendingDeletes = true;
+        }
+    }
+
+    /**
+     * 在组内的上下文中删除其他线程释放的资源
+     */
+    void performPendingDeletes() {
+        if (!mHasPendingDeletes) {
+            return;
+        }
+        EGLContext current = EGL14.eglGetCurrentContext();
+        synchronized (mLock) {
+            if (!mMembers.contains(current)) {
+                return;
+            }
+            for (Integer textureId : mPendingTextures) {
+                GLES20.glDeleteTextures(1, new int[]{textureId}, 0);
+            }
+            mPendingTextures.clear();
+            List<Integer> framebuffers = mPendingFramebuffers.remove(current);
+            if (framebuffers != null) {
+                for (Integer framebufferId : framebuffers) {
+                    GLES20.glDeleteFramebuffers(1, new int[]{framebufferId}, 0);
+                }
+            }
+            mHasPendingDeletes = !mPendingFramebuffers.isEmpty();
+        }
+    }
+
+    private void checkMemberCurrent() {
+        if (!isMemberCurrent()) {
+            throw new IllegalStateException("Current EGLContext is not a member of this group.");
+        }
+    }
+
+    private void ensureDisplay() {
+        if (mDisplay != EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        EGLDisplay display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        if (display == EGL14.EGL_NO_DISPLAY) {
+            throw new RuntimeException("eglGetDisplay failed");
+        }
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(display, version, 0, version, 1)) {
+            throw new RuntimeException("eglInitialize failed");
+        }
+        EGLConfig config = EglCore.chooseConfig(display, mVersion);
+        if (config == null) {
+            throw new RuntimeException("Cannot find suitable config.");
+        }
+        mConfig = config;
+        mDisplay = display;
+    }
+
+}
@@ -43,6 +43,7 @@ public class EglCore {
     private static final String TAG = EglCore.class.getSimpleName();
 
     private final int mEGLVersion;
+    private final EglContextGroup mGroup;
     private EGLDisplay mEGLDisplay = EGL14.EGL_NO_DISPLAY;
     private EGLContext mEGLContext = EGL14.EGL_NO_CONTEXT;
     private EGLSurface mEGLSurface = EGL14.EGL_NO_SURFACE;
@@ -53,6 +54,18 @@ public class EglCore {
 
     public EglCore(@EGLVersion int eglVersion) {
         mEGLVersion = eglVersion;
+        mGroup = null;
+    }
+
+    /**
+     * Creates a context in the given group.
+     * <p>
+     * The display and config are shared by the group, and the context shares GL objects with
+     * the group's root context unless another shared context is given in initialize.
+     */
+    public EglCore(@NonNull EglContextGroup group) {
+        mEGLVersion = group.getVersion();
+        mGroup = group;
     }
 
     /**
@@ -90,9 +103,22 @@ public class EglCore {
      * @return false on failure
      */
     public boolean swapBuffers() {
+        if (mGroup != null) {
+            // Delete shared objects released on other threads.
+            mGroup.performPendingDeletes();
+        }
         return EGL14.eglSwapBuffers(mEGLDisplay, mEGLSurface);
     }
 
+    /**
+     * Sends the presentation time stamp to EGL. Time is expressed in nanoseconds.
+     * <p>
+     * The encoder which consumes the surface will use it as the timestamp of next frame.
+     */
+    public void setPresentationTime(long nsecs) {
+        EGLExt.eglPresentationTimeANDROID(mEGLDisplay, mEGLSurface, nsecs);
+    }
+
     /**
      * Discards all resources held by this class, notably the EGL context.  This must be
      * called from the thread where the context was created.
@@ -101,11 +127,19 @@ public class EglCore {
      */
     public void release() {
         if (mEGLDisplay != EGL14.EGL_NO_DISPLAY) {
+            // Shared programs outlive this context in a group, delete them while it is current.
+            GlProgramCache.onContextDestroyed(mEGLContext);
+            if (mGroup != null) {
+                mGroup.detach(mEGLContext);
+            }
             EGL14.eglMakeCurrent(mEGLDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
                     EGL14.EGL_NO_CONTEXT);
             EGL14.eglDestroyContext(mEGLDisplay, mEGLContext);
             EGL14.eglDestroySurface(mEGLDisplay, mEGLSurface);
-            EGL14.eglTerminate(mEGLDisplay);
+            // The display of a group is shared by other contexts.
+            if (mGroup == null) {
+                EGL14.eglTerminate(mEGLDisplay);
+            }
         }
         mEGLContext = EGL14.EGL_NO_CONTEXT;
         mEGLDisplay = EGL14.EGL_NO_DISPLAY;
@@ -125,6 +159,10 @@ public class EglCore {
      * Copy from {@link android.opengl.GLSurfaceView#EglHelper}
      */
     private void initializeInternal(Object nativeWindow, EGLContext sharedEglContext) {
+        if (mGroup != null) {
+            initializeInGroup(nativeWindow, sharedEglContext);
+            return;
+        }
         /*
          * Create a connection for system native window
          */
@@ -145,7 +183,7 @@ public class EglCore {
         /*
          * Create EGLConfig
          */
-        EGLConfig eglConfig = chooseConfig();
+        EGLConfig eglConfig = chooseConfig(mEGLDisplay, mEGLVersion);
         if (eglConfig == null) {
             throw new RuntimeException("Cannot find suitable config.");
         }
@@ -163,27 +201,52 @@ public class EglCore {
         }
 
         /*
-         * Create EGLSurface
+         * Create EGLSurface and bind context
          */
+        createWindowSurface(eglConfig, nativeWindow);
+    }
+
+    /**
+     * Display and config are initialized once by the group, only the context and surface are created.
+     */
+    private void initializeInGroup(Object nativeWindow, EGLContext sharedEglContext) {
+        mEGLDisplay = mGroup.getDisplay();
+        EGLConfig eglConfig = mGroup.getConfig();
+        // The root context is held until this context detaches from the group.
+        EGLContext rootContext = mGroup.acquireRootContext();
+        if (sharedEglContext == EGL14.EGL_NO_CONTEXT) {
+            sharedEglContext = rootContext;
+        }
+        int[] attrib_list = {EGL_CONTEXT_CLIENT_VERSION, mEGLVersion, EGL14.EGL_NONE};
+        EGLContext eglContext = EGL14.eglCreateContext(mEGLDisplay, eglConfig, sharedEglContext,
+                attrib_list, 0);
+        if (EGL14.eglGetError() == EGL14.EGL_SUCCESS) {
+            mEGLContext = eglContext;
+        } else {
+            mGroup.releaseRootContext();
+            mEGLDisplay = EGL14.EGL_NO_DISPLAY;
+            throw new RuntimeException("Create EGLContext failed.");
+        }
+        mGroup.attach(mEGLContext);
+        createWindowSurface(eglConfig, nativeWindow);
+    }
+
+    private void createWindowSurface(EGLConfig eglConfig, Object nativeWindow) {
         int[] surfaceAttribs = {EGL14.EGL_NONE};
         mEGLSurface = EGL14.eglCreateWindowSurface(mEGLDisplay, eglConfig, nativeWindow,
                 surfaceAttribs, 0);
         if (mEGLSurface == null || mEGLSurface == EGL14.EGL_NO_SURFACE) {
             throw new RuntimeException("createWindowSurface returned EGL_BAD_NATIVE_WINDOW.");
         }
-
-        /*
-         * Bind context
-         */
         makeCurrent();
     }
 
     /**
      * Finds a suitable EGLConfig.
      */
-    private EGLConfig chooseConfig() {
+    static EGLConfig chooseConfig(EGLDisplay display, int eglVersion) {
         int renderableType = EGL14.EGL_OPENGL_ES2_BIT;
-        if (mEGLVersion >= 3) {
+        if (eglVersion >= 3) {
             renderableType |= EGLExt.EGL_OPENGL_ES3_BIT_KHR;
         }
         // The actual surface is generally RGBA or RGBX, so situationally omitting alpha
@@ -202,10 +265,10 @@ public class EglCore {
         };
         EGLConfig[] configs = new EGLConfig[1];
         int[] numConfigs = new int[1];
-        if (!EGL14.eglChooseConfig(mEGLDisplay, attribList, 0, configs,
+        if (!EGL14.eglChooseConfig(display, attribList, 0, configs,
                 0, configs.length,
                 numConfigs, 0)) {
-            Log.w(TAG, "unable to find RGB8888 / " + mEGLVersion + " EGLConfig");
+            Log.w(TAG, "unable to find RGB8888 / " + eglVersion + " EGLConfig");
             return null;
         }
         return configs[0];
@@ -0,0 +1,269 @@
+package com.sharry.lib.opengles;
+
+import android.content.Context;
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenGL 程序缓存
+ * <p>
+ * 1. 同一个 EGL 上下文中, 着色器源码相同的程序只创建一次
+ * 2. ES 3.0 及以上的上下文中, 链接后的程序二进制会持久化到应用的缓存目录, 后续启动直接加载, 跳过编译
+ * 3. 二进制以驱动信息和系统指纹为 key, 驱动升级后自动失效, 加载失败时删除缓存并从源码编译
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+final class GlProgramCache {
+
+    private static final String TAG = GlProgramCache.class.getSimpleName();
+    private static final String CACHE_DIR_NAME = "gl_programs";
+    private static final int FILE_MAGIC = 0x47504243;
+    private static final ThreadPoolExecutor PERSIST_EXECUTOR;
+
+    static {
+        PERSIST_EXECUTOR = new ThreadPoolExecutor(
+                1, 1,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        Thread thread = new Thread(r, GlProgramCache.class.getSimpleName());
+                        thread.setDaemon(false);
+                        return thread;
+                    }
+                }
+        );
+        PERSIST_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 每个 EGL 上下文中共享的程序, key 为着色器源码
+     */
+    private static final Map<EGLContext, Map<String, Integer>> sSharedPrograms = new HashMap<>();
+    private static volatile File sCacheDir;
+
+    static void setup(@NonNull Context context) {
+        if (sCacheDir != null) {
+            return;
+        }
+        File cacheDir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR_NAME);
+        if (cacheDir.exists() || cacheDir.mkdirs()) {
+            sCacheDir = cacheDir;
+        }
+    }
+
+    /**
+     * 获取当前上下文中共享的程序, 调用方不能删除
+     */
+    static int obtain(@NonNull String vertexSource, @NonNull String fragmentSource) {
+        EGLContext eglContext = EGL14.eglGetCurrentContext();
+        if (eglContext == null || eglContext.equals(EGL14.EGL_NO_CONTEXT)) {
+            return create(vertexSource, fragmentSource);
+        }
+        String key = vertexSource + '\0' + fragmentSource;
+        synchronized (sSharedPrograms) {
+            Map<String, Integer> programs = sSharedPrograms.get(eglContext);
+            if (programs == null) {
+                programs = new HashMap<>();
+                sSharedPrograms.put(eglContext, programs);
+            }
+            Integer programId = programs.get(key);
+            // 上下文销毁时没有通知到缓存, 句柄被复用时程序已经失效
+            if (programId != null && GLES20.glIsProgram(programId)) {
+                return programId;
+            }
+            programId = create(vertexSource, fragmentSource);
+            if (programId != 0) {
+                programs.put(key, programId);
+            } else {
+                programs.remove(key);
+            }
+            return programId;
+        }
+    }
+
+    /**
+     * 创建调用方独占的程序, 优先从程序二进制中加载
+     */
+    static int create(@NonNull String vertexSource, @NonNull String fragmentSource) {
+        File binaryFile = isBinarySupported() ? getBinaryFile(vertexSource, fragmentSource) : null;
+        if (binaryFile == null) {
+            return GlUtil.linkProgram(vertexSource, fragmentSource, false);
+        }
+        int programId = loadBinary(binaryFile);
+        if (programId != 0) {
+            return programId;
+        }
+        programId = GlUtil.linkProgram(vertexSource, fragmentSource, true);
+        if (programId != 0) {
+            saveBinary(programId, binaryFile);
+        }
+        return programId;
+    }
+
+    /**
+     * EGL 上下文销毁前调用, 仍是当前上下文时删除其中缓存的程序
+     * <p>
+     * 上下文组内的程序在共享组中, 不会随单个上下文一起销毁
+     */
+    static void onContextDestroyed(EGLContext eglContext) {
+        Map<String, Integer> programs;
+        synchronized (sSharedPrograms) {
+            programs = sSharedPrograms.remove(eglContext);
+        }
+        if (programs == null || !eglContext.equals(EGL14.eglGetCurrentContext())) {
+            return;
+        }
+        for (Integer programId : programs.values()) {
+            GLES20.glDeleteProgram(programId);
+        }
+    }
+
+    private static boolean isBinarySupported() {
+        if (sCacheDir == null) {
+            return false;
+        }
+        // glGetProgramBinary 需要 ES 3.0 的上下文, 申请 ES 2.0 的上下文时驱动通常也会返回更高的版本
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if (version == null || !version.startsWith("OpenGL ES 3")) {
+            return false;
+        }
+        int[] formatCount = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formatCount, 0);
+        return formatCount[0] > 0;
+    }
+
+    private static File getBinaryFile(String vertexSource, String fragmentSource) {
+        String driver = GLES20.glGetString(GLES20.GL_VENDOR) + '\0'
+                + GLES20.glGetString(GLES20.GL_RENDERER) + '\0'
+                + GLES20.glGetString(GLES20.GL_VERSION) + '\0'
+                + Build.FINGERPRINT;
+        String name = sha1(driver + '\0' + vertexSource + '\0' + fragmentSource);
+        return name == null ? null : new File(sCacheDir, name);
+    }
+
+    private static int loadBinary(File binaryFile) {
+        if (!binaryFile.exists()) {
+            return 0;
+        }
+        int format;
+        byte[] binary;
+        try (DataInputStream input = new DataInputStream(new FileInputStream(binaryFile))) {
+            if (input.readInt() != FILE_MAGIC) {
+                throw new IOException("Unknown program binary file.");
+            }
+            format = input.readInt();
+            binary = new byte[input.readInt()];
+            input.readFully(binary);
+        } catch (IOException e) {
+            Log.w(TAG, "Read program binary failed.", e);
+            binaryFile.delete();
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length)
+                .order(ByteOrder.nativeOrder());
+        buffer.put(binary).position(0);
+        int programId = GLES20.glCreateProgram();
+        if (programId == 0) {
+            return 0;
+        }
+        clearGlErrors();
+        GLES30.glProgramBinary(programId, format, buffer, binary.length);
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(programId, GLES20.GL_LINK_STATUS, status, 0);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || status[0] != GLES20.GL_TRUE) {
+            // 驱动拒绝了这份二进制, 删除后从源码编译
+            Log.w(TAG, "Program binary rejected: " + binaryFile.getName());
+            GLES20.glDeleteProgram(programId);
+            binaryFile.delete();
+            return 0;
+        }
+        return programId;
+    }
+
+    private static void saveBinary(int programId, final File binaryFile) {
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(programId, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length[0])
+                .order(ByteOrder.nativeOrder());
+        int[] format = new int[1];
+        clearGlErrors();
+        GLES30.glGetProgramBinary(programId, length[0], length, 0, format, 0, buffer);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || length[0] <= 0) {
+            return;
+        }
+        final int binaryFormat = format[0];
+        final byte[] binary = new byte[length[0]];
+        buffer.get(binary);
+        // 写文件不阻塞渲染线程
+        PERSIST_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                File tempFile = new File(binaryFile.getPath() + ".tmp");
+                try (DataOutputStream output = new DataOutputStream(new FileOutputStream(tempFile))) {
+                    output.writeInt(FILE_MAGIC);
+                    output.writeInt(binaryFormat);
+                    output.writeInt(binary.length);
+                    output.write(binary);
+                } catch (IOException e) {
+                    Log.w(TAG, "Write program binary failed.", e);
+                    tempFile.delete();
+                    return;
+                }
+                if (!tempFile.renameTo(binaryFile)) {
+                    tempFile.delete();
+                }
+            }
+        });
+    }
+
+    private static void clearGlErrors() {
+        while (GLES20.glGetError() != GLES20.GL_NO_ERROR) {
+            // nothing.
+        }
+    }
+
+    private static String sha1(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return null;
+        }
+    }
+
+}
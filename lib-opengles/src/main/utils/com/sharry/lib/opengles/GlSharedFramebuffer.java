@@ -0,0 +1,90 @@
+package com.sharry.lib.opengles;
+
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES20;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 以共享纹理为颜色附件的帧缓冲
+ * <p>
+ * FBO 属于创建它的上下文, 颜色附件纹理可以在组内其他上下文中采样, 如编码线程
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+public final class GlSharedFramebuffer extends GlSharedResource {
+
+    private final EGLContext mOwner;
+    private final int mFramebufferId;
+    private final GlSharedTexture mTexture;
+    private int mWidth;
+    private int mHeight;
+
+    GlSharedFramebuffer(EglContextGroup group, EGLContext owner, int framebufferId,
+                        GlSharedTexture texture) {
+        super(group);
+        mOwner = owner;
+        mFramebufferId = framebufferId;
+        mTexture = texture;
+    }
+
+    /**
+     * 是否可以在当前线程的上下文中绑定
+     */
+    public boolean isOwnerCurrent() {
+        return mOwner.equals(EGL14.eglGetCurrentContext());
+    }
+
+    /**
+     * 重新分配颜色附件的尺寸, 纹理 ID 不变
+     */
+    public void resize(int width, int height) {
+        if (mWidth == width && mHeight == height) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture.getTextureId());
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferId);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTexture.getTextureId(), 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    public void bind() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferId);
+    }
+
+    public void unbind() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * 颜色附件纹理, 需要在帧缓冲释放后继续使用时应先 {@link GlSharedTexture#retain()}
+     */
+    @NonNull
+    public GlSharedTexture getTexture() {
+        return mTexture;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    void onDelete() {
+        mGroup.deleteFramebuffer(mOwner, mFramebufferId);
+        mTexture.release();
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.sharry.lib.opengles;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上下文组内引用计数的 GL 资源
+ * <p>
+ * 创建时引用计数为 1, 每个使用方 {@link #retain()} 一次, 用完后 {@link #release()} 一次, 归零时删除
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+public abstract class GlSharedResource {
+
+    final EglContextGroup mGroup;
+    private final AtomicInteger mRefCount = new AtomicInteger(1);
+
+    GlSharedResource(EglContextGroup group) {
+        mGroup = group;
+    }
+
+    /**
+     * 增加一次引用, 可在任意线程调用
+     */
+    public final void retain() {
+        int before;
+        do {
+            before = mRefCount.get();
+            if (before <= 0) {
+                throw new IllegalStateException("Resource has been released.");
+            }
+        } while (!mRefCount.compareAndSet(before, before + 1));
+    }
+
+    /**
+     * 释放一次引用, 可在任意线程调用
+     */
+    public final void release() {
+        int after = mRefCount.decrementAndGet();
+        if (after == 0) {
+            onDelete();
+        } else if (after < 0) {
+            throw new IllegalStateException("Resource released too many times.");
+        }
+    }
+
+    public final boolean isReleased() {
+        return mRefCount.get() <= 0;
+    }
+
+    /**
+     * 引用归零时回调
+     */
+    abstract void onDelete();
+
+}
@@ -0,0 +1,34 @@
+package com.sharry.lib.opengles;
+
+/**
+ * 上下文组内共享的纹理, 组内任意上下文中都可以采样
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+public final class GlSharedTexture extends GlSharedResource {
+
+    private final int mTarget;
+    private final int mTextureId;
+
+    GlSharedTexture(EglContextGroup group, int target, int textureId) {
+        super(group);
+        mTarget = target;
+        mTextureId = textureId;
+    }
+
+    public int getTarget() {
+        return mTarget;
+    }
+
+    public int getTextureId() {
+        return mTextureId;
+    }
+
+    @Override
+    void onDelete() {
+        mGroup.deleteTexture(mTextureId);
+    }
+
+}
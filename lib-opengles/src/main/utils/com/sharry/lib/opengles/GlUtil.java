@@ -2,6 +2,8 @@ package com.sharry.lib.opengles;
 
 import android.content.Context;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.SparseArray;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
@@ -12,10 +14,33 @@ import java.nio.FloatBuffer;
 
 public class GlUtil {
 
+    /**
+     * 已读取的 glsl 资源, key 为资源 ID
+     */
+    private static final SparseArray<String> sGLResources = new SparseArray<>();
+
+    /**
+     * 开启程序二进制的磁盘缓存, 开启后 {@link #createProgram} 和 {@link #obtainProgram} 会优先加载上次链接的结果
+     */
+    public static void setupProgramCache(Context context) {
+        GlProgramCache.setup(context);
+    }
+
     /**
      * 获取 glsl 资源
      */
     public static String getGLResource(Context context, int rawId) {
+        synchronized (sGLResources) {
+            String source = sGLResources.get(rawId);
+            if (source == null) {
+                source = readGLResource(context, rawId);
+                sGLResources.put(rawId, source);
+            }
+            return source;
+        }
+    }
+
+    private static String readGLResource(Context context, int rawId) {
         InputStream inputStream = context.getResources().openRawResource(rawId);
         BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
         StringBuilder builder = new StringBuilder();
@@ -44,12 +69,33 @@ public class GlUtil {
     }
 
     /**
-     * 创建一个 OpenGL 程序
+     * 获取当前 EGL 上下文中共享的 OpenGL 程序, 源码相同时返回同一个程序
+     * <p>
+     * 程序的生命周期与 EGL 上下文一致, 调用方不能删除
+     *
+     * @param vertexSource   顶点着色器源码
+     * @param fragmentSource 片元着色器源码
+     */
+    public static int obtainProgram(String vertexSource, String fragmentSource) {
+        return GlProgramCache.obtain(vertexSource, fragmentSource);
+    }
+
+    /**
+     * 创建一个 OpenGL 程序, 由调用方负责删除
      *
      * @param vertexSource   顶点着色器源码
      * @param fragmentSource 片元着色器源码
      */
-    public  static int createProgram(String vertexSource, String fragmentSource) {
+    public static int createProgram(String vertexSource, String fragmentSource) {
+        return GlProgramCache.create(vertexSource, fragmentSource);
+    }
+
+    /**
+     * 编译着色器并链接 OpenGL 程序
+     *
+     * @param retrievable 是否需要获取链接后的程序二进制, 仅 ES 3.0 的上下文可用
+     */
+    static int linkProgram(String vertexSource, String fragmentSource, boolean retrievable) {
         // 分别加载创建着色器
         int vertexShaderId = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
         int fragmentShaderId = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
@@ -63,8 +109,17 @@ public class GlUtil {
             GLES20.glAttachShader(programId, vertexShaderId);
             // 链接上 片段着色器
             GLES20.glAttachShader(programId, fragmentShaderId);
+            if (retrievable) {
+                GLES30.glProgramParameteri(programId, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                        GLES20.GL_TRUE);
+            }
             // 链接 OpenGL 程序
             GLES20.glLinkProgram(programId);
+            // 链接后着色器不再需要, 随程序一起释放
+            GLES20.glDetachShader(programId, vertexShaderId);
+            GLES20.glDetachShader(programId, fragmentShaderId);
+            GLES20.glDeleteShader(vertexShaderId);
+            GLES20.glDeleteShader(fragmentShaderId);
             // 验证链接结果是否失败
             int[] status = new int[1];
             GLES20.glGetProgramiv(programId, GLES20.GL_LINK_STATUS, status, 0);
@@ -75,6 +130,12 @@ public class GlUtil {
             }
             return programId;
         }
+        if (vertexShaderId != 0) {
+            GLES20.glDeleteShader(vertexShaderId);
+        }
+        if (fragmentShaderId != 0) {
+            GLES20.glDeleteShader(fragmentShaderId);
+        }
         return 0;
     }
 
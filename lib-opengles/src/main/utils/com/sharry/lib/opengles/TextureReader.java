@@ -0,0 +1,457 @@
+package com.sharry.lib.opengles;
+
+import android.graphics.Bitmap;
+import android.opengl.EGL14;
+import android.opengl.EGLContext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 纹理读取器
+ * <p>
+ * 在渲染线程中将 2D 纹理读取到内存, 结果异步回调, 不阻塞渲染线程和 UI 线程
+ * <p>
+ * 1. ES 3.0 的上下文中使用双缓冲的 PBO 异步读取, 后续帧中通过 fence 确认 GPU 写入完成后再映射拷贝
+ * 2. ES 2.0 的上下文中退化为 glReadPixels 直接读取
+ * 3. 读取结果的 ByteBuffer 和 Bitmap 均池化复用
+ * <p>
+ * 读取请求可在任意线程发起, 由渲染线程每绘制一帧调用一次 {@link #onFrameDrawn} 驱动,
+ * 释放或上下文变更时未完成的请求回调失败, 每个请求只会回调一次
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-19
+ */
+public final class TextureReader {
+
+    private static final String TAG = TextureReader.class.getSimpleName();
+
+    /**
+     * PBO 的数量, 同时进行中的读取请求不会超过这个数量
+     */
+    private static final int PBO_COUNT = 2;
+
+    /**
+     * 默认最多缓存的空闲 ByteBuffer 和 Bitmap 数量
+     */
+    private static final int DEFAULT_POOLED_COUNT = 2;
+
+    private static final ThreadPoolExecutor CONVERT_EXECUTOR;
+
+    static {
+        CONVERT_EXECUTOR = new ThreadPoolExecutor(
+                1, 1,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        Thread thread = new Thread(r, TextureReader.class.getSimpleName());
+                        thread.setDaemon(false);
+                        return thread;
+                    }
+                }
+        );
+        CONVERT_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    public interface PixelsCallback {
+
+        /**
+         * 在工作线程中回调, 回调返回后 pixels 会被复用
+         *
+         * @param pixels RGBA_8888 格式, 行序自上而下
+         */
+        @WorkerThread
+        void onPixelsRead(@NonNull ByteBuffer pixels, int width, int height);
+
+        /**
+         * 在工作线程中回调, 读取器释放或 EGL 上下文变更导致请求被丢弃
+         */
+        @WorkerThread
+        void onReadFailed(@NonNull Throwable e);
+
+    }
+
+    public interface BitmapCallback {
+
+        /**
+         * 在 UI 线程中回调, 不再使用时可以通过 {@link #recycleBitmap(Bitmap)} 归还复用
+         */
+        @MainThread
+        void onBitmapRead(@NonNull Bitmap bitmap);
+
+        /**
+         * 在 UI 线程中回调, 预览画布销毁或变更导致读取失败
+         */
+        @MainThread
+        void onBitmapFailed(@NonNull Throwable e);
+
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Queue<PixelsCallback> mRequests = new ConcurrentLinkedQueue<>();
+    private final ArrayBlockingQueue<Frame> mFreeFrames;
+    private final ArrayBlockingQueue<Bitmap> mFreeBitmaps;
+
+    /**
+     * 以下变量仅在渲染线程中访问
+     */
+    private final int[] mFramebufferIds = new int[1];
+    private final int[] mPboIds = new int[PBO_COUNT];
+    private final int[] mPboSizes = new int[PBO_COUNT];
+    private final long[] mFences = new long[PBO_COUNT];
+    private final PixelsCallback[] mInFlightCallbacks = new PixelsCallback[PBO_COUNT];
+    private final int[] mInFlightWidths = new int[PBO_COUNT];
+    private final int[] mInFlightHeights = new int[PBO_COUNT];
+    private EGLContext mEglContext;
+    private boolean mIsPboSupported;
+
+    public TextureReader() {
+        this(DEFAULT_POOLED_COUNT);
+    }
+
+    /**
+     * @param maxPooledCount 最多缓存的空闲 ByteBuffer 和 Bitmap 数量, 不小于同时进行中的读取请求数时读取不再分配内存
+     */
+    public TextureReader(int maxPooledCount) {
+        mFreeFrames = new ArrayBlockingQueue<>(maxPooledCount);
+        mFreeBitmaps = new ArrayBlockingQueue<>(maxPooledCount);
+    }
+
+    /**
+     * 读取下一帧的像素数据, 可在任意线程调用
+     */
+    public void readPixels(@NonNull PixelsCallback callback) {
+        mRequests.offer(callback);
+    }
+
+    /**
+     * 读取下一帧为 Bitmap, 可在任意线程调用
+     */
+    public void readBitmap(@NonNull final BitmapCallback callback) {
+        readPixels(new PixelsCallback() {
+            @Override
+            public void onPixelsRead(@NonNull ByteBuffer pixels, int width, int height) {
+                final Bitmap bitmap;
+                try {
+                    bitmap = obtainBitmap(width, height);
+                    bitmap.copyPixelsFromBuffer(pixels);
+                } catch (Throwable e) {
+                    onReadFailed(e);
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onBitmapRead(bitmap);
+                    }
+                });
+            }
+
+            @Override
+            public void onReadFailed(@NonNull final Throwable e) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onBitmapFailed(e);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 归还不再使用的 Bitmap, 后续读取时复用
+     */
+    public void recycleBitmap(@NonNull Bitmap bitmap) {
+        if (bitmap.isMutable() && !bitmap.isRecycled()
+                && bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            mFreeBitmaps.offer(bitmap);
+        }
+    }
+
+    /**
+     * 每绘制完一帧在渲染线程中调用
+     *
+     * @param textureId 需要读取的 2D 纹理
+     * @return 是否仍有未完成的请求, 需要继续绘制下一帧
+     */
+    @WorkerThread
+    public boolean onFrameDrawn(int textureId, int width, int height) {
+        if (mRequests.isEmpty() && !hasInFlightRequests()) {
+            return false;
+        }
+        checkEglContext();
+        boolean isReadable = textureId != 0 && width > 0 && height > 0;
+        if (mIsPboSupported) {
+            collectPboResults();
+            if (isReadable) {
+                issuePboRead(textureId, width, height);
+            }
+        } else if (isReadable) {
+            PixelsCallback callback = mRequests.poll();
+            if (callback != null) {
+                readPixelsDirectly(textureId, width, height, callback);
+            }
+        }
+        return !mRequests.isEmpty() || hasInFlightRequests();
+    }
+
+    /**
+     * 释放 GL 资源, 需在渲染线程中调用, 未完成的请求回调失败
+     */
+    @WorkerThread
+    public void release() {
+        Throwable error = new IllegalStateException("TextureReader released before the texture was read.");
+        failInFlightRequests(error);
+        PixelsCallback callback;
+        while ((callback = mRequests.poll()) != null) {
+            dispatchFailure(callback, error);
+        }
+        boolean isCurrent = mEglContext != null && mEglContext.equals(EGL14.eglGetCurrentContext());
+        for (int i = 0; i < PBO_COUNT; i++) {
+            if (isCurrent && mFences[i] != 0) {
+                GLES30.glDeleteSync(mFences[i]);
+            }
+            if (isCurrent && mPboIds[i] != 0) {
+                GLES20.glDeleteBuffers(1, mPboIds, i);
+            }
+            mFences[i] = 0;
+            mPboIds[i] = 0;
+            mPboSizes[i] = 0;
+        }
+        if (isCurrent && mFramebufferIds[0] != 0) {
+            GLES20.glDeleteFramebuffers(1, mFramebufferIds, 0);
+        }
+        mFramebufferIds[0] = 0;
+        mEglContext = null;
+    }
+
+    private void checkEglContext() {
+        EGLContext current = EGL14.eglGetCurrentContext();
+        if (current.equals(mEglContext)) {
+            return;
+        }
+        // 上下文变更后之前的 GL 资源已失效, 进行中的请求读取的帧已不可用, 回调失败
+        failInFlightRequests(new IllegalStateException("EGL context changed before the texture was read."));
+        for (int i = 0; i < PBO_COUNT; i++) {
+            mFences[i] = 0;
+            mPboIds[i] = 0;
+            mPboSizes[i] = 0;
+        }
+        mFramebufferIds[0] = 0;
+        mEglContext = current;
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        mIsPboSupported = version != null && version.startsWith("OpenGL ES 3");
+    }
+
+    private void failInFlightRequests(Throwable error) {
+        for (int i = 0; i < PBO_COUNT; i++) {
+            if (mInFlightCallbacks[i] != null) {
+                dispatchFailure(mInFlightCallbacks[i], error);
+                mInFlightCallbacks[i] = null;
+            }
+        }
+    }
+
+    private boolean hasInFlightRequests() {
+        for (PixelsCallback callback : mInFlightCallbacks) {
+            if (callback != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void issuePboRead(int textureId, int width, int height) {
+        for (int slot = 0; slot < PBO_COUNT && !mRequests.isEmpty(); slot++) {
+            if (mInFlightCallbacks[slot] != null) {
+                continue;
+            }
+            int size = width * height * 4;
+            if (mPboIds[slot] == 0) {
+                GLES20.glGenBuffers(1, mPboIds, slot);
+            }
+            bindFramebuffer(textureId);
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPboIds[slot]);
+            if (mPboSizes[slot] != size) {
+                GLES20.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+                mPboSizes[slot] = size;
+            }
+            // 写入 PBO 由 GPU 异步完成, 不会阻塞渲染线程
+            GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            mFences[slot] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            mInFlightCallbacks[slot] = mRequests.poll();
+            mInFlightWidths[slot] = width;
+            mInFlightHeights[slot] = height;
+            // 同一帧只读取一次
+            return;
+        }
+    }
+
+    private void collectPboResults() {
+        for (int slot = 0; slot < PBO_COUNT; slot++) {
+            PixelsCallback callback = mInFlightCallbacks[slot];
+            if (callback == null) {
+                continue;
+            }
+            int status = GLES30.glClientWaitSync(mFences[slot], GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+            if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+                // GPU 尚未写完, 下一帧再检查
+                continue;
+            }
+            GLES30.glDeleteSync(mFences[slot]);
+            mFences[slot] = 0;
+            mInFlightCallbacks[slot] = null;
+            int width = mInFlightWidths[slot];
+            int height = mInFlightHeights[slot];
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mPboIds[slot]);
+            Buffer mapped = GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0,
+                    width * height * 4, GLES30.GL_MAP_READ_BIT);
+            if (mapped == null) {
+                Log.w(TAG, "Map pixel buffer failed, retry in next frame.");
+                GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+                mRequests.offer(callback);
+                continue;
+            }
+            Frame frame = obtainFrame(width, height);
+            frame.buffer.clear();
+            frame.buffer.put((ByteBuffer) mapped);
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+            GLES20.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            dispatch(frame, callback);
+        }
+    }
+
+    private void readPixelsDirectly(int textureId, int width, int height, PixelsCallback callback) {
+        Frame frame = obtainFrame(width, height);
+        frame.buffer.clear();
+        bindFramebuffer(textureId);
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA,
+                GLES20.GL_UNSIGNED_BYTE, frame.buffer);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        dispatch(frame, callback);
+    }
+
+    private void bindFramebuffer(int textureId) {
+        if (mFramebufferIds[0] == 0) {
+            GLES20.glGenFramebuffers(1, mFramebufferIds, 0);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferIds[0]);
+        GLES20.glFramebufferTexture2D(
+                GLES20.GL_FRAMEBUFFER,
+                GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D,
+                textureId,
+                0
+        );
+    }
+
+    private void dispatch(final Frame frame, final PixelsCallback callback) {
+        CONVERT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // glReadPixels 的原点在左下角, 需要上下翻转
+                    frame.flipVertically();
+                    callback.onPixelsRead(frame.buffer, frame.width, frame.height);
+                } catch (Throwable e) {
+                    Log.e(TAG, "Deliver pixels failed.", e);
+                } finally {
+                    mFreeFrames.offer(frame);
+                }
+            }
+        });
+    }
+
+    private void dispatchFailure(final PixelsCallback callback, final Throwable error) {
+        CONVERT_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    callback.onReadFailed(error);
+                } catch (Throwable e) {
+                    Log.e(TAG, "Deliver read failure failed.", e);
+                }
+            }
+        });
+    }
+
+    private Frame obtainFrame(int width, int height) {
+        Frame frame;
+        while ((frame = mFreeFrames.poll()) != null) {
+            if (frame.width == width && frame.height == height) {
+                return frame;
+            }
+        }
+        return new Frame(width, height);
+    }
+
+    private Bitmap obtainBitmap(int width, int height) {
+        Bitmap bitmap;
+        while ((bitmap = mFreeBitmaps.poll()) != null) {
+            if (!bitmap.isRecycled() && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * 池化的像素缓冲
+     */
+    private static class Frame {
+
+        final int width;
+        final int height;
+        final ByteBuffer buffer;
+        final byte[] rowTop;
+        final byte[] rowBottom;
+
+        Frame(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.buffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+            this.rowTop = new byte[width * 4];
+            this.rowBottom = new byte[width * 4];
+        }
+
+        void flipVertically() {
+            int stride = width * 4;
+            for (int top = 0, bottom = height - 1; top < bottom; top++, bottom--) {
+                buffer.position(top * stride);
+                buffer.get(rowTop);
+                buffer.position(bottom * stride);
+                buffer.get(rowBottom);
+                buffer.position(top * stride);
+                buffer.put(rowBottom);
+                buffer.position(bottom * stride);
+                buffer.put(rowTop);
+            }
+            buffer.rewind();
+        }
+
+    }
+
+}
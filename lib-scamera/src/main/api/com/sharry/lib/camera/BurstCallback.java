@@ -0,0 +1,46 @@
+package com.sharry.lib.camera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 连拍的回调
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-16
+ */
+public interface BurstCallback {
+
+    /**
+     * 获取第 index 张照片的输出流, 在编码线程中回调, 写入完成后会自动关闭
+     *
+     * @param index 从 0 开始的拍摄序号
+     */
+    @WorkerThread
+    @NonNull
+    OutputStream onCreateOutput(int index) throws IOException;
+
+    /**
+     * 第 index 张照片写入完成, 按拍摄顺序在 UI 线程中回调
+     */
+    void onFrameSaved(int index);
+
+    /**
+     * 第 index 张照片写入失败, 按拍摄顺序在 UI 线程中回调
+     */
+    void onFrameFailed(int index, @NonNull Throwable e);
+
+    /**
+     * 连拍结束, 所有照片均已写入
+     *
+     * @param capturedCount 采集的帧数
+     * @param droppedCount  因编码线程繁忙而丢弃的帧数
+     * @param captureFps    持续采集的帧率
+     */
+    void onBurstComplete(int capturedCount, int droppedCount, float captureFps);
+
+}
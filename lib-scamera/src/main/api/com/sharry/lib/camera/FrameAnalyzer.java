@@ -0,0 +1,39 @@
+package com.sharry.lib.camera;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * 预览帧分析器
+ * <p>
+ * 帧数据为 NV21 格式, 来自预分配的缓冲池, 仅在 {@link #analyze} 执行期间有效, 分析结束后会归还给相机复用
+ * <p>
+ * 分析线程繁忙时, 新到达的帧会被直接丢弃
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-18
+ */
+public interface FrameAnalyzer {
+
+    /**
+     * 分析一帧预览数据, 在分析线程中回调
+     *
+     * @param nv21            NV21 格式的帧数据, 方法返回后不可再持有
+     * @param width           帧的宽
+     * @param height          帧的高
+     * @param rotationDegrees 将帧旋转至与屏幕方向一致所需的顺时针角度
+     */
+    @WorkerThread
+    void analyze(@NonNull byte[] nv21, int width, int height, int rotationDegrees);
+
+    /**
+     * 每秒回调一次分析的统计数据, 在分析线程中回调
+     *
+     * @param analyzedPerSecond 最近一秒分析的帧数
+     * @param droppedPerSecond  最近一秒因分析线程繁忙而丢弃的帧数
+     */
+    @WorkerThread
+    void onStatistics(int analyzedPerSecond, int droppedPerSecond);
+
+}
@@ -0,0 +1,28 @@
+package com.sharry.lib.camera;
+
+import androidx.annotation.NonNull;
+
+/**
+ * 相机拍照的回调
+ * <p>
+ * 回调在 UI 线程中执行
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-14
+ */
+public interface PictureCallback {
+
+    /**
+     * 拍照成功
+     *
+     * @param jpeg 硬件编码输出的 JPEG 数据, 使用拍照尺寸, 方向信息记录在 EXIF 中
+     */
+    void onPictureTaken(@NonNull byte[] jpeg);
+
+    /**
+     * 拍照失败
+     */
+    void onPictureFailed(@NonNull Throwable e);
+
+}
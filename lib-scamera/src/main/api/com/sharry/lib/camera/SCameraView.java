@@ -12,6 +12,8 @@ import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.sharry.lib.opengles.TextureReader;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
@@ -95,6 +97,11 @@ public class SCameraView extends FrameLayout implements
      */
     private final ScreenOrientationDetector mScreenOrientationDetector;
 
+    /**
+     * 预览尚未布局时请求的打开操作, 等待首次布局确定尺寸后再执行 (仅在 UI 线程访问)
+     */
+    private boolean mIsOpenPending;
+
     public SCameraView(@NonNull Context context) {
         this(context, null);
     }
@@ -108,7 +115,7 @@ public class SCameraView extends FrameLayout implements
         this.mContext = new CameraContext(context);
         this.mPreviewer = new Previewer(context, this);
         this.mScreenOrientationDetector = new ScreenOrientationDetector(context, this);
-        this.mDevice = new Camera1Device(mContext, this);
+        this.mDevice = new AsyncCameraDevice(mContext, this);
         // Attributes
         TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.SCameraView, defStyleAttr,
                 R.style.Widget_CameraView);
@@ -145,7 +152,7 @@ public class SCameraView extends FrameLayout implements
     @Override
     public void onDisplayOrientationChanged(int displayOrientation) {
         mContext.setScreenOrientationDegrees(displayOrientation);
-        mDevice.notifyScreenOrientationChanged();
+        mDevice.notifyContextChanged();
     }
 
     @Override
@@ -222,33 +229,51 @@ public class SCameraView extends FrameLayout implements
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
-        mContext.setDesiredSize(mPreviewer.getSize());
-        mDevice.notifyDesiredSizeChanged();
+        Size size = mPreviewer.getSize();
+        mContext.setDesiredSize(size);
+        if (mIsOpenPending && isValidSize(size)) {
+            mIsOpenPending = false;
+            mDevice.open();
+        } else {
+            mDevice.notifyContextChanged();
+        }
     }
 
     /**
      * Open a camera device and start showing camera preview. This is typically called from
      * {@link Activity#onResume}.
+     * <p>
+     * The camera is opened on the camera thread, this method returns immediately.
+     * If the preview has not been laid out yet, the open is deferred until the first
+     * layout, so that the first preview size is chosen for the real target size.
      */
     public void startPreview() {
-        post(new Runnable() {
-            @Override
-            public void run() {
-                mDevice.open();
-            }
-        });
+        Size size = mPreviewer.getSize();
+        if (isValidSize(size)) {
+            mIsOpenPending = false;
+            mContext.setDesiredSize(size);
+            mDevice.open();
+        } else {
+            mIsOpenPending = true;
+        }
     }
 
     /**
      * Stop camera preview and close the device. This is typically called from
      * {@link Activity#onPause}
+     * <p>
+     * A pending open request that has not been executed yet will be canceled.
      */
     public void stopPreview() {
+        mIsOpenPending = false;
+        mPreviewer.stopBurst();
         mDevice.close();
     }
 
     /**
      * 获取照片
+     * <p>
+     * 截取预览画面, 尺寸受限于预览分辨率, 需要原始清晰度请使用 {@link #takePicture(PictureCallback)}
      */
     @Nullable
     public Bitmap takePicture() {
@@ -256,6 +281,57 @@ public class SCameraView extends FrameLayout implements
         return mPreviewer.getBitmap();
     }
 
+    /**
+     * 截取预览画面, 预览不会中断
+     * <p>
+     * 在渲染线程中异步读取, 不阻塞 UI 线程, 结果回调在 UI 线程, 读取完成前画布销毁或变更时回调失败
+     * <p>
+     * Bitmap 不再使用时可以通过 {@link #recycleSnapshot(Bitmap)} 归还复用
+     */
+    public void takeSnapshot(@NonNull TextureReader.BitmapCallback callback) {
+        mPreviewer.readBitmap(callback);
+    }
+
+    /**
+     * 归还 {@link #takeSnapshot} 获取的 Bitmap
+     */
+    public void recycleSnapshot(@NonNull Bitmap bitmap) {
+        mPreviewer.recycleBitmap(bitmap);
+    }
+
+    /**
+     * 使用相机的拍照尺寸拍摄照片
+     * <p>
+     * 回调硬件编码的 JPEG 数据, 无需解码即可直接写入文件, 拍摄完成后预览会停止
+     * <p>
+     * 结果回调在 UI 线程
+     */
+    public void takePicture(@NonNull PictureCallback callback) {
+        mDevice.takePicture(callback);
+    }
+
+    /**
+     * 开始连拍
+     * <p>
+     * 预览不会中断, 帧数据从预览画面中采集, 在后台线程中按顺序编码为 JPEG
+     *
+     * @param count   连拍的张数
+     * @param quality JPEG 压缩质量
+     */
+    public void startBurst(int count, int quality, @NonNull BurstCallback callback) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Burst count must be positive.");
+        }
+        mPreviewer.startBurst(count, quality, callback);
+    }
+
+    /**
+     * 停止连拍, 已采集的帧会继续写出
+     */
+    public void stopBurst() {
+        mPreviewer.stopBurst();
+    }
+
     /**
      * Chooses camera by the direction it faces.
      *
@@ -264,7 +340,7 @@ public class SCameraView extends FrameLayout implements
      */
     public void setFacing(@Facing int facing) {
         mContext.setFacing(facing);
-        mDevice.notifyFacingChanged();
+        mDevice.notifyContextChanged();
     }
 
     /**
@@ -277,7 +353,7 @@ public class SCameraView extends FrameLayout implements
             return;
         }
         mContext.setAspectRatio(ratio);
-        mDevice.notifyAspectRatioChanged();
+        mDevice.notifyContextChanged();
         requestLayout();
     }
 
@@ -290,7 +366,7 @@ public class SCameraView extends FrameLayout implements
      */
     public void setAutoFocus(boolean autoFocus) {
         mContext.setAutoFocus(autoFocus);
-        mDevice.notifyAutoFocusChanged();
+        mDevice.notifyContextChanged();
     }
 
     /**
@@ -300,7 +376,28 @@ public class SCameraView extends FrameLayout implements
      */
     public void setFlash(@Flash int flash) {
         mContext.setFlashMode(flash);
-        mDevice.notifyFlashModeChanged();
+        mDevice.notifyContextChanged();
+    }
+
+    /**
+     * Sets the jpeg quality of picture taken by {@link #takePicture(PictureCallback)}.
+     * It will be applied when camera opened next time.
+     *
+     * @param quality range in [1, 100].
+     */
+    public void setPictureQuality(int quality) {
+        mContext.setPictureQuality(Math.max(1, Math.min(100, quality)));
+    }
+
+    /**
+     * Sets the analyzer that receives NV21 preview frames on a background thread. Frames
+     * arriving while the analyzer is busy will be dropped.
+     *
+     * @param analyzer The analyzer, or {@code null} to stop analyzing.
+     */
+    public void setFrameAnalyzer(@Nullable FrameAnalyzer analyzer) {
+        mContext.setFrameAnalyzer(analyzer);
+        mDevice.notifyContextChanged();
     }
 
     /**
@@ -380,4 +477,8 @@ public class SCameraView extends FrameLayout implements
         return mScreenOrientationDetector.isLandscape();
     }
 
+    private static boolean isValidSize(Size size) {
+        return size.getWidth() > 0 && size.getHeight() > 0;
+    }
+
 }
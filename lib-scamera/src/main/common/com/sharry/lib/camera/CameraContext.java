@@ -15,6 +15,8 @@ class CameraContext extends ContextWrapper {
     private boolean autoFocus;
     private int flashMode;
     private int screenOrientationDegrees;
+    private int pictureQuality = 100;
+    private FrameAnalyzer frameAnalyzer;
     boolean adjustViewBounds;
     Size desiredSize;
 
@@ -62,6 +64,22 @@ class CameraContext extends ContextWrapper {
         this.screenOrientationDegrees = screenOrientationDegrees;
     }
 
+    int getPictureQuality() {
+        return pictureQuality;
+    }
+
+    void setPictureQuality(int pictureQuality) {
+        this.pictureQuality = pictureQuality;
+    }
+
+    FrameAnalyzer getFrameAnalyzer() {
+        return frameAnalyzer;
+    }
+
+    void setFrameAnalyzer(FrameAnalyzer frameAnalyzer) {
+        this.frameAnalyzer = frameAnalyzer;
+    }
+
     boolean isAdjustViewBounds() {
         return adjustViewBounds;
     }
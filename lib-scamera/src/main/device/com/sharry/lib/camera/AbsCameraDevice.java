@@ -7,12 +7,28 @@ package com.sharry.lib.camera;
  */
 abstract class AbsCameraDevice implements ICameraDevice {
 
+    /**
+     * 应用配置变更的操作, 代价依次递增
+     */
+    static final int ACTION_NONE = 0;
+    static final int ACTION_UPDATE_PARAMETERS = 1;
+    static final int ACTION_RESTART_PREVIEW = 2;
+    static final int ACTION_REOPEN = 3;
+
     final CameraContext context;
     OnCameraReadyListener listener;
     AspectRatio aspectRatio = AspectRatio.DEFAULT;
     int facing;
     boolean autoFocus;
+    /**
+     * 实际生效的闪光灯模式, 设备不支持请求的模式时由具体实现回退
+     */
     int flashMode;
+    /**
+     * 最近一次同步的闪光灯模式, 用于判断配置是否变更
+     */
+    int requestedFlashMode;
+    FrameAnalyzer frameAnalyzer;
     int screenOrientationDegrees;
     int previewWidth, previewHeight;
 
@@ -22,53 +38,84 @@ abstract class AbsCameraDevice implements ICameraDevice {
     }
 
     @Override
-    public void notifyFacingChanged() {
-        if (this.facing == context.getFacing()) {
+    public void notifyContextChanged() {
+        int action = syncContext();
+        // 相机未打开, 变更会在下次打开时生效
+        if (!isCameraOpened()) {
             return;
         }
-        this.facing = context.getFacing();
-        if (isCameraOpened()) {
-            open();
+        switch (action) {
+            case ACTION_REOPEN:
+                open();
+                break;
+            case ACTION_RESTART_PREVIEW:
+                restartPreview();
+                break;
+            case ACTION_UPDATE_PARAMETERS:
+                updateParameters();
+                break;
+            default:
+                break;
         }
     }
 
-    @Override
-    public void notifyAspectRatioChanged() {
-        // Handle this later when camera is opened
-        if (!isCameraOpened()) {
-            aspectRatio = context.getAspectRatio();
+    /**
+     * 将 {@link CameraContext} 中的配置同步到当前设备, 并计算应用这些变更所需的最小操作
+     *
+     * @return one of {@link #ACTION_NONE}, {@link #ACTION_UPDATE_PARAMETERS},
+     * {@link #ACTION_RESTART_PREVIEW}, {@link #ACTION_REOPEN}.
+     */
+    int syncContext() {
+        int action = ACTION_NONE;
+        // 切换摄像头, 需要重新打开相机
+        if (facing != context.getFacing()) {
+            facing = context.getFacing();
+            action = Math.max(action, ACTION_REOPEN);
         }
-        // if camera opened
+        // 比例, 方向, 期望尺寸的变化可能会导致预览尺寸变化, 需要重启预览
         if (!aspectRatio.equals(context.getAspectRatio())) {
             aspectRatio = context.getAspectRatio();
-            open();
+            action = Math.max(action, ACTION_RESTART_PREVIEW);
         }
-    }
-
-    @Override
-    public void notifyScreenOrientationChanged() {
-        if (this.screenOrientationDegrees == context.getScreenOrientationDegrees()) {
-            return;
+        if (screenOrientationDegrees != context.getScreenOrientationDegrees()) {
+            screenOrientationDegrees = context.getScreenOrientationDegrees();
+            action = Math.max(action, ACTION_RESTART_PREVIEW);
         }
-        this.screenOrientationDegrees = context.getScreenOrientationDegrees();
-        if (isCameraOpened()) {
-            open();
+        Size desiredSize = context.getDesiredSize();
+        if (desiredSize != null && (previewWidth != desiredSize.getWidth()
+                || previewHeight != desiredSize.getHeight())) {
+            previewWidth = desiredSize.getWidth();
+            previewHeight = desiredSize.getHeight();
+            action = Math.max(action, ACTION_RESTART_PREVIEW);
         }
-    }
-
-    @Override
-    public void notifyDesiredSizeChanged() {
-        if (previewWidth == context.getDesiredSize().getWidth()
-                && previewHeight == context.getDesiredSize().getHeight()) {
-            return;
+        // 对焦和闪光灯只需要更新参数
+        if (autoFocus != context.isAutoFocus()) {
+            autoFocus = context.isAutoFocus();
+            action = Math.max(action, ACTION_UPDATE_PARAMETERS);
         }
-        previewWidth = context.getDesiredSize().getWidth();
-        previewHeight = context.getDesiredSize().getHeight();
-        if (isCameraOpened()) {
-            open();
+        // 预览帧分析器可以在预览过程中切换
+        if (frameAnalyzer != context.getFrameAnalyzer()) {
+            frameAnalyzer = context.getFrameAnalyzer();
+            action = Math.max(action, ACTION_UPDATE_PARAMETERS);
         }
+        // 与请求的模式比较, 设备不支持而回退后不会反复触发参数更新
+        if (requestedFlashMode != context.getFlashMode()) {
+            requestedFlashMode = context.getFlashMode();
+            action = Math.max(action, ACTION_UPDATE_PARAMETERS);
+        }
+        return action;
     }
 
+    /**
+     * 在不关闭相机的前提下重启预览, 预览尺寸未变化时, 可退化为参数更新
+     */
+    abstract void restartPreview();
+
+    /**
+     * 仅更新相机参数, 不中断预览
+     */
+    abstract void updateParameters();
+
     /**
      * Test if the supplied orientation is in landscape.
      *
@@ -0,0 +1,189 @@
+package com.sharry.lib.camera;
+
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+
+/**
+ * 相机设备的异步代理
+ * <p>
+ * 所有的相机操作都会投递到相机线程中串行执行, 避免 Camera.open 和参数设置阻塞 UI 线程
+ * <p>
+ * {@link OnCameraReadyListener} 和 {@link PictureCallback} 均回调在 UI 线程
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-17
+ */
+final class AsyncCameraDevice implements ICameraDevice, Handler.Callback {
+
+    private static final int MSG_OPEN = 0;
+    private static final int MSG_CLOSE = 1;
+    private static final int MSG_TAKE_PICTURE = 2;
+    private static final int MSG_CONTEXT_CHANGED = 3;
+
+    private static HandlerThread sCameraThread;
+
+    /**
+     * 相机硬件同一时刻只能被一个页面持有, 进程内共享一个相机线程, 保证前一个页面的释放先于后一个页面的打开
+     */
+    private static synchronized Looper obtainCameraLooper() {
+        if (sCameraThread == null) {
+            sCameraThread = new HandlerThread(AsyncCameraDevice.class.getSimpleName());
+            sCameraThread.start();
+        }
+        return sCameraThread.getLooper();
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Handler mCameraHandler;
+    private final ICameraDevice mDevice;
+    private final OnCameraReadyListener mListener;
+
+    private final Choreographer.FrameCallback mContextChangedCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mIsContextChangeScheduled = false;
+            mCameraHandler.sendEmptyMessage(MSG_CONTEXT_CHANGED);
+        }
+    };
+
+    /**
+     * 以下变量仅在 UI 线程中访问
+     */
+    private boolean mIsOpenRequested;
+    private boolean mIsContextChangeScheduled;
+
+    AsyncCameraDevice(CameraContext context, OnCameraReadyListener listener) {
+        this.mListener = listener;
+        this.mCameraHandler = new Handler(obtainCameraLooper(), this);
+        this.mDevice = new Camera1Device(context, new CameraReadyDispatcher());
+    }
+
+    @MainThread
+    @Override
+    public void open() {
+        mIsOpenRequested = true;
+        // 合并尚未执行的打开请求
+        mCameraHandler.removeMessages(MSG_OPEN);
+        mCameraHandler.sendEmptyMessage(MSG_OPEN);
+    }
+
+    @MainThread
+    @Override
+    public void close() {
+        mIsOpenRequested = false;
+        // 取消尚未执行的打开请求
+        mCameraHandler.removeMessages(MSG_OPEN);
+        mCameraHandler.sendEmptyMessage(MSG_CLOSE);
+    }
+
+    @Override
+    public void takePicture(@NonNull PictureCallback callback) {
+        mCameraHandler.obtainMessage(MSG_TAKE_PICTURE, new PictureDispatcher(callback)).sendToTarget();
+    }
+
+    @Override
+    public boolean isCameraOpened() {
+        return mDevice.isCameraOpened();
+    }
+
+    /**
+     * 同一帧内的多次配置变更 (如旋转屏幕时的方向和尺寸变化) 会合并为一次重新配置
+     */
+    @MainThread
+    @Override
+    public void notifyContextChanged() {
+        if (mIsContextChangeScheduled) {
+            return;
+        }
+        mIsContextChangeScheduled = true;
+        Choreographer.getInstance().postFrameCallback(mContextChangedCallback);
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            // 打开相机
+            case MSG_OPEN:
+                mDevice.open();
+                break;
+            // 关闭相机
+            case MSG_CLOSE:
+                mDevice.close();
+                break;
+            // 拍照
+            case MSG_TAKE_PICTURE:
+                mDevice.takePicture((PictureCallback) msg.obj);
+                break;
+            // 配置变更
+            case MSG_CONTEXT_CHANGED:
+                mDevice.notifyContextChanged();
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * 将相机线程的预览就绪事件分发到 UI 线程
+     */
+    private class CameraReadyDispatcher implements OnCameraReadyListener {
+
+        @Override
+        public void onCameraReady(@NonNull final SurfaceTexture cameraTexture,
+                                  @NonNull final Size textureSize, final int displayRotation) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // 分发前相机已被关闭, 忽略
+                    if (mIsOpenRequested) {
+                        mListener.onCameraReady(cameraTexture, textureSize, displayRotation);
+                    }
+                }
+            });
+        }
+
+    }
+
+    /**
+     * 将相机线程的拍照结果分发到 UI 线程
+     */
+    private class PictureDispatcher implements PictureCallback {
+
+        private final PictureCallback mCallback;
+
+        PictureDispatcher(PictureCallback callback) {
+            this.mCallback = callback;
+        }
+
+        @Override
+        public void onPictureTaken(@NonNull final byte[] jpeg) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onPictureTaken(jpeg);
+                }
+            });
+        }
+
+        @Override
+        public void onPictureFailed(@NonNull final Throwable e) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onPictureFailed(e);
+                }
+            });
+        }
+
+    }
+
+}
@@ -1,17 +1,18 @@
 package com.sharry.lib.camera;
 
-import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.collection.SparseArrayCompat;
 
-import java.util.List;
-import java.util.SortedSet;
 
 /**
  * Camera1 实现的相机引擎
+ * <p>
+ * 非线程安全, 需在同一个 Looper 线程中调用, 相机的回调也会分发到该线程, 见 {@link AsyncCameraDevice}
  *
  * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
  * @version 1.0
@@ -31,15 +32,18 @@ class Camera1Device extends AbsCameraDevice {
     }
 
     private static final int MAGIC_TEXTURE_ID = 0;
-    private static final int INVALID_CAMERA_ID = -1;
 
-    private final Camera.CameraInfo mCameraInfo = new Camera.CameraInfo();
-    private final SizeMap mPreviewSizes = new SizeMap();
-    private final SizeMap mPictureSizes = new SizeMap();
     private final SurfaceTexture mBufferTexture;
+    private final PreviewFrameDispatcher mFrameDispatcher = new PreviewFrameDispatcher();
 
-    private Camera mImpl;
+    /**
+     * 在相机线程中赋值, 其他线程可能会读取打开状态
+     */
+    private volatile Camera mImpl;
     private Camera.Parameters mCameraParams;
+    private CameraCapabilities mCapabilities;
+    private Size mPreviewSize;
+    private boolean mIsTakingPicture;
 
     Camera1Device(CameraContext context, OnCameraReadyListener listener) {
         super(context, listener);
@@ -55,6 +59,8 @@ class Camera1Device extends AbsCameraDevice {
     public void open() {
         // Stop preview first.
         close();
+        // 同步最新的配置
+        syncContext();
         // 根据 Options 初始化相机
         startPreviewInternal();
     }
@@ -65,12 +71,14 @@ class Camera1Device extends AbsCameraDevice {
             try {
                 // 停止预览
                 mImpl.stopPreview();
+                mFrameDispatcher.detach();
                 /*
                  移除回调, 否则会扔出: Camera is being used after Camera.release() was called
                 */
                 mImpl.setPreviewCallback(null);
                 mImpl.release();
                 mImpl = null;
+                mIsTakingPicture = false;
                 Log.i(TAG, "Camera release success.");
             } catch (Throwable e) {
                 // ignore.
@@ -79,44 +87,73 @@ class Camera1Device extends AbsCameraDevice {
     }
 
     @Override
-    public Bitmap takePicture() {
-        close();
-        return null;
+    public void takePicture(@NonNull final PictureCallback callback) {
+        if (!isCameraOpened()) {
+            callback.onPictureFailed(new IllegalStateException("Camera is not opened."));
+            return;
+        }
+        // Camera1 不支持并发拍照, 前一次拍照未完成时直接回调失败
+        if (mIsTakingPicture) {
+            callback.onPictureFailed(new IllegalStateException("Camera is taking picture."));
+            return;
+        }
+        mIsTakingPicture = true;
+        try {
+            // 直接获取硬件编码的 JPEG 数据, 拍照后相机会自动停止预览
+            mImpl.takePicture(null, null, new Camera.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data, Camera camera) {
+                    mIsTakingPicture = false;
+                    if (data == null || data.length == 0) {
+                        callback.onPictureFailed(new IllegalStateException("Camera output empty jpeg data."));
+                    } else {
+                        callback.onPictureTaken(data);
+                    }
+                }
+            });
+        } catch (Throwable e) {
+            mIsTakingPicture = false;
+            Log.e(TAG, "Camera take picture failed.", e);
+            callback.onPictureFailed(e);
+        }
     }
 
     @Override
-    public void notifyAutoFocusChanged() {
-        // is previewing
-        if (isCameraOpened()) {
-            if (this.autoFocus == context.isAutoFocus()) {
-                return;
-            }
-            this.autoFocus = context.isAutoFocus();
-            // resetMatrix params
-            setAutoFocusInternal(autoFocus);
-            mImpl.setParameters(mCameraParams);
+    void restartPreview() {
+        final Size previewSize = choosePreviewSize();
+        // 预览尺寸未变化, 仅需更新参数
+        if (previewSize.equals(mPreviewSize)) {
+            updateParameters();
+            listener.onCameraReady(mBufferTexture, mPreviewSize, 0);
+            return;
         }
-        // not previewing
-        else {
-            this.autoFocus = context.isAutoFocus();
+        try {
+            mImpl.stopPreview();
+            mPreviewSize = previewSize;
+            mCameraParams.setPreviewSize(previewSize.getWidth(), previewSize.getHeight());
+            setupParametersInternal();
+            mImpl.setParameters(mCameraParams);
+            mImpl.setDisplayOrientation(calcPreviewFrameOrientation(screenOrientationDegrees));
+            setupFrameAnalysisInternal();
+            mImpl.startPreview();
+            listener.onCameraReady(mBufferTexture, previewSize, 0);
+            Log.i(TAG, "Camera restart preview success.");
+        } catch (Throwable e) {
+            Log.e(TAG, "Camera restart preview failed, try to reopen.", e);
+            open();
         }
     }
 
     @Override
-    public void notifyFlashModeChanged() {
-        // is previewing
-        if (isCameraOpened()) {
-            if (flashMode == context.getFlashMode()) {
-                return;
-            }
-            // resetMatrix params
-            if (setFlashInternal(context.getFlashMode())) {
-                mImpl.setParameters(mCameraParams);
-            }
-        }
-        // not previewing
-        else {
-            flashMode = context.getFlashMode();
+    void updateParameters() {
+        try {
+            setupParametersInternal();
+            mImpl.setParameters(mCameraParams);
+            // API 14 之后, 预览过程中允许修改预览方向
+            mImpl.setDisplayOrientation(calcPreviewFrameOrientation(screenOrientationDegrees));
+            setupFrameAnalysisInternal();
+        } catch (Throwable e) {
+            Log.e(TAG, "Camera update parameters failed.", e);
         }
     }
 
@@ -126,59 +163,28 @@ class Camera1Device extends AbsCameraDevice {
     private void startPreviewInternal() {
         try {
             // 1. 打开相机
-            int cameraId = chooseCamera(facing);
+            int cameraId = CameraCapabilities.findCameraId(facing);
             mImpl = Camera.open(cameraId);
             // 2. 设置相机参数
             mCameraParams = mImpl.getParameters();
-            /*
-             3. 设置预览尺寸
-             */
-            // 采集所有的预览尺寸
-            mPreviewSizes.clear();
-            for (Camera.Size size : mCameraParams.getSupportedPreviewSizes()) {
-                mPreviewSizes.add(new Size(size.width, size.height));
-            }
-            // 获取用户期望的比例的集合
-            SortedSet<Size> previewSizes = mPreviewSizes.sizes(aspectRatio);
-            if (previewSizes == null) {
-                // 用户期望的比例不存在, 获取默认比例
-                previewSizes = mPreviewSizes.sizes(chooseDefaultAspectRatio());
-            }
-            final Size previewSize = chooseOptimalPreviewSize(previewSizes);
-            mCameraParams.setPreviewSize(previewSize.getWidth(), previewSize.getHeight());
-
-            /*
-             4. 设置拍照尺寸
-             */
-            // 采集所有照片的尺寸
-            mPictureSizes.clear();
-            for (Camera.Size size : mCameraParams.getSupportedPictureSizes()) {
-                mPictureSizes.add(new Size(size.width, size.height));
-            }
-            // 获取用户期望的比例集合
-            SortedSet<Size> pictureSizes = mPictureSizes.sizes(aspectRatio);
-            if (pictureSizes == null) {
-                // 用户期望的尺寸不存在, 获取默认比例
-                pictureSizes = mPreviewSizes.sizes(chooseDefaultAspectRatio());
-            }
-            // 选择期望集合中, 尺寸最大的一个, 保证拍照后输出图像的清晰度
-            Size pictureSize = pictureSizes.last();
-            mCameraParams.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
-            // 5. 设置拍摄后的图像输出的方向
-            mCameraParams.setRotation(calcTakenPictureRotation(screenOrientationDegrees));
-            // 6. 处理自动对焦
-            setAutoFocusInternal(autoFocus);
-            // 7. 处理闪光灯变化
-            setFlashInternal(flashMode);
+            // 3. 获取相机能力, 仅首次打开该相机时采集
+            mCapabilities = CameraCapabilities.obtain(cameraId, mCameraParams);
+            // 4. 设置预览尺寸
+            mPreviewSize = choosePreviewSize();
+            mCameraParams.setPreviewSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            mCameraParams.setPreviewFormat(ImageFormat.NV21);
+            // 5. 设置拍照尺寸, 方向, 对焦和闪光灯
+            setupParametersInternal();
             mImpl.setParameters(mCameraParams);
-            // 8. 设置预览帧的图像的输出方向
+            // 6. 设置预览帧的图像的输出方向
             mImpl.setDisplayOrientation(calcPreviewFrameOrientation(screenOrientationDegrees));
-            // 9. 设置图像输出的画布
+            // 7. 设置图像输出的画布和预览帧分析
             mImpl.setPreviewTexture(mBufferTexture);
-            // 10. 启动预览
+            setupFrameAnalysisInternal();
+            // 8. 启动预览
             mImpl.startPreview();
-            // 6. 通知外界, Camera 数据准备好了
-            listener.onCameraReady(mBufferTexture, previewSize, 0);
+            // 9. 通知外界, Camera 数据准备好了
+            listener.onCameraReady(mBufferTexture, mPreviewSize, 0);
             Log.i(TAG, "Camera start preview success.");
         } catch (Throwable e) {
             Log.e(TAG, "Camera start preview failed.", e);
@@ -187,32 +193,53 @@ class Camera1Device extends AbsCameraDevice {
     }
 
     /**
-     * 选择相机 id
+     * 选择预览尺寸
      */
-    private int chooseCamera(int facing) {
-        int cameraId = INVALID_CAMERA_ID;
-        for (int i = 0, count = Camera.getNumberOfCameras(); i < count; i++) {
-            Camera.getCameraInfo(i, mCameraInfo);
-            if (mCameraInfo.facing == facing) {
-                cameraId = i;
-                break;
-            }
+    private Size choosePreviewSize() {
+        // 获取用户期望的比例的集合
+        Size[] previewSizes = mCapabilities.previewSizes(aspectRatio);
+        if (previewSizes == null) {
+            // 用户期望的比例不存在, 获取默认比例
+            previewSizes = mCapabilities.previewSizes(mCapabilities.defaultAspectRatio);
         }
-        return cameraId;
+        return chooseOptimalPreviewSize(previewSizes);
     }
 
     /**
-     * 获取默认比例
+     * 设置除预览尺寸之外, 可以在预览过程中修改的参数
+     * <p>
+     * it will modify {@link #mCameraParams}.
      */
-    private AspectRatio chooseDefaultAspectRatio() {
-        AspectRatio result = null;
-        for (AspectRatio ratio : mPreviewSizes.ratios()) {
-            result = ratio;
-            if (AspectRatio.DEFAULT.equals(ratio)) {
-                break;
-            }
+    private void setupParametersInternal() {
+        // 获取用户期望的比例集合
+        Size[] pictureSizes = mCapabilities.pictureSizes(aspectRatio);
+        if (pictureSizes == null) {
+            // 用户期望的尺寸不存在, 获取默认比例
+            pictureSizes = mCapabilities.pictureSizes(mCapabilities.defaultAspectRatio);
         }
-        return result;
+        if (pictureSizes == null) {
+            // 默认比例也不存在, 使用与预览相同的尺寸
+            pictureSizes = mCapabilities.previewSizes(mCapabilities.defaultAspectRatio);
+        }
+        // 选择期望集合中, 尺寸最大的一个, 保证拍照后输出图像的清晰度
+        Size pictureSize = pictureSizes[pictureSizes.length - 1];
+        mCameraParams.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
+        mCameraParams.setPictureFormat(ImageFormat.JPEG);
+        mCameraParams.setJpegQuality(context.getPictureQuality());
+        // 设置拍摄后的图像输出的方向
+        mCameraParams.setRotation(calcTakenPictureRotation(screenOrientationDegrees));
+        // 处理自动对焦
+        setAutoFocusInternal(autoFocus);
+        // 处理闪光灯变化
+        setFlashInternal(context.getFlashMode());
+    }
+
+    /**
+     * 设置预览帧分析, 未设置分析器时不会注册预览回调
+     */
+    private void setupFrameAnalysisInternal() {
+        mFrameDispatcher.attach(mImpl, frameAnalyzer, mPreviewSize,
+                calcAnalysisRotation(screenOrientationDegrees));
     }
 
     /**
@@ -221,15 +248,15 @@ class Camera1Device extends AbsCameraDevice {
      * it will modify {@link #mCameraParams}.
      */
     private void setAutoFocusInternal(boolean autoFocus) {
-        final List<String> modes = mCameraParams.getSupportedFocusModes();
-        if (autoFocus && modes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+        final CameraCapabilities caps = mCapabilities;
+        if (autoFocus && caps.isFocusModeSupported(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
             mCameraParams.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
-        } else if (modes.contains(Camera.Parameters.FOCUS_MODE_FIXED)) {
+        } else if (caps.isFocusModeSupported(Camera.Parameters.FOCUS_MODE_FIXED)) {
             mCameraParams.setFocusMode(Camera.Parameters.FOCUS_MODE_FIXED);
-        } else if (modes.contains(Camera.Parameters.FOCUS_MODE_INFINITY)) {
+        } else if (caps.isFocusModeSupported(Camera.Parameters.FOCUS_MODE_INFINITY)) {
             mCameraParams.setFocusMode(Camera.Parameters.FOCUS_MODE_INFINITY);
-        } else {
-            mCameraParams.setFocusMode(modes.get(0));
+        } else if (caps.firstFocusMode() != null) {
+            mCameraParams.setFocusMode(caps.firstFocusMode());
         }
     }
 
@@ -239,15 +266,14 @@ class Camera1Device extends AbsCameraDevice {
      * @return {@code true} if {@link #mCameraParams} was modified.
      */
     private boolean setFlashInternal(int flash) {
-        List<String> modes = mCameraParams.getSupportedFlashModes();
         String mode = FLASH_MODES.get(flash);
-        if (modes != null && modes.contains(mode)) {
+        if (mCapabilities.isFlashModeSupported(mode)) {
             mCameraParams.setFlashMode(mode);
             flashMode = flash;
             return true;
         }
         String currentMode = FLASH_MODES.get(flashMode);
-        if (modes == null || !modes.contains(currentMode)) {
+        if (!mCapabilities.isFlashModeSupported(currentMode)) {
             mCameraParams.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
             flashMode = Constants.FLASH_OFF;
             return true;
@@ -258,7 +284,7 @@ class Camera1Device extends AbsCameraDevice {
     /**
      * 选择最合适的预览尺寸
      */
-    private Size chooseOptimalPreviewSize(SortedSet<Size> sizes) {
+    private Size chooseOptimalPreviewSize(Size[] sizes) {
         int desiredWidth;
         int desiredHeight;
         if (isLandscape()) {
@@ -268,15 +294,7 @@ class Camera1Device extends AbsCameraDevice {
             desiredWidth = previewHeight;
             desiredHeight = previewWidth;
         }
-        Size result = null;
-        for (Size size : sizes) {
-            result = size;
-            // Iterate from small to large
-            if (desiredWidth <= size.getWidth() && desiredHeight <= size.getHeight()) {
-                break;
-            }
-        }
-        return result;
+        return CameraCapabilities.chooseOptimalSize(sizes, desiredWidth, desiredHeight);
     }
 
     /**
@@ -291,11 +309,25 @@ class Camera1Device extends AbsCameraDevice {
      * @return Number of degrees to rotate image in order for it to view correctly.
      */
     private int calcTakenPictureRotation(int screenOrientationDegrees) {
-        if (mCameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            return (mCameraInfo.orientation + screenOrientationDegrees) % 360;
+        if (mCapabilities.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            return (mCapabilities.sensorOrientation + screenOrientationDegrees) % 360;
         } else {  // back-facing
             final int landscapeFlip = isLandscape() ? 180 : 0;
-            return (mCameraInfo.orientation + screenOrientationDegrees + landscapeFlip) % 360;
+            return (mCapabilities.sensorOrientation + screenOrientationDegrees + landscapeFlip) % 360;
+        }
+    }
+
+    /**
+     * Calculate the clockwise rotation that makes a preview frame upright on the screen.
+     *
+     * @param screenOrientationDegrees Screen orientation in degrees
+     * @return Number of degrees to rotate the NV21 preview frame
+     */
+    private int calcAnalysisRotation(int screenOrientationDegrees) {
+        if (mCapabilities.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            return (mCapabilities.sensorOrientation + screenOrientationDegrees) % 360;
+        } else {  // back-facing
+            return (mCapabilities.sensorOrientation - screenOrientationDegrees + 360) % 360;
         }
     }
 
@@ -313,14 +345,14 @@ class Camera1Device extends AbsCameraDevice {
     private int calcPreviewFrameOrientation(int screenOrientationDegrees) {
         int result;
         // front-facing
-        if (mCameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            result = (mCameraInfo.orientation + screenOrientationDegrees) % 360;
+        if (mCapabilities.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            result = (mCapabilities.sensorOrientation + screenOrientationDegrees) % 360;
             // compensate the mirror
             result = (360 - result) % 360;
         }
         // back-facing
         else {
-            result = (mCameraInfo.orientation - screenOrientationDegrees + 360) % 360;
+            result = (mCapabilities.sensorOrientation - screenOrientationDegrees + 360) % 360;
         }
         return result;
     }
@@ -0,0 +1,184 @@
+package com.sharry.lib.camera;
+
+import android.hardware.Camera;
+import android.util.ArrayMap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.SparseArrayCompat;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * 相机能力的不可变描述
+ * <p>
+ * 相机支持的尺寸, 对焦模式, 闪光灯模式和传感器方向在进程生命周期内不会变化,
+ * 首次打开相机时采集并按照相机 id 缓存, 之后的切换和重新打开均只需 O(1) 查询
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-18
+ */
+final class CameraCapabilities {
+
+    static final int INVALID_CAMERA_ID = -1;
+
+    private static final SparseArrayCompat<CameraCapabilities> CACHE = new SparseArrayCompat<>();
+    private static Camera.CameraInfo[] sCameraInfos;
+
+    /**
+     * 根据朝向查找相机 id
+     *
+     * @return 不存在时返回 {@link #INVALID_CAMERA_ID}
+     */
+    static synchronized int findCameraId(int facing) {
+        if (sCameraInfos == null) {
+            int count = Camera.getNumberOfCameras();
+            sCameraInfos = new Camera.CameraInfo[count];
+            for (int i = 0; i < count; i++) {
+                sCameraInfos[i] = new Camera.CameraInfo();
+                Camera.getCameraInfo(i, sCameraInfos[i]);
+            }
+        }
+        for (int i = 0; i < sCameraInfos.length; i++) {
+            if (sCameraInfos[i].facing == facing) {
+                return i;
+            }
+        }
+        return INVALID_CAMERA_ID;
+    }
+
+    /**
+     * 获取相机能力, 首次获取时使用打开后的相机参数构建
+     */
+    @NonNull
+    static synchronized CameraCapabilities obtain(int cameraId, @NonNull Camera.Parameters params) {
+        CameraCapabilities capabilities = CACHE.get(cameraId);
+        if (capabilities == null) {
+            Camera.CameraInfo info = new Camera.CameraInfo();
+            Camera.getCameraInfo(cameraId, info);
+            capabilities = new CameraCapabilities(cameraId, info, params);
+            CACHE.put(cameraId, capabilities);
+        }
+        return capabilities;
+    }
+
+    /**
+     * 在升序排列的同比例尺寸中, 二分查找第一个宽高都不小于期望值的尺寸
+     * <p>
+     * 同比例的尺寸宽高随面积单调递增, 不存在满足条件的尺寸时返回最大的一个
+     */
+    @NonNull
+    static Size chooseOptimalSize(@NonNull Size[] sizes, int desiredWidth, int desiredHeight) {
+        int low = 0;
+        int high = sizes.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            Size size = sizes[mid];
+            if (desiredWidth <= size.getWidth() && desiredHeight <= size.getHeight()) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return sizes[low];
+    }
+
+    final int cameraId;
+    final int facing;
+    final int sensorOrientation;
+    final AspectRatio defaultAspectRatio;
+    private final Map<AspectRatio, Size[]> mPreviewSizes;
+    private final Map<AspectRatio, Size[]> mPictureSizes;
+    private final Set<String> mFocusModes;
+    private final Set<String> mFlashModes;
+
+    private CameraCapabilities(int cameraId, Camera.CameraInfo info, Camera.Parameters params) {
+        this.cameraId = cameraId;
+        this.facing = info.facing;
+        this.sensorOrientation = info.orientation;
+        // 按比例分组并排序
+        SizeMap previewSizes = new SizeMap();
+        for (Camera.Size size : params.getSupportedPreviewSizes()) {
+            previewSizes.add(new Size(size.width, size.height));
+        }
+        SizeMap pictureSizes = new SizeMap();
+        for (Camera.Size size : params.getSupportedPictureSizes()) {
+            pictureSizes.add(new Size(size.width, size.height));
+        }
+        this.mPreviewSizes = freeze(previewSizes);
+        this.mPictureSizes = freeze(pictureSizes);
+        this.defaultAspectRatio = chooseDefaultAspectRatio(previewSizes);
+        this.mFocusModes = freeze(params.getSupportedFocusModes());
+        this.mFlashModes = freeze(params.getSupportedFlashModes());
+    }
+
+    /**
+     * 获取指定比例的预览尺寸, 按面积升序排列
+     */
+    @Nullable
+    Size[] previewSizes(AspectRatio ratio) {
+        return mPreviewSizes.get(ratio);
+    }
+
+    /**
+     * 获取指定比例的拍照尺寸, 按面积升序排列
+     */
+    @Nullable
+    Size[] pictureSizes(AspectRatio ratio) {
+        return mPictureSizes.get(ratio);
+    }
+
+    boolean isFocusModeSupported(String mode) {
+        return mFocusModes.contains(mode);
+    }
+
+    /**
+     * 获取相机声明的第一个对焦模式, 作为最终的回退
+     */
+    @Nullable
+    String firstFocusMode() {
+        return mFocusModes.isEmpty() ? null : mFocusModes.iterator().next();
+    }
+
+    boolean isFlashModeSupported(String mode) {
+        return mFlashModes.contains(mode);
+    }
+
+    private static Map<AspectRatio, Size[]> freeze(SizeMap sizeMap) {
+        Map<AspectRatio, Size[]> result = new ArrayMap<>();
+        for (AspectRatio ratio : sizeMap.ratios()) {
+            SortedSet<Size> sizes = sizeMap.sizes(ratio);
+            result.put(ratio, sizes.toArray(new Size[0]));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static Set<String> freeze(@Nullable List<String> modes) {
+        if (modes == null) {
+            return Collections.emptySet();
+        }
+        // 保持相机声明的顺序
+        return Collections.unmodifiableSet(new LinkedHashSet<>(modes));
+    }
+
+    /**
+     * 获取默认比例
+     */
+    private static AspectRatio chooseDefaultAspectRatio(SizeMap sizeMap) {
+        AspectRatio result = null;
+        for (AspectRatio ratio : sizeMap.ratios()) {
+            result = ratio;
+            if (AspectRatio.DEFAULT.equals(ratio)) {
+                break;
+            }
+        }
+        return result;
+    }
+
+}
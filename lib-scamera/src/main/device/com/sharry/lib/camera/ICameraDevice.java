@@ -1,6 +1,5 @@
 package com.sharry.lib.camera;
 
-import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 
 import androidx.annotation.NonNull;
@@ -18,21 +17,19 @@ interface ICameraDevice {
 
     void close();
 
-    Bitmap takePicture();
+    /**
+     * 使用相机选定的拍照尺寸拍摄一张照片, 结果以 JPEG 数据回调
+     */
+    void takePicture(@NonNull PictureCallback callback);
 
     boolean isCameraOpened();
 
-    void notifyFacingChanged();
-
-    void notifyAspectRatioChanged();
-
-    void notifyAutoFocusChanged();
-
-    void notifyFlashModeChanged();
-
-    void notifyScreenOrientationChanged();
-
-    void notifyDesiredSizeChanged();
+    /**
+     * 通知 {@link CameraContext} 中的配置发生了变更
+     * <p>
+     * 设备会对比当前生效的配置, 选择参数更新, 重启预览或重新打开相机中代价最小的一种方式应用变更
+     */
+    void notifyContextChanged();
 
     interface OnCameraReadyListener {
 
@@ -0,0 +1,211 @@
+package com.sharry.lib.camera;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 预览帧分发器
+ * <p>
+ * 使用 {@link Camera#setPreviewCallbackWithBuffer} 和固定数量的预分配缓冲接收 NV21 帧,
+ * 分析线程繁忙时直接将帧归还给相机, 不产生任何堆积
+ * <p>
+ * 除 {@link #performAnalyze} 外, 所有方法均在相机线程中调用
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-18
+ */
+final class PreviewFrameDispatcher implements Camera.PreviewCallback {
+
+    private static final String TAG = PreviewFrameDispatcher.class.getSimpleName();
+
+    /**
+     * 缓冲池的大小, 分析中占用一个, 其余交由相机填充
+     */
+    private static final int BUFFER_COUNT = 3;
+    private static final long STATISTICS_INTERVAL_MS = 1000;
+
+    private static final ThreadPoolExecutor ANALYZE_EXECUTOR;
+
+    static {
+        ANALYZE_EXECUTOR = new ThreadPoolExecutor(
+                1, 1,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        Thread thread = new Thread(r, PreviewFrameDispatcher.class.getSimpleName());
+                        thread.setDaemon(false);
+                        return thread;
+                    }
+                }
+        );
+        ANALYZE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final AtomicBoolean mIsAnalyzing = new AtomicBoolean(false);
+    private final AtomicInteger mAnalyzedCount = new AtomicInteger(0);
+    private Handler mCameraHandler;
+    private byte[][] mBuffers;
+    private byte[] mAnalyzingBuffer;
+    private Camera mCamera;
+    private FrameAnalyzer mAnalyzer;
+    private int mFrameWidth;
+    private int mFrameHeight;
+    private int mRotationDegrees;
+    private int mDroppedCount;
+    private long mStatisticsStartTime;
+
+    /**
+     * 开始向 analyzer 分发预览帧, 预览尺寸变化或相机重新打开后需要重新调用
+     */
+    void attach(@NonNull Camera camera, @Nullable FrameAnalyzer analyzer, @NonNull Size previewSize,
+                int rotationDegrees) {
+        if (analyzer == null) {
+            detach();
+            return;
+        }
+        if (mCameraHandler == null) {
+            mCameraHandler = new Handler(Looper.myLooper());
+        }
+        mAnalyzer = analyzer;
+        mRotationDegrees = rotationDegrees;
+        boolean isSizeChanged = mFrameWidth != previewSize.getWidth()
+                || mFrameHeight != previewSize.getHeight();
+        // 相机与尺寸均未变化, 已经投递的缓冲依旧有效
+        if (mCamera == camera && !isSizeChanged) {
+            return;
+        }
+        mCamera = camera;
+        mFrameWidth = previewSize.getWidth();
+        mFrameHeight = previewSize.getHeight();
+        if (mBuffers == null || isSizeChanged) {
+            int bufferSize = mFrameWidth * mFrameHeight
+                    * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+            mBuffers = new byte[BUFFER_COUNT][bufferSize];
+        }
+        camera.setPreviewCallbackWithBuffer(this);
+        for (byte[] buffer : mBuffers) {
+            // 分析中的缓冲在归还时再投递
+            if (buffer != mAnalyzingBuffer) {
+                camera.addCallbackBuffer(buffer);
+            }
+        }
+        mDroppedCount = 0;
+        mAnalyzedCount.set(0);
+        mStatisticsStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * 停止分发, 相机释放前调用
+     */
+    void detach() {
+        if (mCamera != null) {
+            try {
+                mCamera.setPreviewCallbackWithBuffer(null);
+            } catch (Throwable e) {
+                // ignore.
+            }
+        }
+        mCamera = null;
+        mAnalyzer = null;
+    }
+
+    @Override
+    public void onPreviewFrame(final byte[] data, final Camera camera) {
+        final FrameAnalyzer analyzer = mAnalyzer;
+        if (data == null || analyzer == null || camera != mCamera) {
+            return;
+        }
+        dispatchStatistics(analyzer);
+        // 分析线程繁忙, 丢弃这一帧并立即归还缓冲
+        if (!mIsAnalyzing.compareAndSet(false, true)) {
+            mDroppedCount++;
+            camera.addCallbackBuffer(data);
+            return;
+        }
+        mAnalyzingBuffer = data;
+        final int width = mFrameWidth;
+        final int height = mFrameHeight;
+        final int rotationDegrees = mRotationDegrees;
+        ANALYZE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                performAnalyze(analyzer, data, width, height, rotationDegrees);
+            }
+        });
+    }
+
+    private void performAnalyze(FrameAnalyzer analyzer, final byte[] data, int width, int height,
+                                int rotationDegrees) {
+        try {
+            analyzer.analyze(data, width, height, rotationDegrees);
+            mAnalyzedCount.incrementAndGet();
+        } catch (Throwable e) {
+            Log.e(TAG, "Analyze preview frame failed.", e);
+        } finally {
+            // 回到相机线程归还缓冲
+            mCameraHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    recycleBuffer(data);
+                }
+            });
+            mIsAnalyzing.set(false);
+        }
+    }
+
+    private void recycleBuffer(byte[] data) {
+        if (mAnalyzingBuffer == data) {
+            mAnalyzingBuffer = null;
+        }
+        // 尺寸变化后旧的缓冲已不在池中, 直接丢弃
+        if (mCamera == null || !isPooled(data)) {
+            return;
+        }
+        mCamera.addCallbackBuffer(data);
+    }
+
+    private boolean isPooled(byte[] data) {
+        for (byte[] buffer : mBuffers) {
+            if (buffer == data) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dispatchStatistics(final FrameAnalyzer analyzer) {
+        long now = SystemClock.elapsedRealtime();
+        long elapsed = now - mStatisticsStartTime;
+        if (elapsed < STATISTICS_INTERVAL_MS) {
+            return;
+        }
+        final int analyzedPerSecond = (int) (mAnalyzedCount.getAndSet(0) * 1000 / elapsed);
+        final int droppedPerSecond = (int) (mDroppedCount * 1000L / elapsed);
+        mDroppedCount = 0;
+        mStatisticsStartTime = now;
+        ANALYZE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                analyzer.onStatistics(analyzedPerSecond, droppedPerSecond);
+            }
+        });
+    }
+
+}
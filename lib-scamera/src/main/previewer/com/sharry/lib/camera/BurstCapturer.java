@@ -0,0 +1,365 @@
+package com.sharry.lib.camera;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.sharry.lib.opengles.TextureReader;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连拍采集器
+ * <p>
+ * 预览不中断, 在渲染线程中通过 {@link TextureReader} 将相机 FBO 纹理读取到预分配的环形缓冲中, 由编码线程池写出 JPEG
+ * <p>
+ * 环形缓冲中没有空闲帧时, 当前帧直接丢弃, 并计入丢帧数
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-16
+ */
+final class BurstCapturer {
+
+    private static final String TAG = BurstCapturer.class.getSimpleName();
+
+    /**
+     * 环形缓冲的帧数, 即同时进行中的读取请求数
+     */
+    static final int RING_SIZE = 3;
+
+    /**
+     * 编码线程数
+     */
+    private static final int ENCODER_COUNT = 2;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final TextureReader mTextureReader;
+    /**
+     * 每个采集器独立的编码线程池, 同时处理的帧数不会超过自身环形缓冲的大小
+     */
+    private final ThreadPoolExecutor mEncodeExecutor;
+    private final ArrayBlockingQueue<Frame> mFreeFrames = new ArrayBlockingQueue<>(RING_SIZE);
+
+    /**
+     * 当前的连拍请求, 仅在 UI 线程中赋值
+     */
+    private volatile Request mRequest;
+
+    /**
+     * 以下变量仅在渲染线程中访问
+     */
+    private int mFrameWidth;
+    private int mFrameHeight;
+
+    /**
+     * @param textureReader 由渲染线程驱动的纹理读取器, 读取请求在后续帧中完成
+     */
+    BurstCapturer(@NonNull TextureReader textureReader) {
+        mTextureReader = textureReader;
+        mEncodeExecutor = new ThreadPoolExecutor(
+                ENCODER_COUNT, ENCODER_COUNT,
+                30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(RING_SIZE),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        Thread thread = new Thread(r, BurstCapturer.class.getSimpleName());
+                        thread.setDaemon(false);
+                        return thread;
+                    }
+                }
+        );
+        // 连拍为低频操作, 允许核心线程销毁
+        mEncodeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 开始连拍
+     */
+    void start(int count, int quality, @NonNull BurstCallback callback) {
+        if (mRequest != null) {
+            Log.w(TAG, "Burst is running, ignore this request.");
+            return;
+        }
+        mRequest = new Request(count, quality, callback);
+    }
+
+    /**
+     * 停止连拍, 已采集的帧会继续写出
+     */
+    void stop() {
+        Request request = mRequest;
+        if (request == null) {
+            return;
+        }
+        synchronized (request) {
+            request.isStopped = true;
+            // 渲染线程已开始采集, 由渲染线程在下一帧结束采集, 写出后再回调完成
+            if (request.startTime != 0 || request.isCaptureFinished) {
+                return;
+            }
+            // 尚未采集到任何帧, 渲染线程之后也不会再采集, 直接结束
+            request.isCaptureFinished = true;
+        }
+        mRequest = null;
+        request.callback.onBurstComplete(0, request.droppedCount, 0f);
+    }
+
+    /**
+     * 每一帧绘制完成后在渲染线程中调用
+     */
+    @WorkerThread
+    void onFrameDrawn(int textureId, int width, int height) {
+        Request request = mRequest;
+        if (request == null) {
+            // 连拍结束, 释放环形缓冲
+            if (mFrameWidth != 0) {
+                releaseFrames();
+            }
+            return;
+        }
+        if (textureId == 0 || width <= 0 || height <= 0) {
+            return;
+        }
+        // 与 stop 互斥, 保证开始采集后的完成回调只由渲染线程发出
+        synchronized (request) {
+            if (request.isCaptureFinished) {
+                return;
+            }
+            if (request.isStopped || request.capturedCount >= request.count) {
+                finishCapture(request);
+                return;
+            }
+            if (request.startTime == 0) {
+                request.startTime = SystemClock.elapsedRealtime();
+            }
+        }
+        // 尺寸变化时, 需等待所有帧写出后再重新分配
+        if (!prepareFrames(width, height)) {
+            request.droppedCount++;
+            return;
+        }
+        Frame frame = mFreeFrames.poll();
+        if (frame == null) {
+            // 编码线程繁忙, 丢弃这一帧
+            request.droppedCount++;
+            return;
+        }
+        frame.request = request;
+        frame.index = request.capturedCount;
+        request.capturedCount++;
+        // 像素在后续帧中读取完成后, 由 Frame 提交到编码线程池
+        mTextureReader.readPixels(frame);
+        if (request.capturedCount >= request.count) {
+            finishCapture(request);
+        }
+    }
+
+    /**
+     * 在渲染线程中释放 EGL 上下文前调用, 结束当前的采集
+     * <p>
+     * 尚未读取完成的帧由 {@link TextureReader#release()} 回调失败
+     */
+    @WorkerThread
+    void release() {
+        Request request = mRequest;
+        if (request == null) {
+            return;
+        }
+        synchronized (request) {
+            if (!request.isCaptureFinished) {
+                finishCapture(request);
+            }
+        }
+    }
+
+    private boolean prepareFrames(int width, int height) {
+        if (width == mFrameWidth && height == mFrameHeight) {
+            return true;
+        }
+        if (mFrameWidth != 0 && mFreeFrames.size() != RING_SIZE) {
+            return false;
+        }
+        mFreeFrames.clear();
+        for (int i = 0; i < RING_SIZE; i++) {
+            mFreeFrames.offer(new Frame(width, height));
+        }
+        mFrameWidth = width;
+        mFrameHeight = height;
+        return true;
+    }
+
+    private void releaseFrames() {
+        mFreeFrames.clear();
+        mFrameWidth = 0;
+        mFrameHeight = 0;
+    }
+
+    private void finishCapture(final Request request) {
+        request.captureDuration = request.startTime == 0 ? 0
+                : SystemClock.elapsedRealtime() - request.startTime;
+        request.isCaptureFinished = true;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                performDeliver(request);
+            }
+        });
+    }
+
+    /**
+     * 在 UI 线程中按拍摄顺序分发结果
+     */
+    private void performDeliver(Request request) {
+        while (request.deliveredCount < request.capturedCount) {
+            int index = request.deliveredCount;
+            int result = request.results[index];
+            if (result == Request.RESULT_PENDING) {
+                break;
+            }
+            request.deliveredCount++;
+            if (result == Request.RESULT_SUCCESS) {
+                request.callback.onFrameSaved(index);
+            } else {
+                request.callback.onFrameFailed(index, request.errors[index]);
+            }
+        }
+        if (!request.isCaptureFinished || request.deliveredCount < request.capturedCount
+                || mRequest != request) {
+            return;
+        }
+        mRequest = null;
+        float fps = request.captureDuration > 0 ?
+                request.capturedCount * 1000f / request.captureDuration : 0f;
+        Log.i(TAG, "Burst complete: captured = " + request.capturedCount + ", dropped = "
+                + request.droppedCount + ", fps = " + fps);
+        request.callback.onBurstComplete(request.capturedCount, request.droppedCount, fps);
+    }
+
+    /**
+     * 一次连拍请求
+     * <p>
+     * isStopped, isCaptureFinished 和 startTime 的检查与修改需持有请求自身的锁
+     */
+    private static class Request {
+
+        static final int RESULT_PENDING = 0;
+        static final int RESULT_SUCCESS = 1;
+        static final int RESULT_FAILED = 2;
+
+        final int count;
+        final int quality;
+        final BurstCallback callback;
+        final int[] results;
+        final Throwable[] errors;
+        volatile boolean isStopped;
+        volatile boolean isCaptureFinished;
+        volatile int capturedCount;
+        volatile int droppedCount;
+        volatile long captureDuration;
+        volatile long startTime;
+        int deliveredCount;
+
+        Request(int count, int quality, BurstCallback callback) {
+            this.count = count;
+            this.quality = quality;
+            this.callback = callback;
+            this.results = new int[count];
+            this.errors = new Throwable[count];
+        }
+
+    }
+
+    /**
+     * 环形缓冲中的一帧, 读取完成后作为编码任务提交到线程池
+     */
+    private class Frame implements TextureReader.PixelsCallback, Runnable {
+
+        final Bitmap bitmap;
+        Request request;
+        int index;
+
+        Frame(int width, int height) {
+            this.bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+
+        @Override
+        public void onPixelsRead(@NonNull ByteBuffer pixels, int width, int height) {
+            // 请求发出后画布尺寸可能已经变化
+            if (width != bitmap.getWidth() || height != bitmap.getHeight()) {
+                deliver(new IllegalStateException("Frame size changed during burst."));
+                return;
+            }
+            try {
+                bitmap.copyPixelsFromBuffer(pixels);
+                mEncodeExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // 不能让这一帧停留在等待状态, 否则连拍永远不会结束
+                deliver(e);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Copy burst frame " + index + " failed.", e);
+                deliver(e);
+            }
+        }
+
+        @Override
+        public void onReadFailed(@NonNull Throwable e) {
+            deliver(e);
+        }
+
+        @Override
+        public void run() {
+            Throwable error = null;
+            OutputStream out = null;
+            try {
+                out = request.callback.onCreateOutput(index);
+                bitmap.compress(Bitmap.CompressFormat.JPEG, request.quality, out);
+                out.flush();
+            } catch (Throwable e) {
+                Log.e(TAG, "Encode burst frame " + index + " failed.", e);
+                error = e;
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (Throwable e) {
+                        // ignore.
+                    }
+                }
+            }
+            deliver(error);
+        }
+
+        /**
+         * 记录结果并归还到环形缓冲
+         */
+        void deliver(Throwable error) {
+            final Request request = this.request;
+            final int index = this.index;
+            request.results[index] = error == null ? Request.RESULT_SUCCESS : Request.RESULT_FAILED;
+            request.errors[index] = error;
+            this.request = null;
+            mFreeFrames.offer(this);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    performDeliver(request);
+                }
+            });
+        }
+
+    }
+
+}
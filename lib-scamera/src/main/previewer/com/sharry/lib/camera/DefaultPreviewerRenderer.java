@@ -92,6 +92,16 @@ public class DefaultPreviewerRenderer extends PreviewerRendererWrapper {
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
 
+    @Override
+    public void onRendererReleased() {
+        if (mVboId != 0) {
+            GLES20.glDeleteBuffers(1, new int[]{mVboId}, 0);
+        }
+        // 程序由缓存管理, 随上下文一起释放
+        reset();
+        super.onRendererReleased();
+    }
+
     private void reset() {
         this.mProgramId = 0;
         this.mVboId = 0;
@@ -101,7 +111,7 @@ public class DefaultPreviewerRenderer extends PreviewerRendererWrapper {
         if (mProgramId != 0) {
             return;
         }
-        mProgramId = GlUtil.createProgram(VERTEX_SHADER_STR, FRAGMENT_SHADER_STR);
+        mProgramId = GlUtil.obtainProgram(VERTEX_SHADER_STR, FRAGMENT_SHADER_STR);
         aVertexPosition = GLES20.glGetAttribLocation(mProgramId, "aVertexPosition");
         aTexturePosition = GLES20.glGetAttribLocation(mProgramId, "aTexturePosition");
         uTexture = GLES20.glGetUniformLocation(mProgramId, "uTexture");
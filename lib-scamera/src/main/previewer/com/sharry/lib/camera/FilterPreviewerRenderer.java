@@ -0,0 +1,74 @@
+package com.sharry.lib.camera;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.sharry.lib.opengles.GlFilter;
+import com.sharry.lib.opengles.GlFilterChain;
+
+/**
+ * 支持多 pass 滤镜的预览渲染器
+ * <p>
+ * 相机纹理依次经过 {@link GlFilterChain} 中的滤镜后再绘制到屏幕, 拍照和录制获取到的也是滤镜处理后的纹理
+ *
+ * @author Sharry <a href="sharrychoochn@gmail.com">Contact me.</a>
+ * @version 1.0
+ * @since 2019-10-18
+ */
+public class FilterPreviewerRenderer extends DefaultPreviewerRenderer {
+
+    private final GlFilterChain mFilterChain = new GlFilterChain();
+    private volatile int mOutputTextureId;
+
+    public FilterPreviewerRenderer(Context context) {
+        super(context);
+    }
+
+    /**
+     * 追加一个滤镜, 可在任意线程调用, 下一帧生效
+     */
+    public void addFilter(@NonNull GlFilter filter) {
+        mFilterChain.addFilter(filter);
+    }
+
+    /**
+     * 移除一个滤镜, 可在任意线程调用, 下一帧生效
+     */
+    public void removeFilter(@NonNull GlFilter filter) {
+        mFilterChain.removeFilter(filter);
+    }
+
+    /**
+     * 移除所有的滤镜
+     */
+    public void clearFilters() {
+        mFilterChain.clearFilters();
+    }
+
+    @Override
+    public void onEGLContextCreated() {
+        super.onEGLContextCreated();
+        mOutputTextureId = 0;
+        mFilterChain.onEGLContextCreated();
+    }
+
+    @Override
+    public void onSurfaceChanged(int width, int height) {
+        super.onSurfaceChanged(width, height);
+        mFilterChain.onSurfaceChanged(width, height);
+    }
+
+    @Override
+    protected void onDrawTexture(int textureId) {
+        mOutputTextureId = mFilterChain.draw(textureId);
+        super.onDrawTexture(mOutputTextureId);
+    }
+
+    @Override
+    public int getTextureId() {
+        int outputTextureId = mOutputTextureId;
+        return outputTextureId != 0 ? outputTextureId : super.getTextureId();
+    }
+
+}
@@ -6,8 +6,10 @@ import android.opengl.EGLContext;
 import android.view.View;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
 import com.sharry.lib.opengles.ITextureRenderer;
+import com.sharry.lib.opengles.TextureReader;
 
 /**
  * 相机预览器的抽象描述
@@ -47,14 +49,70 @@ public interface IPreviewer {
 
     /**
      * 获取当前帧的数据
+     * <p>
+     * 在 UI 线程中同步拷贝整个画面, 不阻塞时请使用 {@link #readBitmap}
      */
     Bitmap getBitmap();
 
+    /**
+     * 异步读取下一帧画面, 在渲染线程中读取, 结果回调在 UI 线程
+     */
+    void readBitmap(@NonNull TextureReader.BitmapCallback callback);
+
+    /**
+     * 归还 {@link #readBitmap} 获取的 Bitmap, 后续读取时复用
+     */
+    void recycleBitmap(@NonNull Bitmap bitmap);
+
+    /**
+     * 异步读取下一帧画面的 RGBA 数据, 结果回调在工作线程
+     */
+    void readPixels(@NonNull TextureReader.PixelsCallback callback);
+
+    /**
+     * 开始连拍, 预览不会中断
+     *
+     * @param count   连拍的张数
+     * @param quality JPEG 压缩质量
+     */
+    void startBurst(int count, int quality, @NonNull BurstCallback callback);
+
+    /**
+     * 停止连拍, 已采集的帧会继续写出
+     */
+    void stopBurst();
+
     /**
      * 获取当前的渲染环境
      */
     EGLContext getEGLContext();
 
+    /**
+     * 添加帧绘制完成的监听器
+     */
+    void addOnFrameDrawnListener(@NonNull OnFrameDrawnListener listener);
+
+    /**
+     * 移除帧绘制完成的监听器
+     */
+    void removeOnFrameDrawnListener(@NonNull OnFrameDrawnListener listener);
+
+    /**
+     * 预览器每绘制完一帧相机数据回调一次, 用于驱动共享纹理的下游消费者, 如视频编码
+     */
+    interface OnFrameDrawnListener {
+
+        /**
+         * 在预览器的渲染线程中回调, 此时纹理的绘制指令已经提交
+         *
+         * @param textureId      绘制完成的纹理 id
+         * @param timestampNanos 相机帧的时间戳
+         */
+        @WorkerThread
+        void onFrameDrawn(int textureId, long timestampNanos);
+
+    }
+
     /**
      * 相机预览器的 Renderer
      * <p>
@@ -83,6 +141,12 @@ public interface IPreviewer {
 
         void applyMatrix();
 
+        /**
+         * 在渲染线程中释放 EGL 上下文前调用, 删除渲染器创建的 GL 资源
+         */
+        @WorkerThread
+        void onRendererReleased();
+
     }
 
 }
@@ -5,6 +5,7 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 import android.opengl.EGLContext;
+import android.opengl.GLES20;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
@@ -14,8 +15,11 @@ import android.widget.FrameLayout;
 import androidx.annotation.NonNull;
 
 import com.sharry.lib.opengles.GLTextureView;
+import com.sharry.lib.opengles.TextureReader;
 
 import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Camera 预览器
@@ -32,6 +36,12 @@ public final class Previewer extends GLTextureView implements IPreviewer {
     private static final String TAG = Previewer.class.getSimpleName();
 
     private final SurfaceTexture.OnFrameAvailableListener mFrameAvailableListener;
+    /**
+     * 连拍的读取全部进行中时, 快照仍有一个缓冲可以复用
+     */
+    private final TextureReader mTextureReader = new TextureReader(BurstCapturer.RING_SIZE + 1);
+    private final BurstCapturer mBurstCapturer = new BurstCapturer(mTextureReader);
+    private final List<OnFrameDrawnListener> mFrameDrawnListeners = new CopyOnWriteArrayList<>();
     private SurfaceTexture mDataSource;
     private Renderer mRenderer;
 
@@ -95,6 +105,75 @@ public final class Previewer extends GLTextureView implements IPreviewer {
         return super.getBitmap();
     }
 
+    @Override
+    public void readBitmap(@NonNull TextureReader.BitmapCallback callback) {
+        mTextureReader.readBitmap(callback);
+        requestRenderer();
+    }
+
+    @Override
+    public void recycleBitmap(@NonNull Bitmap bitmap) {
+        mTextureReader.recycleBitmap(bitmap);
+    }
+
+    @Override
+    public void readPixels(@NonNull TextureReader.PixelsCallback callback) {
+        mTextureReader.readPixels(callback);
+        requestRenderer();
+    }
+
+    @Override
+    public void startBurst(int count, int quality, @NonNull BurstCallback callback) {
+        mBurstCapturer.start(count, quality, callback);
+    }
+
+    @Override
+    public void stopBurst() {
+        mBurstCapturer.stop();
+        // 相机停止输出后, 主动驱动一帧让渲染线程结束采集
+        requestRenderer();
+    }
+
+    @Override
+    public void addOnFrameDrawnListener(@NonNull OnFrameDrawnListener listener) {
+        if (!mFrameDrawnListeners.contains(listener)) {
+            mFrameDrawnListeners.add(listener);
+        }
+    }
+
+    @Override
+    public void removeOnFrameDrawnListener(@NonNull OnFrameDrawnListener listener) {
+        mFrameDrawnListeners.remove(listener);
+    }
+
+    @Override
+    protected void onFrameDrawn() {
+        int textureId = mRenderer.getTextureId();
+        mBurstCapturer.onFrameDrawn(textureId, getWidth(), getHeight());
+        // PBO 的读取结果需要在后续帧中获取, 相机没有新帧时主动驱动绘制
+        if (mTextureReader.onFrameDrawn(textureId, getWidth(), getHeight())) {
+            requestRenderer();
+        }
+        if (mFrameDrawnListeners.isEmpty()) {
+            return;
+        }
+        // 提交绘制指令, 保证共享上下文的线程能读取到这一帧
+        GLES20.glFlush();
+        long timestampNanos = mDataSource != null ? mDataSource.getTimestamp() : System.nanoTime();
+        for (OnFrameDrawnListener listener : mFrameDrawnListeners) {
+            listener.onFrameDrawn(textureId, timestampNanos);
+        }
+    }
+
+    @Override
+    protected void onRendererReleased() {
+        // 上下文释放前删除读取使用的 FBO 和 PBO, 未完成的快照和连拍帧回调失败
+        mBurstCapturer.release();
+        mTextureReader.release();
+        // 渲染器的 FBO 纹理在上下文组内共享, 不会随上下文销毁
+        mRenderer.onRendererReleased();
+    }
+
     @Override
     public EGLContext getEGLContext() {
         return getEglContext();
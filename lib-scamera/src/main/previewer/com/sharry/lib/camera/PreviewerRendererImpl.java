@@ -9,6 +9,8 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.sharry.lib.opengles.EglContextGroup;
+import com.sharry.lib.opengles.GlSharedFramebuffer;
 import com.sharry.lib.opengles.GlUtil;
 
 import java.nio.FloatBuffer;
@@ -78,6 +80,8 @@ public class PreviewerRendererImpl implements IPreviewer.Renderer {
     public PreviewerRendererImpl(Context context) {
         mContext = context;
         mFboHelper = new FboHelper();
+        // 后续启动时从程序二进制中加载, 跳过着色器的编译
+        GlUtil.setupProgramCache(context);
     }
 
     @Override
@@ -195,6 +199,28 @@ public class PreviewerRendererImpl implements IPreviewer.Renderer {
         return mFboHelper.getTexture2DId();
     }
 
+    @Override
+    public void onRendererReleased() {
+        // 组内的共享纹理和 FBO 不随上下文销毁, 需要显式释放
+        mFboHelper.release();
+        if (mOESTexture != null && mIsAttached) {
+            try {
+                mOESTexture.detachFromGLContext();
+            } catch (Throwable e) {
+                // ignore.
+            }
+        }
+        if (mOESTextureId != 0) {
+            GLES20.glDeleteTextures(1, new int[]{mOESTextureId}, 0);
+            mOESTextureId = 0;
+        }
+        if (mVboId != 0) {
+            GLES20.glDeleteBuffers(1, new int[]{mVboId}, 0);
+        }
+        // 程序由缓存管理, 随上下文一起释放
+        reset();
+    }
+
     private void reset() {
         this.mProgram = 0;
         this.mVboId = 0;
@@ -208,7 +234,7 @@ public class PreviewerRendererImpl implements IPreviewer.Renderer {
         // 加载着色器
         String vertexSource = GlUtil.getGLResource(mContext, R.raw.camera_vertex_shader);
         String fragmentSource = GlUtil.getGLResource(mContext, R.raw.camera_fragment_shader);
-        mProgram = GlUtil.createProgram(vertexSource, fragmentSource);
+        mProgram = GlUtil.obtainProgram(vertexSource, fragmentSource);
         // 加载 Program 中的变量
         aVertexCoordinate = GLES20.glGetAttribLocation(mProgram, "aVertexCoordinate");
         aTextureCoordinate = GLES20.glGetAttribLocation(mProgram, "aTextureCoordinate");
@@ -327,25 +353,34 @@ public class PreviewerRendererImpl implements IPreviewer.Renderer {
 
     /**
      * 用于离屏渲染
+     * <p>
+     * 帧缓冲由上下文组管理, 颜色附件纹理可被组内的编码等线程直接采样
      */
     private static class FboHelper {
 
-        private int mFramebufferId;
-        private int mTextureId;
+        private GlSharedFramebuffer mFramebuffer;
 
         FboHelper() {
         }
 
         void onSurfaceSizeChanged(int width, int height) {
             GLES20.glViewport(0, 0, width, height);
-            // 配置纹理
-            setupTexture(width, height);
-            // 配置 fbo
-            setupFbo();
+            // 上下文变更后 FBO 不能在当前上下文中绑定, 需重新创建
+            if (mFramebuffer != null && !mFramebuffer.isOwnerCurrent()) {
+                mFramebuffer.release();
+                mFramebuffer = null;
+            }
+            if (mFramebuffer == null) {
+                mFramebuffer = EglContextGroup.getDefault().createFramebuffer(width, height);
+            } else {
+                mFramebuffer.resize(width, height);
+            }
         }
 
         void bindFramebuffer() {
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferId);
+            if (mFramebuffer != null) {
+                mFramebuffer.bind();
+            }
         }
 
         void unbindFramebuffer() {
@@ -353,59 +388,14 @@ public class PreviewerRendererImpl implements IPreviewer.Renderer {
         }
 
         int getTexture2DId() {
-            return mTextureId;
+            return mFramebuffer != null ? mFramebuffer.getTexture().getTextureId() : 0;
         }
 
-        private void setupTexture(int width, int height) {
-            if (mTextureId == 0) {
-                int[] textureIds = new int[1];
-                GLES20.glGenTextures(1, textureIds, 0);
-                mTextureId = textureIds[0];
+        void release() {
+            if (mFramebuffer != null) {
+                mFramebuffer.release();
+                mFramebuffer = null;
             }
-            // 绑定纹理
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId);
-            // 设置纹理环绕方式
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_REPEAT);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_REPEAT);
-            // 设置纹理过滤方式
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-            // 创建一个空的纹理画布
-            GLES20.glTexImage2D(
-                    GLES20.GL_TEXTURE_2D,
-                    0,
-                    GLES20.GL_RGBA,
-                    width, height,
-                    0,
-                    GLES20.GL_RGBA,
-                    GLES20.GL_UNSIGNED_BYTE,
-                    null
-            );
-            // 解绑纹理
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-        }
-
-        private void setupFbo() {
-            if (mFramebufferId != 0) {
-                return;
-            }
-            // 创建 fbo
-            int[] fBoIds = new int[1];
-            GLES20.glGenBuffers(1, fBoIds, 0);
-            mFramebufferId = fBoIds[0];
-            // 绑定 fbo
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferId);
-            // 将纹理绑定到 FBO 上, 作为颜色附件
-            GLES20.glFramebufferTexture2D(
-                    GLES20.GL_FRAMEBUFFER,
-                    GLES20.GL_COLOR_ATTACHMENT0,  // 描述为颜色附件
-                    GLES20.GL_TEXTURE_2D,
-                    mTextureId,
-                    0
-            );
-            // 解绑 fbo
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
         }
 
     }
@@ -74,6 +74,11 @@ public abstract class PreviewerRendererWrapper implements IPreviewer.Renderer {
         mImpl.setMatrix(matrix);
     }
 
+    @Override
+    public void onRendererReleased() {
+        mImpl.onRendererReleased();
+    }
+
     protected abstract void onDrawTexture(int textureId);
 
 }